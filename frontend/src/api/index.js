@@ -195,9 +195,10 @@ export const logApi = {
    * @param {string} appCode - 应用编码
    * @param {number} afterSeq - 上次读取的最后序号
    * @param {number} limit - 最大返回条数
+   * @param {string} format - 响应格式：json（logs 数组）或 compact（frame 紧凑帧）
    */
-  incremental(appCode, afterSeq = 0, limit = 1000) {
-    return api.get('/logs/buffer/incremental', { params: { appCode, afterSeq, limit } })
+  incremental(appCode, afterSeq = 0, limit = 1000, format = 'json') {
+    return api.get('/logs/buffer/incremental', { params: { appCode, afterSeq, limit, format } })
   },
 
   /**
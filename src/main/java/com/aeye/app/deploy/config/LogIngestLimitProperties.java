@@ -0,0 +1,90 @@
+package com.aeye.app.deploy.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 日志写入限流配置
+ *
+ * 配置示例（application.yml）：
+ * app:
+ *   log:
+ *     ingest-limit:
+ *       enabled: false
+ *       summary-interval-seconds: 5
+ *       defaults:
+ *         live-lines-per-second: 5000
+ *         live-burst: 20000
+ *         disk-lines-per-second: 0
+ *       apps:
+ *         order-service:
+ *           live-lines-per-second: 20000
+ *           disk-lines-per-second: 2000
+ *
+ * live 为进入内存缓冲区（以及WebSocket推送、长轮询/SSE）的预算，disk 为写入日志文件的预算。
+ * live 预算在发布到缓冲区之前生效，文件写入消费缓冲区中的日志，超出 live 预算的日志同样不会写入文件，
+ * disk 预算只能进一步限制写入文件的行数，不能为日志文件保留比 live 更宽的预算。
+ * 启用后日志文件可能缺少被丢弃的行（只留有汇总日志），因此默认关闭，需要时按应用评估后开启。
+ * apps 的key为应用编码，未配置的项使用 defaults 中的值，速率为0表示不限制，突发量不小于速率。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.log.ingest-limit")
+public class LogIngestLimitProperties {
+
+    /** 是否启用写入限流（默认关闭，开启后超出 live 预算的日志也不会写入文件） */
+    private boolean enabled = false;
+
+    /** 丢弃汇总日志的最小间隔（秒） */
+    private int summaryIntervalSeconds = 5;
+
+    /** 默认应用预算 */
+    private Budget defaults = new Budget();
+
+    /** 按应用编码覆盖的预算 */
+    private Map<String, Budget> apps = new HashMap<>();
+
+    /**
+     * 单个应用的预算（行/秒，多行事件按一行计）
+     */
+    @Data
+    public static class Budget {
+        /** 进入内存缓冲区的速率 */
+        private Integer liveLinesPerSecond;
+        /** 进入内存缓冲区的突发量 */
+        private Integer liveBurst;
+        /** 写入日志文件的速率 */
+        private Integer diskLinesPerSecond;
+        /** 写入日志文件的突发量 */
+        private Integer diskBurst;
+    }
+
+    /**
+     * 获取应用生效的预算（应用配置覆盖默认配置）
+     *
+     * @param appCode 应用编码
+     * @return 合并后的预算
+     */
+    public Budget resolve(String appCode) {
+        Budget override = apps.get(appCode);
+        Budget result = new Budget();
+        result.setLiveLinesPerSecond(pick(override != null ? override.getLiveLinesPerSecond() : null,
+                defaults.getLiveLinesPerSecond()));
+        result.setLiveBurst(pick(override != null ? override.getLiveBurst() : null, defaults.getLiveBurst()));
+        result.setDiskLinesPerSecond(pick(override != null ? override.getDiskLinesPerSecond() : null,
+                defaults.getDiskLinesPerSecond()));
+        result.setDiskBurst(pick(override != null ? override.getDiskBurst() : null, defaults.getDiskBurst()));
+        return result;
+    }
+
+    private static <T> T pick(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+}
@@ -0,0 +1,68 @@
+package com.aeye.app.deploy.config;
+
+import com.aeye.app.deploy.util.LogLineParser;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 日志行解析配置
+ * 
+ * 配置示例（application.yml）：
+ * app:
+ *   log:
+ *     parser:
+ *       deploy: logback
+ *       build: auto
+ *       apps:
+ *         legacy-service: plain
+ * 
+ * 可选格式：logback（兼容log4j）、maven、npm、plain。
+ * build 为 auto 时前端项目使用 npm，其他项目使用 maven；apps 的key为应用编码，同时作用于构建和运行日志。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.log.parser")
+public class LogParserProperties {
+
+    /** 自动选择构建日志格式 */
+    public static final String AUTO = "auto";
+
+    /** 应用运行日志格式 */
+    private String deploy = LogLineParser.TYPE_LOGBACK;
+
+    /** 构建日志格式 */
+    private String build = AUTO;
+
+    /** 按应用编码覆盖的格式 */
+    private Map<String, String> apps = new HashMap<>();
+
+    /**
+     * 创建应用运行日志解析器
+     *
+     * @param appCode 应用编码
+     */
+    public LogLineParser createDeployParser(String appCode) {
+        return LogLineParser.create(apps.getOrDefault(appCode, deploy));
+    }
+
+    /**
+     * 创建构建日志解析器
+     *
+     * @param appCode 应用编码
+     * @param appType 应用类型（2为前端项目）
+     */
+    public LogLineParser createBuildParser(String appCode, String appType) {
+        String type = apps.getOrDefault(appCode, build);
+        if (AUTO.equalsIgnoreCase(type)) {
+            type = "2".equals(appType) ? LogLineParser.TYPE_NPM : LogLineParser.TYPE_MAVEN;
+        }
+        return LogLineParser.create(type);
+    }
+}
@@ -0,0 +1,86 @@
+package com.aeye.app.deploy.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 日志文件保留策略配置
+ * 
+ * 配置示例（application.yml）：
+ * app:
+ *   log:
+ *     retention:
+ *       enabled: true
+ *       max-total-mb: 10240
+ *       defaults:
+ *         max-runs-per-version: 5
+ *         max-age-days: 30
+ *         max-app-mb: 2048
+ *       apps:
+ *         order-service:
+ *           max-age-days: 7
+ * 
+ * apps 的key为日志目录名（与 logs/&lt;app&gt; 子目录一致），未配置的项使用 defaults 中的值，
+ * 数值为0表示不限制。
+ * 清理会永久删除日志，默认不启用，可先通过 /logFiles/retention/preview 预览将被删除的分段再启用。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.log.retention")
+public class LogRetentionProperties {
+
+    /** 是否启用自动清理（默认不启用） */
+    private boolean enabled = false;
+
+    /** 清理检查间隔（分钟） */
+    private int checkIntervalMinutes = 10;
+
+    /** 日志目录总占用上限（MB），超出时从最旧的分段开始删除 */
+    private long maxTotalMb = 0;
+
+    /** 默认应用策略 */
+    private Policy defaults = new Policy();
+
+    /** 按应用目录名覆盖的策略 */
+    private Map<String, Policy> apps = new HashMap<>();
+
+    /**
+     * 单个应用的保留策略
+     */
+    @Data
+    public static class Policy {
+        /** 每个版本保留的最近运行/打包次数 */
+        private Integer maxRunsPerVersion;
+        /** 最长保留天数 */
+        private Integer maxAgeDays;
+        /** 应用日志总占用上限（MB） */
+        private Long maxAppMb;
+    }
+
+    /**
+     * 获取应用生效的策略（应用配置覆盖默认配置）
+     *
+     * @param appDir 应用日志目录名
+     * @return 合并后的策略
+     */
+    public Policy resolve(String appDir) {
+        Policy override = apps.get(appDir);
+        Policy result = new Policy();
+        result.setMaxRunsPerVersion(pick(override != null ? override.getMaxRunsPerVersion() : null,
+                defaults.getMaxRunsPerVersion()));
+        result.setMaxAgeDays(pick(override != null ? override.getMaxAgeDays() : null, defaults.getMaxAgeDays()));
+        result.setMaxAppMb(pick(override != null ? override.getMaxAppMb() : null, defaults.getMaxAppMb()));
+        return result;
+    }
+
+    private static <T> T pick(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+}
@@ -1,6 +1,8 @@
 package com.aeye.app.deploy.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
@@ -9,6 +11,19 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    /** 异步请求默认超时比日志搜索超时多留的时间（秒），用于写出搜索超时后的汇总行 */
+    private static final int ASYNC_TIMEOUT_MARGIN_SECONDS = 30;
+
+    @Value("${app.log.grep.timeout-seconds:60}")
+    private int grepTimeoutSeconds;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        // 流式返回的日志搜索（/logFiles/grep）使用异步请求默认超时，容器默认值（Tomcat 30秒）短于搜索超时，
+        // 会在搜索结束前中断响应；SSE和长轮询各自设置了超时，不受影响
+        configurer.setDefaultTimeout((grepTimeoutSeconds + ASYNC_TIMEOUT_MARGIN_SECONDS) * 1000L);
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         // Vue构建的静态资源
@@ -2,10 +2,17 @@ package com.aeye.app.deploy.config;
 
 import com.aeye.app.deploy.service.LogWebSocketHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.List;
+import java.util.stream.Collectors;
 
 @Configuration
 @EnableWebSocket
@@ -14,9 +21,26 @@ public class WebSocketConfig implements WebSocketConfigurer {
     @Autowired
     private LogWebSocketHandler logWebSocketHandler;
 
+    /** 是否允许客户端协商 permessage-deflate 压缩 */
+    @Value("${app.websocket.permessage-deflate:true}")
+    private boolean permessageDeflate;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(logWebSocketHandler, "/ws/logs")
+                .setHandshakeHandler(new DefaultHandshakeHandler() {
+                    @Override
+                    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                            List<WebSocketExtension> requested, List<WebSocketExtension> supported) {
+                        List<WebSocketExtension> extensions = super.filterRequestedExtensions(request, requested, supported);
+                        if (permessageDeflate) {
+                            return extensions;
+                        }
+                        return extensions.stream()
+                                .filter(e -> !"permessage-deflate".equalsIgnoreCase(e.getName()))
+                                .collect(Collectors.toList());
+                    }
+                })
                 .setAllowedOrigins("*");
     }
 }
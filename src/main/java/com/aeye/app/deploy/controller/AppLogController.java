@@ -3,10 +3,16 @@ package com.aeye.app.deploy.controller;
 import com.aeye.app.deploy.service.AppLogService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import java.time.LocalDateTime;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,21 +37,121 @@ public class AppLogController {
 
     /**
      * 增量获取日志
-     * 根据序号获取指定应用的新增日志，用于前端轮询
+     * 根据序号获取指定应用的新增日志，用于前端轮询。
+     * 指定 wait 时没有新日志的请求异步挂起，直到有新日志或等待超时（长轮询）。
+     * 不等待的请求带有按缓冲区序号范围生成的 ETag，If-None-Match 未变化时直接返回304，不读取和序列化日志
      *
      * @param appCode  应用编码
      * @param afterSeq 起始序号（返回大于此序号的日志）
      * @param limit    返回数量限制
+     * @param format   响应格式：json（logs 为日志数组）或 compact（frame 为紧凑帧）
+     * @param wait     没有新日志时的最长等待时间（毫秒），0 表示立即返回
      * @return 日志列表和最新序号
      */
     @GetMapping("/buffer/incremental")
-    public ResponseEntity<Map<String, Object>> getLogsIncremental(
+    public DeferredResult<Map<String, Object>> getLogsIncremental(
             @RequestParam(required = false) String appCode,
             @RequestParam(defaultValue = "0") long afterSeq,
-            @RequestParam(defaultValue = "1000") int limit) {
-        Map<String, Object> result = appLogService.getLogsIncremental(appCode, afterSeq, limit);
-        result.put("timestamp", LocalDateTime.now());
-        return ResponseEntity.ok(result);
+            @RequestParam(defaultValue = "1000") int limit,
+            @RequestParam(defaultValue = "json") String format,
+            @RequestParam(defaultValue = "0") long wait,
+            WebRequest webRequest) {
+        if (wait <= 0) {
+            String etag = appLogService.getIncrementalETag(appCode, format);
+            if (etag != null && webRequest.checkNotModified(etag)) {
+                return null;
+            }
+        }
+        return appLogService.awaitLogsIncremental(appCode, afterSeq, limit, format, wait);
+    }
+
+    /**
+     * 按序号窗口获取日志（用于虚拟滚动）
+     * 返回序号在 [fromSeq, fromSeq + count) 内仍保留的日志和缓冲区当前的序号范围（firstSeq、lastSeq），
+     * 窗口内容不变时 If-None-Match 返回304
+     *
+     * @param appCode 应用编码
+     * @param fromSeq 起始序号（包含）
+     * @param count   窗口大小，最多2000
+     * @param format  响应格式：json 或 compact
+     * @return 窗口内的日志
+     */
+    @GetMapping("/buffer/window")
+    public ResponseEntity<Map<String, Object>> getLogsWindow(
+            @RequestParam String appCode,
+            @RequestParam long fromSeq,
+            @RequestParam(defaultValue = "200") int count,
+            @RequestParam(defaultValue = "json") String format,
+            WebRequest webRequest) {
+        String etag = appLogService.getWindowETag(appCode, fromSeq, count, format);
+        if (etag != null && webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok(appLogService.getLogsWindow(appCode, fromSeq, count, format));
+    }
+
+    /**
+     * SSE日志流
+     * 从 afterSeq 之后持续推送日志（logs 事件，id 为批次最后一条的序号；日志被覆盖时发送 gap 事件），
+     * 断线重连时按 Last-Event-ID 继续
+     *
+     * @param appCode     应用编码
+     * @param afterSeq    起始序号（不包含），不传时只推送之后的新日志
+     * @param lastEventId 浏览器重连时携带的上次事件ID
+     * @param request     SSE请求（在其上开启异步处理）
+     * @param response    SSE响应，订阅数已达上限时返回503
+     * @throws IOException 写响应失败
+     */
+    @GetMapping(value = "/buffer/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public void streamLogs(
+            @RequestParam String appCode,
+            @RequestParam(required = false) Long afterSeq,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!appLogService.openLogStream(appCode, afterSeq, lastEventId, request, response)) {
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+        }
+    }
+
+    /**
+     * 获取长轮询和SSE统计（挂起的请求数和各SSE订阅的序号、积压和发送计数）
+     *
+     * @return 统计信息
+     */
+    @GetMapping("/tail/stats")
+    public ResponseEntity<Map<String, Object>> getTailStats() {
+        return ResponseEntity.ok(appLogService.getTailStats());
+    }
+
+    /**
+     * 获取日志缓冲区统计
+     * 包括全局内存预算、各应用缓存条数、字节数、字节上限和淘汰次数
+     *
+     * @return 统计信息
+     */
+    @GetMapping("/buffer/stats")
+    public ResponseEntity<Map<String, Object>> getBufferStats() {
+        return ResponseEntity.ok(appLogService.getBufferStats());
+    }
+
+    /**
+     * 获取日志文件写入统计（刷新延迟、落盘次数和每次落盘字节数）
+     *
+     * @return 统计信息
+     */
+    @GetMapping("/writer/stats")
+    public ResponseEntity<Map<String, Object>> getWriterStats() {
+        return ResponseEntity.ok(appLogService.getWriterStats());
+    }
+
+    /**
+     * 获取WebSocket推送统计（各会话的发送队列长度、延迟、发送和丢弃计数）
+     *
+     * @return 统计信息
+     */
+    @GetMapping("/ws/stats")
+    public ResponseEntity<Map<String, Object>> getWebSocketStats() {
+        return ResponseEntity.ok(appLogService.getWebSocketStats());
     }
 
     /**
@@ -1,15 +1,25 @@
 package com.aeye.app.deploy.controller;
 
 import com.aeye.app.deploy.config.DirectoryConfig;
+import com.aeye.app.deploy.service.LogGrepService;
+import com.aeye.app.deploy.service.LogRetentionService;
+import com.aeye.app.deploy.service.LogSearchService;
+import com.aeye.app.deploy.service.LogSegmentRegistry;
+import com.aeye.app.deploy.util.LogLineIndex;
+import com.aeye.app.deploy.util.LogSegmentFiles;
+import com.aeye.app.deploy.util.LogTailReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
 import java.io.IOException;
@@ -30,8 +40,15 @@ import java.util.stream.Stream;
  * - 获取应用列表（日志目录下的子目录）
  * - 获取指定应用的日志文件列表
  * - 读取日志文件内容（支持分页加载）
+ * - 按行读取日志文件（指定行范围、跳转到指定行、读取最后N行），基于稀疏行索引定位
  * - 下载日志文件
  * - 删除日志文件
+ * - 预览保留策略将清理的文件
+ * - 按词元搜索应用的历史日志（基于分段倒排索引）
+ * - 按子串或正则表达式并行扫描日志分段，结果流式返回
+ * 
+ * 已封存并压缩的分段（.log.gz）对调用方透明：列表显示解压后的大小，
+ * 内容分页的偏移量基于解压后的字节，下载时返回解压后的内容。
  *
  * @author aeye
  * @since 1.0.0
@@ -42,9 +59,24 @@ public class LogFileController {
 
     private static final Logger logger = LoggerFactory.getLogger(LogFileController.class);
 
+    /** 按行读取的单次最大行数 */
+    private static final int MAX_LINES = 10000;
+
     @Autowired
     private DirectoryConfig directoryConfig;
 
+    @Autowired
+    private LogRetentionService logRetentionService;
+
+    @Autowired
+    private LogSearchService logSearchService;
+
+    @Autowired
+    private LogGrepService logGrepService;
+
+    @Autowired
+    private LogSegmentRegistry segmentRegistry;
+
     /**
      * 获取应用列表（日志目录下的子目录）
      */
@@ -110,13 +142,16 @@ public class LogFileController {
 
             try (Stream<Path> stream = Files.list(appLogPath)) {
                 files = stream
-                    .filter(p -> p.toString().endsWith(".log"))
+                    .filter(p -> LogSegmentFiles.isLogFile(p.getFileName().toString()))
                     .map(p -> {
                         Map<String, Object> file = new HashMap<>();
                         File f = p.toFile();
+                        long size = contentLength(f);
                         file.put("fileName", f.getName());
-                        file.put("size", f.length());
-                        file.put("sizeText", formatFileSize(f.length()));
+                        file.put("size", size);
+                        file.put("sizeText", formatFileSize(size));
+                        file.put("compressed", LogSegmentFiles.isCompressed(f));
+                        file.put("storedSize", f.length());
                         file.put("lastModified", sdf.format(new Date(f.lastModified())));
                         file.put("lastModifiedTime", f.lastModified());
                         return file;
@@ -165,26 +200,21 @@ public class LogFileController {
             }
 
             File file = filePath.toFile();
-            long fileSize = file.length();
-
-            // 读取文件内容
-            byte[] bytes;
-            try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(file, "r")) {
-                if (offset >= fileSize) {
-                    response.put("success", true);
-                    response.put("content", "");
-                    response.put("offset", fileSize);
-                    response.put("fileSize", fileSize);
-                    response.put("hasMore", false);
-                    return ResponseEntity.ok(response);
-                }
+            // 压缩文件按解压后的大小和偏移量分页
+            long fileSize = LogSegmentFiles.contentLength(file);
 
-                raf.seek(offset);
-                int readSize = (int) Math.min(limit, fileSize - offset);
-                bytes = new byte[readSize];
-                raf.readFully(bytes);
+            if (offset >= fileSize) {
+                response.put("success", true);
+                response.put("content", "");
+                response.put("offset", fileSize);
+                response.put("fileSize", fileSize);
+                response.put("hasMore", false);
+                return ResponseEntity.ok(response);
             }
 
+            // 读取文件内容
+            byte[] bytes = LogSegmentFiles.readRange(file, offset, limit);
+
             String content = new String(bytes, StandardCharsets.UTF_8);
             long newOffset = offset + bytes.length;
 
@@ -202,6 +232,186 @@ public class LogFileController {
         }
     }
 
+    /**
+     * 按行读取日志文件
+     * 行号从0开始，可用于按行分页和跳转到指定行
+     */
+    @GetMapping("/lines")
+    public ResponseEntity<Map<String, Object>> getFileLines(
+            @RequestParam String appCode,
+            @RequestParam String fileName,
+            @RequestParam(defaultValue = "0") long from,
+            @RequestParam(defaultValue = "1000") int count) {
+        return readLines(appCode, fileName, from, count, false);
+    }
+
+    /**
+     * 读取日志文件最后N行
+     * 只返回行内容（不返回总行数），需要行号时使用 /lines
+     */
+    @GetMapping("/tail")
+    public ResponseEntity<Map<String, Object>> getFileTail(
+            @RequestParam String appCode,
+            @RequestParam String fileName,
+            @RequestParam(defaultValue = "1000") int lines) {
+        return readLines(appCode, fileName, 0, lines, true);
+    }
+
+    private ResponseEntity<Map<String, Object>> readLines(String appCode, String fileName,
+            long from, int count, boolean tail) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            if (!isValidAppCode(appCode) || !isValidFileName(fileName) || count <= 0 || count > MAX_LINES) {
+                response.put("success", false);
+                response.put("message", "无效的参数");
+                return ResponseEntity.ok(response);
+            }
+
+            Path filePath = Paths.get(directoryConfig.getLogsDir(), appCode, fileName);
+            if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
+                response.put("success", false);
+                response.put("message", "文件不存在");
+                return ResponseEntity.ok(response);
+            }
+
+            File file = filePath.toFile();
+            if (tail) {
+                // 从文件末尾按块向前读取，不建立行索引，也不统计总行数
+                response.put("success", true);
+                response.put("lines", LogTailReader.tail(file, count));
+                return ResponseEntity.ok(response);
+            }
+            LogLineIndex index = LogLineIndex.open(file, !segmentRegistry.isActive(file));
+            long totalLines = index.getTotalLines();
+            List<String> lines = index.readLines(from, count);
+
+            response.put("success", true);
+            response.put("lines", lines);
+            response.put("from", from);
+            response.put("totalLines", totalLines);
+            response.put("hasMore", from + lines.size() < totalLines);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("按行读取日志文件失败", e);
+            response.put("success", false);
+            response.put("message", "读取文件失败");
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 按词元搜索应用日志
+     * 返回同时包含所有查询词元（如traceId、异常类名、订单号）的行，以及所在文件、偏移量和行号
+     */
+    @GetMapping("/search")
+    public ResponseEntity<Map<String, Object>> search(
+            @RequestParam String appCode,
+            @RequestParam String q,
+            @RequestParam(required = false) String fileName,
+            @RequestParam(defaultValue = "100") int limit) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            if (!isValidAppCode(appCode) || (fileName != null && !fileName.isEmpty() && !isValidFileName(fileName))
+                    || limit <= 0 || limit > MAX_LINES) {
+                response.put("success", false);
+                response.put("message", "无效的参数");
+                return ResponseEntity.ok(response);
+            }
+            response.put("success", true);
+            response.put("data", logSearchService.search(appCode, q, fileName, limit));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("搜索日志失败", e);
+            response.put("success", false);
+            response.put("message", "搜索失败");
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 按时间范围和最低级别查询应用日志
+     * 通过分段的时间索引直接定位到起始时间附近，按时间先后返回命中的行
+     *
+     * @param from     起始时间，格式 yyyy-MM-dd HH:mm:ss
+     * @param to       结束时间，格式 yyyy-MM-dd HH:mm:ss，为空时到当前时间
+     * @param minLevel 最低级别（可选），如 WARN 返回 WARN 和 ERROR
+     */
+    @GetMapping("/range")
+    public ResponseEntity<Map<String, Object>> range(
+            @RequestParam String appCode,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") Date from,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") Date to,
+            @RequestParam(required = false) String minLevel,
+            @RequestParam(required = false) String fileName,
+            @RequestParam(defaultValue = "1000") int limit) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            long toTime = to != null ? to.getTime() : System.currentTimeMillis();
+            if (!isValidAppCode(appCode) || (fileName != null && !fileName.isEmpty() && !isValidFileName(fileName))
+                    || limit <= 0 || limit > MAX_LINES || toTime < from.getTime()) {
+                response.put("success", false);
+                response.put("message", "无效的参数");
+                return ResponseEntity.ok(response);
+            }
+            response.put("success", true);
+            response.put("data", logSearchService.searchTimeRange(appCode, from.getTime(), toTime, minLevel,
+                    fileName, limit));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("按时间范围查询日志失败", e);
+            response.put("success", false);
+            response.put("message", "查询失败");
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * 按子串或正则表达式搜索日志分段
+     * 结果以 NDJSON 流式返回：每个命中一行，最后一行为汇总信息；达到条数上限后停止扫描
+     *
+     * @param appCode 应用编码，多个用逗号分隔，为空时搜索全部应用
+     */
+    @GetMapping("/grep")
+    public ResponseEntity<StreamingResponseBody> grep(
+            @RequestParam(required = false) String appCode,
+            @RequestParam String pattern,
+            @RequestParam(defaultValue = "false") boolean regex,
+            @RequestParam(defaultValue = "false") boolean ignoreCase,
+            @RequestParam(defaultValue = "500") int limit) {
+        List<String> appCodes = new ArrayList<>();
+        if (appCode != null && !appCode.trim().isEmpty()) {
+            for (String code : appCode.split(",")) {
+                if (!isValidAppCode(code.trim())) {
+                    return ResponseEntity.badRequest().build();
+                }
+                appCodes.add(code.trim());
+            }
+        }
+        if (pattern.isEmpty() || limit <= 0 || limit > MAX_LINES) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (regex) {
+            try {
+                java.util.regex.Pattern.compile(pattern);
+            } catch (java.util.regex.PatternSyntaxException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+
+        StreamingResponseBody body = out -> logGrepService.grep(appCodes, pattern, regex, ignoreCase, limit, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson;charset=UTF-8"))
+                .body(body);
+    }
+
     /**
      * 下载日志文件
      */
@@ -220,8 +430,22 @@ public class LogFileController {
                 return ResponseEntity.notFound().build();
             }
 
-            Resource resource = new FileSystemResource(filePath.toFile());
-            String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8.toString())
+            File file = filePath.toFile();
+            String downloadName = fileName;
+            Resource resource;
+            if (LogSegmentFiles.isCompressed(file)) {
+                // 压缩分段解压后以.log文件下载
+                downloadName = LogSegmentFiles.baseName(fileName) + LogSegmentFiles.LOG_SUFFIX;
+                resource = new InputStreamResource(LogSegmentFiles.openStream(file)) {
+                    @Override
+                    public long contentLength() throws IOException {
+                        return LogSegmentFiles.contentLength(file);
+                    }
+                };
+            } else {
+                resource = new FileSystemResource(file);
+            }
+            String encodedFileName = URLEncoder.encode(downloadName, StandardCharsets.UTF_8.toString())
                     .replace("+", "%20");
 
             return ResponseEntity.ok()
@@ -258,7 +482,11 @@ public class LogFileController {
                 return ResponseEntity.ok(response);
             }
 
-            Files.delete(filePath);
+            if (!logRetentionService.deleteSegment(filePath.toFile())) {
+                response.put("success", false);
+                response.put("message", "文件正在写入，无法删除");
+                return ResponseEntity.ok(response);
+            }
             response.put("success", true);
             response.put("message", "删除成功");
             return ResponseEntity.ok(response);
@@ -270,6 +498,24 @@ public class LogFileController {
         }
     }
 
+    /**
+     * 预览保留策略将清理的文件（不实际删除）
+     */
+    @GetMapping("/retention/preview")
+    public ResponseEntity<Map<String, Object>> previewRetention() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("success", true);
+            response.put("data", logRetentionService.preview());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("预览日志清理失败", e);
+            response.put("success", false);
+            response.put("message", "预览失败");
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
     /**
      * 验证应用编码格式
      * 只允许字母、数字、下划线和横线，防止路径遍历攻击
@@ -283,13 +529,13 @@ public class LogFileController {
 
     /**
      * 验证文件名格式
-     * 只允许.log后缀的文件，防止任意文件访问
+     * 只允许.log和.log.gz后缀的文件，防止任意文件访问
      *
      * @param fileName 文件名
      * @return true-格式有效，false-格式无效
      */
     private boolean isValidFileName(String fileName) {
-        return fileName != null && fileName.matches("^[a-zA-Z0-9_\\-.]+\\.log$");
+        return fileName != null && fileName.matches("^[a-zA-Z0-9_\\-.]+\\.log(\\.gz)?$");
     }
 
     /**
@@ -299,10 +545,24 @@ public class LogFileController {
      * @return 日志文件数量
      */
     private int countLogFiles(File dir) {
-        File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+        File[] files = dir.listFiles((d, name) -> LogSegmentFiles.isLogFile(name));
         return files != null ? files.length : 0;
     }
 
+    /**
+     * 获取日志文件解压后的大小，读取失败时返回文件大小
+     *
+     * @param file 日志文件
+     * @return 内容大小（字节）
+     */
+    private long contentLength(File file) {
+        try {
+            return LogSegmentFiles.contentLength(file);
+        } catch (IOException e) {
+            return file.length();
+        }
+    }
+
     /**
      * 格式化文件大小为可读字符串
      *
@@ -38,6 +38,22 @@ public class AppLog {
      */
     private String logLevel;
 
+    /**
+     * 线程名
+     * <p>
+     * 从日志头解析，无法识别时为空
+     */
+    @TableField(exist = false)
+    private String thread;
+
+    /**
+     * 日志器名
+     * <p>
+     * 从日志头解析，无法识别时为空
+     */
+    @TableField(exist = false)
+    private String logger;
+
     /**
      * 日志内容
      */
@@ -11,6 +11,7 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.PostConstruct;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 版本管理服务
@@ -87,6 +88,18 @@ public class AppBuildService {
         appBuildMapper.update(null, updateWrapper);
     }
 
+    /**
+     * 批量更新日志文件路径（同一事务内提交）
+     *
+     * @param logFiles key = 应用编码，value = 日志文件路径
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void updateLogFiles(Map<String, String> logFiles) {
+        for (Map.Entry<String, String> entry : logFiles.entrySet()) {
+            updateLogFile(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * 根据应用名称搜索版本
      */
@@ -8,6 +8,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 应用部署服务
@@ -72,4 +73,16 @@ public class AppDeployService {
         appDeployMapper.update(null, wrapper);
     }
 
+    /**
+     * 批量更新日志文件路径（同一事务内提交）
+     *
+     * @param logFiles key = 微服务编码，value = 日志文件绝对路径
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void updateLogFiles(Map<String, String> logFiles) {
+        for (Map.Entry<String, String> entry : logFiles.entrySet()) {
+            updateLogFile(entry.getKey(), entry.getValue());
+        }
+    }
+
 }
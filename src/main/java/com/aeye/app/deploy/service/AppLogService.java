@@ -1,12 +1,28 @@
 package com.aeye.app.deploy.service;
 
+import com.aeye.app.deploy.config.LogParserProperties;
+import com.aeye.app.deploy.model.AppDeploy;
 import com.aeye.app.deploy.model.AppLog;
+import com.aeye.app.deploy.util.LogFrameEncoder;
+import com.aeye.app.deploy.util.LogLineParser;
+import com.aeye.app.deploy.util.LogRingBuffer;
+import com.aeye.app.deploy.util.LogTailReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * 应用日志服务
@@ -19,34 +35,191 @@ public class AppLogService {
     @Autowired
     private AppBuildService appBuildService;
 
+    @Autowired
+    private AppDeployService appDeployService;
+
     @Autowired
     private LogBufferService logBufferService;
 
+    @Autowired
+    private LogFileWriterService logFileWriterService;
+
+    @Autowired
+    private LogParserProperties logParserProperties;
+
+    @Autowired
+    private LogWebSocketHandler logWebSocketHandler;
+
+    @Autowired
+    private LogTailService logTailService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /** 响应格式：AppLog 对象数组 */
+    public static final String FORMAT_JSON = "json";
+
+    /** 响应格式：紧凑帧（与WebSocket compact 格式相同，见 {@link LogFrameEncoder}） */
+    public static final String FORMAT_COMPACT = "compact";
+
+    /** 缓冲区为空时回退读取日志文件，最多读取的分段数（包含当前分段） */
+    @Value("${app.log.tail.fallback-segments:3}")
+    private int fallbackSegments;
+
+    /** 序号窗口单次最多返回的日志条数 */
+    private static final int MAX_WINDOW_SIZE = 2000;
+
+    /**
+     * 增量读取缓冲区日志，没有新日志时最多等待 waitMs 毫秒（长轮询，等待期间不占用请求线程）
+     *
+     * @param waitMs 等待时间（毫秒），0 表示立即返回
+     */
+    public DeferredResult<Map<String, Object>> awaitLogsIncremental(String appCode, long afterSeq, int limit,
+            String format, long waitMs) {
+        Supplier<Map<String, Object>> query = () -> {
+            Map<String, Object> result = getLogsIncremental(appCode, afterSeq, limit, format);
+            result.put("timestamp", LocalDateTime.now());
+            return result;
+        };
+        Map<String, Object> result = query.get();
+        if (waitMs <= 0 || appCode == null || !Boolean.TRUE.equals(result.get("success"))
+                || ((Number) result.get("count")).intValue() > 0) {
+            DeferredResult<Map<String, Object>> deferred = new DeferredResult<>();
+            deferred.setResult(result);
+            return deferred;
+        }
+        return logTailService.await(appCode, afterSeq, waitMs, query);
+    }
+
+    /**
+     * 打开SSE日志流
+     *
+     * @param afterSeq    起始序号（不包含），为空时只推送之后的新日志
+     * @param lastEventId 断线重连时浏览器携带的 Last-Event-ID（上次收到的序号），优先于 afterSeq
+     * @return 是否已创建订阅，超过最大订阅数时返回false
+     * @throws IOException 获取响应输出流失败
+     */
+    public boolean openLogStream(String appCode, Long afterSeq, String lastEventId, HttpServletRequest request,
+                                 HttpServletResponse response) throws IOException {
+        Long from = afterSeq;
+        if (lastEventId != null && !lastEventId.isEmpty()) {
+            try {
+                from = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                logger.debug("忽略无效的Last-Event-ID: {}", lastEventId);
+            }
+        }
+        return logTailService.openStream(appCode, from, request, response);
+    }
+
+    /**
+     * 获取长轮询和SSE统计
+     */
+    public Map<String, Object> getTailStats() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("success", true);
+            result.put("data", logTailService.getStats());
+        } catch (Exception e) {
+            logger.error("获取日志长轮询统计失败", e);
+            result.put("success", false);
+            result.put("message", "获取统计失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 增量读取缓冲区日志的缓存校验值（弱ETag），由缓冲区保留的序号范围决定，不读取日志
+     * 缓冲区为空（首次查询可能回退读取日志文件）或应用没有缓冲区时返回null
+     */
+    public String getIncrementalETag(String appCode, String format) {
+        long[] range = appCode != null ? logBufferService.getSeqRange(appCode) : null;
+        if (range == null || range[0] > range[1]) {
+            return null;
+        }
+        return "W/\"i-" + range[0] + "-" + range[1] + "-" + normalizeFormat(format) + "\"";
+    }
+
+    /**
+     * 序号窗口的缓存校验值（弱ETag）
+     * 窗口内的日志发布后不再变化，校验值只取决于窗口在缓冲区中实际保留的序号范围
+     */
+    public String getWindowETag(String appCode, long fromSeq, int count, String format) {
+        long[] range = appCode != null ? logBufferService.getSeqRange(appCode) : null;
+        if (range == null) {
+            return null;
+        }
+        long from = Math.max(fromSeq, range[0]);
+        long to = Math.min(range[1], fromSeq + clampWindow(count) - 1);
+        return "W/\"w-" + from + "-" + to + "-" + normalizeFormat(format) + "\"";
+    }
+
+    /**
+     * 按序号窗口读取缓冲区日志（用于虚拟滚动）
+     * 返回序号在 [fromSeq, fromSeq + count) 内仍保留的日志，以及缓冲区当前的序号范围
+     */
+    public Map<String, Object> getLogsWindow(String appCode, long fromSeq, int count, String format) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            long[] range = logBufferService.getSeqRange(appCode);
+            int size = clampWindow(count);
+            List<AppLog> logs = logBufferService.getLogsIncremental(appCode, Math.max(0, fromSeq - 1), size);
+            result.put("success", true);
+            putLogs(result, appCode, logs, format);
+            result.put("fromSeq", fromSeq);
+            result.put("firstSeq", range != null ? range[0] : 0);
+            result.put("lastSeq", range != null ? range[1] : 0);
+            result.put("message", "查询成功");
+        } catch (Exception e) {
+            logger.error("按序号窗口读取日志失败", e);
+            result.put("success", false);
+            result.put("message", "读取日志失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private static int clampWindow(int count) {
+        return Math.max(1, Math.min(MAX_WINDOW_SIZE, count));
+    }
+
+    private static String normalizeFormat(String format) {
+        return FORMAT_COMPACT.equalsIgnoreCase(format) ? FORMAT_COMPACT : FORMAT_JSON;
+    }
+
+    /**
+     * 按格式放入日志：json 为 logs 数组，compact 为 frame 紧凑帧（直接写入编码好的JSON，不再逐行序列化）
+     */
+    private void putLogs(Map<String, Object> result, String appCode, List<AppLog> logs, String format)
+            throws java.io.IOException {
+        if (FORMAT_COMPACT.equals(normalizeFormat(format))) {
+            byte[] frame = new LogFrameEncoder(objectMapper).encodeCompact(appCode, logs);
+            result.put("frame", new RawValue(new String(frame, StandardCharsets.UTF_8)));
+        } else {
+            result.put("logs", logs);
+        }
+        result.put("count", logs.size());
+    }
+
     /**
      * 增量读取缓冲区日志（只返回 afterSeq 之后的新日志）
      */
     public Map<String, Object> getLogsIncremental(String appCode, long afterSeq, int limit) {
+        return getLogsIncremental(appCode, afterSeq, limit, FORMAT_JSON);
+    }
+
+    /**
+     * 增量读取缓冲区日志（只返回 afterSeq 之后的新日志）
+     *
+     * @param format 响应格式：json（默认）或 compact
+     */
+    public Map<String, Object> getLogsIncremental(String appCode, long afterSeq, int limit, String format) {
         Map<String, Object> result = new HashMap<>();
         try {
             List<AppLog> logs = logBufferService.getLogsIncremental(appCode, afterSeq, limit);
 
             // 如果内存无日志且是首次查询（afterSeq=0），尝试读取配置的日志文件
             if (logs.isEmpty() && afterSeq == 0) {
-                com.aeye.app.deploy.model.AppBuild appBuild = appBuildService.getVersionById(appCode);
-                if (appBuild != null && appBuild.getLogFile() != null && !appBuild.getLogFile().isEmpty()) {
-                    List<String> fileLines = readLastNLines(new java.io.File(appBuild.getLogFile()),
-                            limit > 0 ? limit : 1000);
-                    long seq = 1;
-                    for (String line : fileLines) {
-                        AppLog log = new AppLog();
-                        log.setAppCode(appCode);
-                        log.setLogContent(line);
-                        log.setSeq(seq++);
-                        // 尝试解析时间？暂不解析，保持简单
-                        log.setVersion(appBuild.getVersion());
-                        logs.add(log);
-                    }
-                }
+                logs = readLogFileTail(appCode, limit > 0 ? limit : 1000);
             }
 
             long currentSeq = 0;
@@ -54,9 +227,9 @@ public class AppLogService {
                 currentSeq = logs.stream().mapToLong(AppLog::getSeq).max().orElse(currentSeq);
             }
             result.put("success", true);
-            result.put("logs", logs);
-            result.put("count", logs.size());
+            putLogs(result, appCode, logs, format);
             result.put("currentSeq", currentSeq);
+            result.put("epoch", LogRingBuffer.EPOCH);
             result.put("message", "查询成功");
         } catch (Exception e) {
             logger.error("增量读取日志失败", e);
@@ -67,77 +240,112 @@ public class AppLogService {
     }
 
     /**
-     * 读取文件最后N行
+     * 获取日志缓冲区内存统计
      */
-    private List<String> readLastNLines(java.io.File file, int numLines) {
-        List<String> lines = new ArrayList<>();
-        if (!file.exists() || !file.isFile()) {
-            return lines;
+    public Map<String, Object> getBufferStats() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("success", true);
+            result.put("data", logBufferService.getBufferStats());
+        } catch (Exception e) {
+            logger.error("获取日志缓冲区统计失败", e);
+            result.put("success", false);
+            result.put("message", "获取统计失败: " + e.getMessage());
         }
+        return result;
+    }
 
-        try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(file, "r")) {
-            long length = raf.length();
-            if (length == 0) {
-                return lines;
-            }
+    /**
+     * 获取WebSocket推送统计
+     */
+    public Map<String, Object> getWebSocketStats() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("success", true);
+            result.put("data", logWebSocketHandler.getStats());
+        } catch (Exception e) {
+            logger.error("获取WebSocket推送统计失败", e);
+            result.put("success", false);
+            result.put("message", "获取统计失败: " + e.getMessage());
+        }
+        return result;
+    }
 
-            long position = length - 1;
-            int linesFound = 0;
-            java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
-
-            // 从后向前扫描换行符
-            while (position >= 0) {
-                raf.seek(position);
-                int b = raf.read();
-
-                if (b == '\n') {
-                    // 遇到换行符，如果buffer不为空（即行不为空或者这是一个空行），则说明找到了一行
-                    // 注意：由于是倒序读，遇到\n说明这一行结束（或者是上一行的开始）
-                    // 但我们需要把buffer里的内容反转并变成字符串
-                    // 简单起见，我们收集所有字节，直到遇到\n，然后反转收集
-
-                    // 实际上，更简单的方法是：
-                    // 倒序读取字节，遇到\n计数+1。
-                    // 当计数达到numLines时，记录当前position+1为start。
-                    // 然后从start开始顺序读取到文件末尾。
-                    linesFound++;
-                    if (linesFound > numLines) {
-                        break;
-                    }
-                }
-                position--;
-            }
+    /**
+     * 获取日志文件写入统计
+     */
+    public Map<String, Object> getWriterStats() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("success", true);
+            result.put("data", logFileWriterService.getWriterStats());
+        } catch (Exception e) {
+            logger.error("获取日志文件写入统计失败", e);
+            result.put("success", false);
+            result.put("message", "获取统计失败: " + e.getMessage());
+        }
+        return result;
+    }
 
-            // position停在需要读取的起始位置的前一个字节（或者-1）
-            raf.seek(position + 1);
-
-            // 使用BufferedReader顺序读取剩余部分
-            // 注意：RandomAccessFile不是InputStream，需要转换或者直接用raf读取
-            // 为了处理编码（UTF-8），使用InputStreamReader包装FileInputStream会更方便，
-            // 但FileInputStream不支持seek到任意位置（虽然可以skip，但也许慢）
-            // 这里既然已经定了位置，可以直接用 BufferedReader 包装 Channels.newInputStream
-
-            try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(java.nio.channels.Channels.newInputStream(raf.getChannel()),
-                            java.nio.charset.StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    lines.add(line);
-                }
+    /**
+     * 读取应用日志文件的最后N行并解析为日志（缓冲区为空时的回退）
+     * 优先使用构建记录（AppBuild）的日志文件，没有时使用部署记录（AppDeploy）的日志文件，
+     * 当前分段不足N行时继续读取前面的滚动分段
+     */
+    private List<AppLog> readLogFileTail(String appCode, int numLines) {
+        List<AppLog> logs = new ArrayList<>();
+        if (appCode == null) {
+            return logs;
+        }
+        String logFile;
+        String version;
+        LogLineParser parser;
+        com.aeye.app.deploy.model.AppBuild appBuild = appBuildService.getVersionById(appCode);
+        if (appBuild != null && appBuild.getLogFile() != null && !appBuild.getLogFile().isEmpty()) {
+            logFile = appBuild.getLogFile();
+            version = appBuild.getVersion();
+            parser = logParserProperties.createBuildParser(appCode, appBuild.getAppType());
+        } else {
+            AppDeploy appDeploy = appDeployService.getAppByCode(appCode);
+            if (appDeploy == null || appDeploy.getLogFile() == null || appDeploy.getLogFile().isEmpty()) {
+                return logs;
             }
+            logFile = appDeploy.getLogFile();
+            version = appDeploy.getVersion();
+            parser = logParserProperties.createDeployParser(appCode);
+        }
 
-            // 如果读取的行数多于numLines（因为最后通常没有换行符也算一行，或者上面的逻辑稍微多读了一点），截取最后numLines
-            // 上面的逻辑：position是倒数第numLines+1个换行符的位置。
-            // 从position+1开始读，应该正好读到numLines行（如果文件以换行符结尾，可能会多读一行空行？readLine会处理掉）
-
-            // 简单的校验，保留最后numLines
-            while (lines.size() > numLines) {
-                lines.remove(0);
-            }
+        List<String> fileLines = readLastNLines(new java.io.File(logFile), numLines);
+        long seq = 1;
+        for (String line : fileLines) {
+            parser.parse(line);
+            AppLog log = new AppLog();
+            log.setAppCode(appCode);
+            log.setLogContent(line);
+            log.setLogLevel(parser.getLevel());
+            log.setLogTime(new Date(parser.getTime()));
+            log.setThread(parser.getThread());
+            log.setLogger(parser.getLogger());
+            log.setSeq(seq++);
+            log.setVersion(version);
+            logs.add(log);
+        }
+        return logs;
+    }
 
+    /**
+     * 读取文件最后N行
+     * 从文件末尾按块向前读取，当前分段不足N行时继续读取前面的滚动分段
+     */
+    private List<String> readLastNLines(java.io.File file, int numLines) {
+        if (!file.exists() || !file.isFile()) {
+            return new ArrayList<>();
+        }
+        try {
+            return LogTailReader.tail(file, numLines, fallbackSegments);
         } catch (Exception e) {
             logger.error("读取日志文件失败: " + file.getAbsolutePath(), e);
+            return new ArrayList<>();
         }
-        return lines;
     }
 }
@@ -1,7 +1,9 @@
 package com.aeye.app.deploy.service;
 
 import com.aeye.app.deploy.config.DirectoryConfig;
+import com.aeye.app.deploy.config.LogParserProperties;
 import com.aeye.app.deploy.model.AppBuild;
+import com.aeye.app.deploy.util.LogEventAssembler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,6 +60,9 @@ public class BuildTaskService {
     @Autowired
     private DirectoryConfig directoryConfig;
 
+    @Autowired
+    private LogParserProperties logParserProperties;
+
     private final Map<String, Process> cmdMap = new ConcurrentHashMap<>();
 
     @Value("${app.process.max-concurrent-builds:10}")
@@ -226,6 +231,9 @@ public class BuildTaskService {
                 // 读取进程输出并写入内存缓冲
                 final Process finalProcess = process;
                 final java.util.concurrent.CountDownLatch outputLatch = new java.util.concurrent.CountDownLatch(1);
+                // 按项目类型解析构建输出（Maven/npm），异常堆栈等续行合并为一条日志
+                final LogEventAssembler assembler = logBufferService.openAssembler(appCode, branchOrTag,
+                        logParserProperties.createBuildParser(appCode, appVersion.getAppType()));
                 Thread outputReader = new Thread(() -> {
                     // Windows使用GBK编码读取，Linux使用UTF-8
                     java.nio.charset.Charset charset = isWindows() ? java.nio.charset.Charset.forName("GBK")
@@ -238,11 +246,12 @@ public class BuildTaskService {
                             if (!cmdMap.containsKey(appCode)) {
                                 break;
                             }
-                            logBufferService.addLog(appCode, branchOrTag, parseLogLevel(line), line, new Date());
+                            assembler.accept(line);
                         }
                     } catch (Exception e) {
                         logger.error("读取构建输出失败: {}", appCode, e);
                     } finally {
+                        logBufferService.closeAssembler(assembler);
                         outputLatch.countDown();
                     }
                 }, "build-log-reader-" + appCode);
@@ -658,28 +667,6 @@ public class BuildTaskService {
         return baseName + "-" + branchOrTag + extension;
     }
 
-    /**
-     * 解析日志级别
-     * 根据日志内容中的关键字判断日志级别
-     *
-     * @param logContent 日志内容
-     * @return 日志级别：ERROR/WARN/DEBUG/INFO
-     */
-    private String parseLogLevel(String logContent) {
-        if (logContent == null) {
-            return "INFO";
-        }
-        String upper = logContent.toUpperCase();
-        if (upper.contains("ERROR") || upper.contains("FATAL")) {
-            return "ERROR";
-        } else if (upper.contains("WARN")) {
-            return "WARN";
-        } else if (upper.contains("DEBUG")) {
-            return "DEBUG";
-        }
-        return "INFO";
-    }
-
     /**
      * 停止构建任务
      *
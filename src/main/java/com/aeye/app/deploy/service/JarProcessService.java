@@ -1,7 +1,9 @@
 package com.aeye.app.deploy.service;
 
 import com.aeye.app.deploy.config.DirectoryConfig;
+import com.aeye.app.deploy.config.LogParserProperties;
 import com.aeye.app.deploy.model.AppDeploy;
+import com.aeye.app.deploy.util.LogEventAssembler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -54,6 +56,9 @@ public class JarProcessService {
     @Autowired
     private LogBufferService logBufferService;
 
+    @Autowired
+    private LogParserProperties logParserProperties;
+
     /** 操作系统名称 */
     private static final String OS = System.getProperty("os.name").toLowerCase();
     
@@ -216,19 +221,22 @@ public class JarProcessService {
      * 
      * 使用非守护线程确保进程结束后日志能完整读取。
      * 日志会实时写入 LogBufferService，支持前端实时查看。
+     * 每行按应用配置的格式解析出时间、级别、线程和日志器，异常堆栈等续行合并为一条日志。
      *
      * @param process 进程对象
      * @param appCode 应用编码
      * @param version 版本号
      */
     private void readProcessOutput(Process process, String appCode, String version) {
+        LogEventAssembler assembler = logBufferService.openAssembler(appCode, version,
+                logParserProperties.createDeployParser(appCode));
         Thread outputReader = new Thread(() -> {
             // Java应用输出通常是UTF-8，使用UTF-8编码读取
             try (BufferedReader reader = new BufferedReader(
                     new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    logBufferService.addLog(appCode, version, parseLogLevel(line), line, new Date());
+                    assembler.accept(line);
                 }
             } catch (Exception e) {
                 // 进程被终止时会抛出异常，这是正常的
@@ -236,6 +244,7 @@ public class JarProcessService {
                     logger.error("读取进程输出失败: {}", appCode, e);
                 }
             } finally {
+                logBufferService.closeAssembler(assembler);
                 logger.debug("进程输出读取线程结束: {}", appCode);
             }
         }, "log-reader-" + appCode);
@@ -244,24 +253,6 @@ public class JarProcessService {
         outputReader.start();
     }
     
-    /**
-     * 解析日志级别
-     */
-    private String parseLogLevel(String logContent) {
-        if (logContent == null) {
-            return "INFO";
-        }
-        String upper = logContent.toUpperCase();
-        if (upper.contains("ERROR")) {
-            return "ERROR";
-        } else if (upper.contains("WARN")) {
-            return "WARN";
-        } else if (upper.contains("DEBUG")) {
-            return "DEBUG";
-        }
-        return "INFO";
-    }
-    
     /**
      * 获取Java命令（跨平台）
      */
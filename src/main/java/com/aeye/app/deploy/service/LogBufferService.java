@@ -1,6 +1,15 @@
 package com.aeye.app.deploy.service;
 
+import com.aeye.app.deploy.config.DirectoryConfig;
+import com.aeye.app.deploy.config.LogIngestLimitProperties;
 import com.aeye.app.deploy.model.AppLog;
+import com.aeye.app.deploy.util.HeapLogEntryStore;
+import com.aeye.app.deploy.util.LogEntryStore;
+import com.aeye.app.deploy.util.LogEventAssembler;
+import com.aeye.app.deploy.util.LogLineParser;
+import com.aeye.app.deploy.util.LogRateLimiter;
+import com.aeye.app.deploy.util.LogRingBuffer;
+import com.aeye.app.deploy.util.OffHeapLogEntryStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,19 +17,30 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 日志缓冲服务
  * 
  * 提供应用日志的内存缓冲功能，支持：
- * - 按应用隔离的日志缓冲区
- * - 滚动存储（超过最大缓存大小时自动删除旧日志）
- * - 增量读取（基于序号）
- * - 异步写入文件和WebSocket推送
+ * - 按应用隔离的日志缓冲区（预分配环形数组，见 {@link LogRingBuffer}）
+ * - 滚动存储（超过最大缓存大小时覆盖最旧日志）
+ * - 增量读取（基于应用内递增序号，按序号直接定位）
+ * - 单次发布、多消费者：每行日志只创建一个对象并发布到环形缓冲区，
+ *   文件写入、WebSocket推送和长轮询/SSE作为消费者按各自序号读取（文件写入为门控消费者，提供统一背压）
+ * - 内存预算：全局字节预算按权重分配给各应用（正在被查看或产生日志的应用权重更高），
+ *   每个应用的字节上限不超过单应用上限，超过时按字节淘汰最旧日志
+ * - 存储模式：heap（默认，日志对象常驻堆内）、direct / mapped（日志内容以UTF-8字节存放在堆外内存段，
+ *   堆内只保留小索引，接口读取时才创建日志对象），增量读取接口行为不变
+ * - 多行事件：进程输出经 {@link LogEventAssembler} 将异常堆栈等续行合并为一条日志，
+ *   共享的清理线程在事件空闲超时后发布
+ * - 写入限流（默认关闭）：每个应用一个令牌桶（见 {@link LogIngestLimitProperties}），超出限额的日志在发布前丢弃，
+ *   不进入缓冲区、文件写入和推送，清理线程定期发布"已丢弃N行"的汇总日志
  *
  * @author aeye
  * @since 1.0.0
@@ -36,40 +56,339 @@ public class LogBufferService implements CommandLineRunner {
     @Autowired
     private LogWebSocketHandler logWebSocketHandler;
 
+    @Autowired
+    private LogTailService logTailService;
+
+    @Autowired
+    private DirectoryConfig directoryConfig;
+
+    @Autowired
+    private LogIngestLimitProperties ingestLimitProperties;
+
     @Value("${app.log.cache-size:2000}")
     private int maxBufferSizePerApp;
 
+    /** 文件写入落后时日志写入方的最大等待时间（毫秒），超时后覆盖未写入的日志 */
+    @Value("${app.log.backpressure-wait-ms:1000}")
+    private long backpressureWaitMs;
+
+    /** 所有应用日志缓冲区的全局内存预算（MB） */
+    @Value("${app.log.buffer.max-memory-mb:256}")
+    private int maxMemoryMb;
+
+    /** 单个应用日志缓冲区的内存上限（MB） */
+    @Value("${app.log.buffer.max-app-memory-mb:32}")
+    private int maxAppMemoryMb;
+
+    /** 单个应用日志缓冲区的内存下限（KB），保证安静的应用也保留少量最近日志 */
+    @Value("${app.log.buffer.min-app-memory-kb:256}")
+    private int minAppMemoryKb;
+
+    /** 日志存储模式：heap、direct 或 mapped */
+    @Value("${app.log.buffer.storage:heap}")
+    private String storageMode;
+
+    /** 堆外内存段大小（KB） */
+    @Value("${app.log.buffer.segment-size-kb:1024}")
+    private int segmentSizeKb;
+
+    /** 内存预算重新分配间隔（秒） */
+    @Value("${app.log.buffer.rebalance-interval-seconds:10}")
+    private int rebalanceIntervalSeconds;
+
+    /** 多行事件空闲多久后发布（毫秒） */
+    @Value("${app.log.event.idle-flush-ms:200}")
+    private long eventIdleFlushMs;
+
+    /** 单个多行事件的最大行数 */
+    @Value("${app.log.event.max-lines:1000}")
+    private int eventMaxLines;
+
+    /** 最近被查看的判定窗口（毫秒） */
+    private static final long VIEW_WINDOW_MS = 60_000L;
+
+    /** 基础权重 */
+    private static final double BASE_WEIGHT = 1.0;
+
+    /** 正在被查看的应用额外权重 */
+    private static final double VIEWED_WEIGHT = 4.0;
+
+    /** 日志产生最多的应用额外权重（其他应用按产生字节数等比例折算） */
+    private static final double ACTIVE_WEIGHT = 2.0;
+
+    /** 按应用隔离的环形缓冲区映射（序号由各应用缓冲区独立分配） */
+    private final ConcurrentHashMap<String, LogRingBuffer> appBuffers = new ConcurrentHashMap<>();
+
+    /** 各应用最近一次通过接口读取日志的时间 */
+    private final ConcurrentHashMap<String, Long> lastReadTimes = new ConcurrentHashMap<>();
+
+    /** 上次重新分配时各应用的累计发布字节数（用于计算区间生产量） */
+    private final Map<String, Long> lastPublishedBytes = new HashMap<>();
+
+    /** 内存预算重新分配调度器 */
+    private ScheduledExecutorService rebalanceScheduler;
+
+    /** 正在使用的多行事件组装器 */
+    private final Set<LogEventAssembler> assemblers = ConcurrentHashMap.newKeySet();
+
+    /** 多行事件超时发布调度器 */
+    private ScheduledExecutorService eventSweeper;
+
+    /** 合并后的多行事件数 */
+    private final AtomicLong multiLineEvents = new AtomicLong();
+
+    /** 合并到多行事件中的续行数 */
+    private final AtomicLong mergedLines = new AtomicLong();
+
+    /** 写入限流状态：key = appCode */
+    private final ConcurrentHashMap<String, IngestLimit> ingestLimits = new ConcurrentHashMap<>();
+
+    /** 丢弃汇总检查间隔（毫秒） */
+    private static final long SUMMARY_CHECK_INTERVAL_MS = 1000;
+
     /**
-     * 应用日志缓冲区内部类
+     * 应用的写入限流状态
      */
-    private static class AppLogBuffer {
-        /** 日志双端队列（支持头尾操作） */
-        final ConcurrentLinkedDeque<AppLog> logs = new ConcurrentLinkedDeque<>();
-        /** 当前缓冲区大小 */
-        final AtomicInteger size = new AtomicInteger(0);
+    private static class IngestLimit {
+        final LogRateLimiter limiter;
+        /** 最近放行日志的版本号（汇总日志使用，避免文件写入因版本变化切换文件） */
+        volatile String version;
+
+        IngestLimit(LogRateLimiter limiter) {
+            this.limiter = limiter;
+        }
     }
 
-    /** 按应用隔离的缓冲区映射 */
-    private final ConcurrentHashMap<String, AppLogBuffer> appBuffers = new ConcurrentHashMap<>();
+    /** 堆外内存段池（heap模式下为null） */
+    private OffHeapLogEntryStore.SegmentPool segmentPool;
 
-    /** 全局日志序号生成器（用于增量读取） */
-    private final AtomicLong logSequence = new AtomicLong(0);
+    /**
+     * 初始化存储模式
+     * direct / mapped 模式创建共享的堆外内存段池，空闲内存段最多保留全局预算对应的数量
+     */
+    @PostConstruct
+    public void init() {
+        if ("direct".equalsIgnoreCase(storageMode) || "mapped".equalsIgnoreCase(storageMode)) {
+            int segmentSize = segmentSizeKb * 1024;
+            int maxIdleSegments = (int) Math.max(1, getGlobalBudget() / segmentSize);
+            File mappedDir = new File(directoryConfig.getLogsDir(), ".buffer");
+            segmentPool = new OffHeapLogEntryStore.SegmentPool(storageMode, mappedDir, segmentSize, maxIdleSegments);
+        } else if (!"heap".equalsIgnoreCase(storageMode)) {
+            logger.warn("未知的日志存储模式: {}，使用heap模式", storageMode);
+        }
+    }
 
     /**
      * 获取或创建应用的日志缓冲区
+     * 新建时将缓冲区注册给文件写入、WebSocket推送和长轮询/SSE三个消费者
      */
-    private AppLogBuffer getOrCreateBuffer(String appCode) {
-        return appBuffers.computeIfAbsent(appCode, k -> new AppLogBuffer());
+    private LogRingBuffer getOrCreateBuffer(String appCode) {
+        return appBuffers.computeIfAbsent(appCode, k -> {
+            LogEntryStore store = segmentPool != null
+                    ? new OffHeapLogEntryStore(k, maxBufferSizePerApp, segmentPool)
+                    : new HeapLogEntryStore(maxBufferSizePerApp);
+            LogRingBuffer ring = new LogRingBuffer(store, backpressureWaitMs);
+            // 新应用先按均分预算设置上限，下次重新分配时再按权重调整
+            ring.setByteLimit(clampAppLimit(getGlobalBudget() / (appBuffers.size() + 1)));
+            logFileWriterService.attach(k, ring);
+            logWebSocketHandler.attach(k, ring);
+            logTailService.attach(k, ring);
+            return ring;
+        });
     }
 
     @Override
     public void run(String... args) throws Exception {
-        logger.info("日志缓冲服务启动，每应用缓存大小: {}", maxBufferSizePerApp);
+        logger.info("日志缓冲服务启动，每应用缓存大小: {}，全局内存预算: {}MB，单应用上限: {}MB，存储模式: {}",
+                maxBufferSizePerApp, maxMemoryMb, maxAppMemoryMb, segmentPool != null ? storageMode : "heap");
+
+        rebalanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-buffer-rebalance");
+            t.setDaemon(true);
+            return t;
+        });
+        rebalanceScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebalance();
+            } catch (Exception e) {
+                logger.error("重新分配日志缓冲区内存预算时发生异常", e);
+            }
+        }, rebalanceIntervalSeconds, rebalanceIntervalSeconds, TimeUnit.SECONDS);
+
+        eventSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-event-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long sweepInterval = Math.max(10, eventIdleFlushMs / 2);
+        eventSweeper.scheduleWithFixedDelay(this::flushIdleEvents, sweepInterval, sweepInterval,
+                TimeUnit.MILLISECONDS);
+        eventSweeper.scheduleWithFixedDelay(this::publishSuppressionSummaries, SUMMARY_CHECK_INTERVAL_MS,
+                SUMMARY_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (rebalanceScheduler != null) {
+            rebalanceScheduler.shutdownNow();
+        }
+        if (eventSweeper != null) {
+            eventSweeper.shutdownNow();
+        }
+        for (LogEventAssembler assembler : assemblers) {
+            assembler.flush();
+        }
+    }
+
+    /**
+     * 为进程输出读取线程创建多行事件组装器
+     * 读取结束时需要调用 {@link #closeAssembler(LogEventAssembler)} 发布最后一个事件
+     *
+     * @param appCode 应用编码
+     * @param version 版本号
+     * @param parser  日志行解析器
+     * @return 组装器
+     */
+    public LogEventAssembler openAssembler(String appCode, String version, LogLineParser parser) {
+        LogEventAssembler assembler = new LogEventAssembler(parser, eventMaxLines,
+                (content, level, time, thread, loggerName, lines) -> {
+                    if (lines > 1) {
+                        multiLineEvents.incrementAndGet();
+                        mergedLines.addAndGet(lines - 1);
+                    }
+                    addLog(appCode, version, level, content, new Date(time), thread, loggerName);
+                });
+        assemblers.add(assembler);
+        return assembler;
+    }
+
+    /**
+     * 发布组装器中的最后一个事件并注销
+     */
+    public void closeAssembler(LogEventAssembler assembler) {
+        assemblers.remove(assembler);
+        assembler.flush();
+    }
+
+    /**
+     * 发布空闲超时的多行事件（读取线程阻塞在下一行时，已读到的事件不会一直滞留）
+     */
+    private void flushIdleEvents() {
+        long now = System.currentTimeMillis();
+        for (LogEventAssembler assembler : assemblers) {
+            try {
+                assembler.flushIfIdle(now, eventIdleFlushMs);
+            } catch (Exception e) {
+                logger.error("发布多行日志事件失败", e);
+            }
+        }
+    }
+
+    /**
+     * 发布各应用的丢弃汇总日志（距上次汇总超过间隔且有丢弃时）
+     * 汇总日志不受限流，与普通日志一样进入缓冲区、文件写入和推送
+     */
+    private void publishSuppressionSummaries() {
+        long now = System.currentTimeMillis();
+        long intervalMs = ingestLimitProperties.getSummaryIntervalSeconds() * 1000L;
+        for (Map.Entry<String, IngestLimit> entry : ingestLimits.entrySet()) {
+            try {
+                IngestLimit limit = entry.getValue();
+                long[] summary = limit.limiter.takeSummary(now, intervalMs);
+                if (summary == null) {
+                    continue;
+                }
+                String content = limit.limiter.formatSummary("内存缓冲", summary, now);
+                logger.warn("应用[{}]{}", entry.getKey(), content);
+                AppLog log = createAppLog(entry.getKey(), limit.version, "WARN", content, new Date(now));
+                log.setLogger(LogRateLimiter.SUMMARY_LOGGER);
+                publish(entry.getKey(), log);
+            } catch (Exception e) {
+                logger.error("发布日志限流汇总失败: appCode={}", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 获取应用的写入限流状态，未启用限流时返回null
+     */
+    private IngestLimit getIngestLimit(String appCode) {
+        if (!ingestLimitProperties.isEnabled()) {
+            return null;
+        }
+        return ingestLimits.computeIfAbsent(appCode, k -> {
+            LogIngestLimitProperties.Budget budget = ingestLimitProperties.resolve(k);
+            int rate = budget.getLiveLinesPerSecond() != null ? budget.getLiveLinesPerSecond() : 0;
+            int burst = budget.getLiveBurst() != null ? budget.getLiveBurst() : rate;
+            return new IngestLimit(new LogRateLimiter(rate, burst));
+        });
+    }
+
+    /**
+     * 按权重重新分配各应用的字节上限
+     * 权重 = 基础权重 + 被查看权重（WebSocket订阅或最近通过接口读取）+ 按区间产生字节数折算的活跃权重
+     */
+    synchronized void rebalance() {
+        if (appBuffers.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Long> produced = new HashMap<>();
+        long maxProduced = 0;
+        for (Map.Entry<String, LogRingBuffer> entry : appBuffers.entrySet()) {
+            long total = entry.getValue().getPublishedBytes();
+            Long previous = lastPublishedBytes.put(entry.getKey(), total);
+            long delta = previous != null ? total - previous : total;
+            produced.put(entry.getKey(), delta);
+            maxProduced = Math.max(maxProduced, delta);
+        }
+
+        Map<String, Double> weights = new HashMap<>();
+        double totalWeight = 0;
+        for (String appCode : appBuffers.keySet()) {
+            double weight = BASE_WEIGHT;
+            if (isViewed(appCode, now)) {
+                weight += VIEWED_WEIGHT;
+            }
+            if (maxProduced > 0) {
+                weight += ACTIVE_WEIGHT * produced.get(appCode) / maxProduced;
+            }
+            weights.put(appCode, weight);
+            totalWeight += weight;
+        }
+
+        long budget = getGlobalBudget();
+        for (Map.Entry<String, LogRingBuffer> entry : appBuffers.entrySet()) {
+            long limit = (long) (budget * weights.get(entry.getKey()) / totalWeight);
+            entry.getValue().setByteLimit(clampAppLimit(limit));
+        }
+        lastPublishedBytes.keySet().retainAll(appBuffers.keySet());
+    }
+
+    /**
+     * 判断应用是否正在被查看
+     */
+    private boolean isViewed(String appCode, long now) {
+        if (logWebSocketHandler.getSubscriberCount(appCode) > 0) {
+            return true;
+        }
+        Long lastRead = lastReadTimes.get(appCode);
+        return lastRead != null && now - lastRead < VIEW_WINDOW_MS;
+    }
+
+    private long getGlobalBudget() {
+        return (long) maxMemoryMb * 1024 * 1024;
+    }
+
+    private long clampAppLimit(long limit) {
+        long max = (long) maxAppMemoryMb * 1024 * 1024;
+        long min = Math.min((long) minAppMemoryKb * 1024, max);
+        return Math.max(min, Math.min(max, limit));
     }
 
     /**
      * 添加日志到缓冲区
-     * 同时触发文件写入和WebSocket推送
+     * 日志只发布一次，随后通知文件写入和WebSocket推送消费者
      *
      * @param appCode    应用编码
      * @param version    版本号
@@ -78,32 +397,60 @@ public class LogBufferService implements CommandLineRunner {
      * @param logTime    日志时间
      */
     public void addLog(String appCode, String version, String logLevel, String logContent, Date logTime) {
-        AppLogBuffer buffer = getOrCreateBuffer(appCode);
-        AppLog log = createAppLog(appCode, version, logLevel, logContent, logTime);
-        
-        buffer.logs.offerLast(log);
-        int currentSize = buffer.size.incrementAndGet();
-
-        // 滚动存储：超过该应用的最大缓存大小时，删除最旧的日志
-        while (currentSize > maxBufferSizePerApp) {
-            AppLog removed = buffer.logs.pollFirst();
-            if (removed != null) {
-                currentSize = buffer.size.decrementAndGet();
-            } else {
-                break;
+        addLog(appCode, version, logLevel, logContent, logTime, null, null);
+    }
+
+    /**
+     * 添加解析后的日志到缓冲区
+     *
+     * @param appCode    应用编码
+     * @param version    版本号
+     * @param logLevel   日志级别
+     * @param logContent 日志内容
+     * @param logTime    日志时间
+     * @param thread     线程名（可为空）
+     * @param loggerName 日志器名（可为空）
+     */
+    public void addLog(String appCode, String version, String logLevel, String logContent, Date logTime,
+            String thread, String loggerName) {
+        // 写入限流：超出限额的日志直接丢弃，计入待汇总数
+        IngestLimit limit = getIngestLimit(appCode);
+        if (limit != null) {
+            if (!limit.limiter.tryAcquire(System.currentTimeMillis(), logContent != null ? logContent.length() : 0)) {
+                return;
             }
+            limit.version = version;
         }
 
-        // 异步写入日志文件
-        logFileWriterService.addLog(appCode, version, logLevel, logContent, logTime);
+        AppLog log = createAppLog(appCode, version, logLevel, logContent, logTime);
+        log.setThread(thread);
+        log.setLogger(loggerName);
+        publish(appCode, log);
+    }
+
+    /**
+     * 发布日志到应用缓冲区并通知各消费者
+     */
+    private void publish(String appCode, AppLog log) {
+        LogRingBuffer buffer = getOrCreateBuffer(appCode);
+
+        // 滚动存储：环形缓冲区已满时覆盖该应用最旧的日志（文件写入落后时先等待）
+        long seq = buffer.publish(log);
 
-        // WebSocket推送日志
-        logWebSocketHandler.pushLog(log);
+        // 通知文件写入（达到阈值时异步写入，否则在最大延迟内写入）
+        String logContent = log.getLogContent();
+        logFileWriterService.onPublished(appCode, seq, logContent != null ? logContent.length() : 0);
+
+        // 通知WebSocket推送
+        logWebSocketHandler.onPublished(appCode);
+
+        // 通知长轮询和SSE订阅
+        logTailService.onPublished(appCode);
     }
 
     /**
      * 创建日志对象
-     * 自动分配全局递增序号
+     * 序号在发布到环形缓冲区时分配
      */
     private AppLog createAppLog(String appCode, String version, String logLevel, String logContent, Date logTime) {
         AppLog log = new AppLog();
@@ -112,7 +459,6 @@ public class LogBufferService implements CommandLineRunner {
         log.setLogLevel(logLevel);
         log.setLogContent(logContent);
         log.setLogTime(logTime != null ? logTime : new Date());
-        log.setSeq(logSequence.incrementAndGet());
         return log;
     }
 
@@ -126,67 +472,121 @@ public class LogBufferService implements CommandLineRunner {
      * @return 日志列表
      */
     public List<AppLog> getLogsIncremental(String appCode, long afterSeq, int limit) {
-        List<AppLog> result = new ArrayList<>();
+        LogRingBuffer buffer = appBuffers.get(appCode);
+        if (buffer == null) {
+            return new ArrayList<>();
+        }
+        lastReadTimes.put(appCode, System.currentTimeMillis());
+        // 按序号直接定位起始槽位，无需从头遍历
+        return buffer.readAfter(afterSeq, limit);
+    }
 
-        AppLogBuffer buffer = appBuffers.get(appCode);
+    /**
+     * 获取应用缓冲区当前保留的序号范围
+     * 用于按序号生成缓存校验值，不读取日志
+     *
+     * @param appCode 应用编码
+     * @return {最小序号, 最大序号}（缓冲区为空时最小序号大于最大序号），应用没有缓冲区时返回null
+     */
+    public long[] getSeqRange(String appCode) {
+        LogRingBuffer buffer = appBuffers.get(appCode);
         if (buffer == null) {
-            return result;
-        }
-        
-        // 优化：从尾部向前查找起始位置，减少遍历次数
-        // 因为日志是按seq递增的，可以利用这个特性
-        Iterator<AppLog> iterator = buffer.logs.iterator();
-        
-        // 如果afterSeq为0，直接从头开始
-        if (afterSeq == 0) {
-            while (iterator.hasNext() && (limit <= 0 || result.size() < limit)) {
-                result.add(iterator.next());
-            }
-        } else {
-            // 跳过seq <= afterSeq的日志
-            while (iterator.hasNext()) {
-                AppLog log = iterator.next();
-                if (log.getSeq() != null && log.getSeq() > afterSeq) {
-                    result.add(log);
-                    if (limit > 0 && result.size() >= limit) {
-                        break;
-                    }
-                    // 找到第一个符合条件的后，后续都符合条件
-                    while (iterator.hasNext() && (limit <= 0 || result.size() < limit)) {
-                        result.add(iterator.next());
-                    }
-                    break;
-                }
+            return null;
+        }
+        long last = buffer.getLastSeq();
+        return new long[] { buffer.getFirstSeq(), last };
+    }
+
+    /**
+     * 获取日志缓冲区统计信息
+     * 包括全局预算、各应用的条数、字节数、字节上限和淘汰次数，用于评估内存占用
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getBufferStats() {
+        List<Map<String, Object>> apps = new ArrayList<>();
+        long totalBytes = 0;
+        long totalCount = 0;
+        long totalEvictions = 0;
+        for (Map.Entry<String, LogRingBuffer> entry : appBuffers.entrySet()) {
+            LogRingBuffer ring = entry.getValue();
+            Map<String, Object> app = new LinkedHashMap<>();
+            app.put("appCode", entry.getKey());
+            app.put("count", ring.size());
+            app.put("capacity", ring.getCapacity());
+            app.put("bytes", ring.getBytes());
+            app.put("byteLimit", ring.getByteLimit());
+            app.put("byteEvictions", ring.getByteEvictions());
+            app.put("capacityEvictions", ring.getCapacityEvictions());
+            app.put("overruns", ring.getOverruns());
+            app.put("stalls", ring.getStalls());
+            app.put("lastSeq", ring.getLastSeq());
+            app.put("subscribers", logWebSocketHandler.getSubscriberCount(entry.getKey()));
+            IngestLimit limit = ingestLimits.get(entry.getKey());
+            if (limit != null) {
+                app.put("ingestLimit", limit.limiter.describe());
             }
+            apps.add(app);
+            totalBytes += ring.getBytes();
+            totalCount += ring.size();
+            totalEvictions += ring.getByteEvictions() + ring.getCapacityEvictions();
+        }
+        apps.sort((a, b) -> Long.compare((Long) b.get("bytes"), (Long) a.get("bytes")));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("budgetBytes", getGlobalBudget());
+        stats.put("maxAppBytes", (long) maxAppMemoryMb * 1024 * 1024);
+        stats.put("totalBytes", totalBytes);
+        stats.put("totalCount", totalCount);
+        stats.put("totalEvictions", totalEvictions);
+        stats.put("multiLineEvents", multiLineEvents.get());
+        stats.put("mergedLines", mergedLines.get());
+        long suppressedLines = 0;
+        long suppressedBytes = 0;
+        for (IngestLimit limit : ingestLimits.values()) {
+            Map<String, Object> counters = limit.limiter.describe();
+            suppressedLines += (Long) counters.get("suppressedLines");
+            suppressedBytes += (Long) counters.get("suppressedBytes");
+        }
+        stats.put("ingestLimitEnabled", ingestLimitProperties.isEnabled());
+        stats.put("suppressedLines", suppressedLines);
+        stats.put("suppressedBytes", suppressedBytes);
+        stats.put("storage", segmentPool != null ? segmentPool.getMode() : "heap");
+        if (segmentPool != null) {
+            stats.put("offHeapAllocatedBytes", segmentPool.getAllocatedBytes());
+            stats.put("offHeapIdleSegments", segmentPool.getIdleSegments());
         }
-        return result;
+        stats.put("apps", apps);
+        return stats;
     }
 
     /**
      * 清除指定应用的缓冲区
-     * 用于构建开始前清除旧日志，避免显示上次构建的日志
+     * 用于构建开始前清除旧日志，避免显示上次构建的日志。
+     * 缓冲区本身保留复用，序号继续递增，避免客户端持有的序号回退。
      *
      * @param appCode 应用编码
      */
     public void clearBuffer(String appCode) {
-        AppLogBuffer buffer = appBuffers.remove(appCode);
+        LogRingBuffer buffer = appBuffers.get(appCode);
         if (buffer != null) {
+            buffer.clear();
             logger.info("已清除应用[{}]的日志缓冲区", appCode);
         }
     }
 
     /**
      * 开始新的日志会话（用于构建或运行开始时）
-     * 清除内存缓冲区并通知文件写入服务开始新会话，递增运行/打包次数
+     * 通知文件写入服务开始新会话（递增运行/打包次数），再清除内存缓冲区
      *
      * @param appCode 应用编码
      * @param version 版本号
      */
     public void startNewSession(String appCode, String version) {
+        // 通知文件写入服务开始新会话（先写出上一会话尚未写入文件的日志）
+        logFileWriterService.startNewSession(appCode, version);
         // 清除内存缓冲区
         clearBuffer(appCode);
-        // 通知文件写入服务开始新会话
-        logFileWriterService.startNewSession(appCode, version);
     }
 
 }
@@ -0,0 +1,406 @@
+package com.aeye.app.deploy.service;
+
+import com.aeye.app.deploy.config.DirectoryConfig;
+import com.aeye.app.deploy.util.LogSegmentFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 日志分段压缩服务
+ * <p>
+ * 文件写入服务滚动到下一个分段后，将已封存的分段（appCode_version_x-y.log）
+ * 在后台压缩为 appCode_version_x-y.log.gz 并删除原文件。压缩在单个低优先级线程中进行：
+ * <ul>
+ *   <li>按配置的速率限制读取原文件，避免与构建争用磁盘</li>
+ *   <li>系统负载（load average / CPU核数）超过阈值时暂停</li>
+ *   <li>先写入临时文件，完成后再原子替换，中途失败不影响原文件</li>
+ *   <li>每 {@link LogSegmentFiles#MEMBER_SIZE} 字节原始内容写为一个独立的 gzip 成员，成员起始位置写入
+ *       .idx 目录下的成员索引，行索引、时间索引和分页读取可以从最近的成员开始解压，不必从头解压</li>
+ * </ul>
+ * 启动时和之后每隔一段时间扫描日志目录，补充压缩遗留的未压缩分段。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Service
+public class LogCompressionService implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogCompressionService.class);
+
+    /** 压缩临时文件后缀 */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** 单次读取的字节数（限速粒度） */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Autowired
+    private DirectoryConfig directoryConfig;
+
+    @Autowired
+    private LogSegmentRegistry segmentRegistry;
+
+    /** 是否启用压缩 */
+    @Value("${app.log.compress.enabled:true}")
+    private boolean enabled;
+
+    /** 压缩读取速率上限（KB/s），0表示不限速 */
+    @Value("${app.log.compress.rate-limit-kb:4096}")
+    private int rateLimitKb;
+
+    /** 系统负载（每CPU核）超过此值时暂停压缩 */
+    @Value("${app.log.compress.max-load-per-cpu:0.8}")
+    private double maxLoadPerCpu;
+
+    /** 扫描时只压缩超过此时间未修改的分段（秒） */
+    @Value("${app.log.compress.min-age-seconds:300}")
+    private int minAgeSeconds;
+
+    /** 目录扫描间隔（分钟） */
+    @Value("${app.log.compress.scan-interval-minutes:30}")
+    private int scanIntervalMinutes;
+
+    /** 待压缩队列 */
+    private final BlockingQueue<File> queue = new LinkedBlockingQueue<>();
+
+    /** 已入队的文件（去重） */
+    private final Set<File> queued = ConcurrentHashMap.newKeySet();
+
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+    private ExecutorService compressExecutor;
+
+    private ScheduledExecutorService scanScheduler;
+
+    private volatile boolean running;
+
+    /** 压缩统计 */
+    private final AtomicLong compressedFiles = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong throttledMs = new AtomicLong();
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            logger.info("日志分段压缩未启用");
+            return;
+        }
+        running = true;
+        compressExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "log-compressor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        compressExecutor.submit(this::processQueue);
+
+        scanScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-compress-scanner");
+            t.setDaemon(true);
+            return t;
+        });
+        scanScheduler.scheduleWithFixedDelay(this::scanSealedSegments, 1, scanIntervalMinutes * 60L, TimeUnit.SECONDS);
+        logger.info("日志分段压缩服务启动，限速: {}KB/s，负载阈值: {}/CPU", rateLimitKb, maxLoadPerCpu);
+    }
+
+    /**
+     * 提交已封存的分段进行压缩
+     *
+     * @param file 分段文件（.log）
+     */
+    public void submit(File file) {
+        if (!running || file == null || LogSegmentFiles.isCompressed(file)) {
+            return;
+        }
+        File absolute = file.getAbsoluteFile();
+        if (queued.add(absolute)) {
+            queue.offer(absolute);
+        }
+    }
+
+    /**
+     * 扫描日志目录中未压缩且已封存的分段
+     */
+    private void scanSealedSegments() {
+        try {
+            File[] appDirs = new File(directoryConfig.getLogsDir()).listFiles(File::isDirectory);
+            if (appDirs == null) {
+                return;
+            }
+            long cutoff = System.currentTimeMillis() - minAgeSeconds * 1000L;
+            for (File dir : appDirs) {
+                File[] files = dir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(LogSegmentFiles.GZIP_SUFFIX + TEMP_SUFFIX)) {
+                        // 上次中断遗留的临时文件（x.log.gz.tmp 对应 x.log）
+                        String logName = name.substring(0, name.length() - ".gz".length() - TEMP_SUFFIX.length());
+                        if (file.lastModified() < cutoff
+                                && !queued.contains(new File(dir, logName).getAbsoluteFile())) {
+                            Files.deleteIfExists(file.toPath());
+                        }
+                    } else if (name.endsWith(LogSegmentFiles.LOG_SUFFIX) && file.lastModified() < cutoff
+                            && !segmentRegistry.isActive(file)) {
+                        submit(file);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("扫描待压缩日志分段失败", e);
+        }
+    }
+
+    private void processQueue() {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            File file = null;
+            try {
+                file = queue.poll(1, TimeUnit.SECONDS);
+                if (file == null) {
+                    continue;
+                }
+                compress(file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("压缩日志分段失败: {}", file, e);
+            } finally {
+                if (file != null) {
+                    queued.remove(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 压缩单个分段
+     */
+    private void compress(File file) throws IOException, InterruptedException {
+        if (!file.exists() || segmentRegistry.isActive(file)) {
+            return;
+        }
+        File target = LogSegmentFiles.compressedFile(file);
+        if (target.exists()) {
+            logger.warn("压缩文件已存在，跳过: {}", target);
+            return;
+        }
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        File memberIndex = LogSegmentFiles.memberIndexFile(file);
+        long originalSize = file.length();
+        long lastModified = file.lastModified();
+
+        long[] contentOffsets = new long[16];
+        long[] fileOffsets = new long[16];
+        int members = 0;
+        long contentLength = 0;
+        MemberOutputStream member = null;
+        try (InputStream in = new FileInputStream(file);
+             FileOutputStream out = new FileOutputStream(temp)) {
+            byte[] buf = new byte[CHUNK_SIZE];
+            long windowStart = System.nanoTime();
+            long windowBytes = 0;
+            long memberBytes = 0;
+            int n;
+            while ((n = in.read(buf)) > 0 || members == 0) {
+                if (member == null) {
+                    if (members == contentOffsets.length) {
+                        contentOffsets = Arrays.copyOf(contentOffsets, members * 2);
+                        fileOffsets = Arrays.copyOf(fileOffsets, members * 2);
+                    }
+                    contentOffsets[members] = contentLength;
+                    fileOffsets[members] = out.getChannel().position();
+                    members++;
+                    member = new MemberOutputStream(out);
+                    memberBytes = 0;
+                }
+                if (n <= 0) {
+                    // 空分段也写出一个成员，保证是合法的gzip文件
+                    break;
+                }
+                member.write(buf, 0, n);
+                contentLength += n;
+                memberBytes += n;
+                if (memberBytes >= LogSegmentFiles.MEMBER_SIZE) {
+                    member.finishMember();
+                    member = null;
+                }
+                windowBytes += n;
+                windowStart = throttle(windowStart, windowBytes);
+                if (windowStart < 0) {
+                    windowStart = System.nanoTime();
+                    windowBytes = 0;
+                }
+                waitForLowLoad();
+                if (!running) {
+                    break;
+                }
+            }
+            if (member != null) {
+                member.finishMember();
+                member = null;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        } finally {
+            if (member != null) {
+                member.release();
+            }
+        }
+        if (!running) {
+            Files.deleteIfExists(temp.toPath());
+            return;
+        }
+        try {
+            LogSegmentFiles.writeMemberIndex(memberIndex, contentOffsets, fileOffsets, members, contentLength,
+                    temp.length());
+        } catch (IOException e) {
+            // 没有成员索引时压缩分段仍可从头解压读取
+            logger.warn("写入压缩分段成员索引失败: {}, {}", memberIndex, e.getMessage());
+        }
+
+        // 分段期间被重新打开写入（或大小变化、被清理删除）时放弃本次压缩
+        boolean[] moved = { false };
+        boolean sealed;
+        try {
+            sealed = segmentRegistry.sealIfInactive(file, () -> {
+                if (file.length() != originalSize) {
+                    throw new IOException("分段在压缩期间被修改");
+                }
+                temp.setLastModified(lastModified);
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                moved[0] = true;
+                Files.delete(file.toPath());
+            });
+        } finally {
+            // 未替换成功时（放弃、校验失败或移动失败）清理临时文件和成员索引
+            if (!moved[0]) {
+                Files.deleteIfExists(temp.toPath());
+                Files.deleteIfExists(memberIndex.toPath());
+            }
+        }
+        if (!sealed) {
+            return;
+        }
+
+        segmentRegistry.onSegmentCompressed(target);
+        long compressedSize = target.length();
+        compressedFiles.incrementAndGet();
+        bytesIn.addAndGet(originalSize);
+        bytesOut.addAndGet(compressedSize);
+        logger.debug("日志分段已压缩: {}，{} -> {} 字节", target.getName(), originalSize, compressedSize);
+    }
+
+    /**
+     * 单个 gzip 成员的输出流，结束成员时不关闭底层文件流
+     */
+    private static final class MemberOutputStream extends GZIPOutputStream {
+
+        MemberOutputStream(OutputStream out) throws IOException {
+            super(out, CHUNK_SIZE);
+        }
+
+        /**
+         * 写出成员尾部并释放压缩器
+         */
+        void finishMember() throws IOException {
+            try {
+                finish();
+            } finally {
+                release();
+            }
+        }
+
+        void release() {
+            def.end();
+        }
+    }
+
+    /**
+     * 按速率限制休眠
+     *
+     * @return 统计窗口起点，窗口超过1秒时返回-1表示重新开始统计
+     */
+    private long throttle(long windowStart, long windowBytes) throws InterruptedException {
+        if (rateLimitKb <= 0) {
+            return -1;
+        }
+        long elapsedNanos = System.nanoTime() - windowStart;
+        long expectedNanos = windowBytes * 1_000_000_000L / (rateLimitKb * 1024L);
+        if (expectedNanos > elapsedNanos) {
+            long sleepMs = (expectedNanos - elapsedNanos) / 1_000_000;
+            if (sleepMs > 0) {
+                Thread.sleep(sleepMs);
+                throttledMs.addAndGet(sleepMs);
+            }
+        }
+        return elapsedNanos > 1_000_000_000L ? -1 : windowStart;
+    }
+
+    /**
+     * 系统负载过高时暂停（不支持负载统计的平台直接返回）
+     */
+    private void waitForLowLoad() throws InterruptedException {
+        int cpus = Math.max(1, osBean.getAvailableProcessors());
+        while (running) {
+            double load = osBean.getSystemLoadAverage();
+            if (load < 0 || load / cpus <= maxLoadPerCpu) {
+                return;
+            }
+            Thread.sleep(1000);
+            throttledMs.addAndGet(1000);
+        }
+    }
+
+    /**
+     * 获取压缩统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("pending", queue.size());
+        stats.put("compressedFiles", compressedFiles.get());
+        stats.put("bytesIn", bytesIn.get());
+        stats.put("bytesOut", bytesOut.get());
+        stats.put("ratio", bytesIn.get() > 0 ? (double) bytesOut.get() / bytesIn.get() : 0);
+        stats.put("throttledMs", throttledMs.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (scanScheduler != null) {
+            scanScheduler.shutdownNow();
+        }
+        if (compressExecutor != null) {
+            compressExecutor.shutdownNow();
+            try {
+                compressExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.aeye.app.deploy.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志文件路径异步更新服务
+ * <p>
+ * 日志文件滚动时只登记应用最新的文件路径，由后台线程定时批量写入数据库（app_build、app_deploy），
+ * 同一应用在一个周期内的多次滚动只更新一次。数据库延迟不再阻塞日志写入线程。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Service
+public class LogFilePathUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogFilePathUpdater.class);
+
+    @Autowired
+    private AppBuildService appBuildService;
+
+    @Autowired
+    private AppDeployService appDeployService;
+
+    /** 批量更新间隔（毫秒） */
+    @Value("${app.log.path-update-interval-ms:2000}")
+    private long updateIntervalMs;
+
+    /** 待更新的日志文件路径：key = appCode，value = 最新路径 */
+    private final ConcurrentHashMap<String, String> pendingPaths = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-path-updater");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, updateIntervalMs, updateIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 登记应用最新的日志文件路径（覆盖同一应用尚未写入数据库的旧路径）
+     *
+     * @param appCode 应用编码
+     * @param logFile 日志文件绝对路径
+     */
+    public void submit(String appCode, String logFile) {
+        pendingPaths.put(appCode, logFile);
+    }
+
+    /**
+     * 将待更新的路径批量写入数据库
+     */
+    public synchronized void flush() {
+        if (pendingPaths.isEmpty()) {
+            return;
+        }
+        Map<String, String> batch = new LinkedHashMap<>();
+        for (String appCode : pendingPaths.keySet()) {
+            String logFile = pendingPaths.remove(appCode);
+            if (logFile != null) {
+                batch.put(appCode, logFile);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            appBuildService.updateLogFiles(batch);
+            // 同时也更新AppDeploy表（如果存在对应的svcCode）
+            appDeployService.updateLogFiles(batch);
+            logger.debug("已更新 {} 个应用的日志文件路径", batch.size());
+        } catch (Exception e) {
+            logger.error("批量更新日志文件路径失败，稍后重试: {}", batch.keySet(), e);
+            // 放回未更新的路径，期间登记的更新路径优先
+            for (Map.Entry<String, String> entry : batch.entrySet()) {
+                pendingPaths.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 写入剩余路径
+        flush();
+    }
+}
@@ -1,7 +1,13 @@
 package com.aeye.app.deploy.service;
 
 import com.aeye.app.deploy.config.DirectoryConfig;
+import com.aeye.app.deploy.config.LogIngestLimitProperties;
 import com.aeye.app.deploy.model.AppLog;
+import com.aeye.app.deploy.util.LogLineIndex;
+import com.aeye.app.deploy.util.LogRateLimiter;
+import com.aeye.app.deploy.util.LogRingBuffer;
+import com.aeye.app.deploy.util.LogSegmentFiles;
+import com.aeye.app.deploy.util.LogTimeIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,24 +17,35 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 日志文件写入服务
  * 
  * 负责将应用日志异步写入文件系统，支持：
- * - 按应用隔离的日志缓冲区
- * - 日志文件自动滚动（按大小）
- * - 定时刷新和阈值触发刷新
+ * - 作为日志环形缓冲区的门控消费者，按消费序号直接读取已发布的日志（不复制日志对象）
+ * - 每个应用一个长期打开的追加写入通道（单写入方），复用编码缓冲区并聚集写入
+ * - 日志文件自动滚动（按大小），滚动后同一批次剩余的日志继续写入下一个文件
+ * - 写入时增量维护每个文件的稀疏行索引（.idx/&lt;文件名&gt;.lidx）
+ * - 刷新策略：待写入行数、字节数阈值触发，并保证日志从发布到写入文件的最大延迟
+ * - 可选的落盘模式：none（交给操作系统）、periodic（定时组提交fsync）、batch（每次刷新后fsync）
  * - 文件命名规则：appCode_version_x-y.log（x为运行次数，y为文件序号）
+ * - 写入限流：按应用的文件写入预算丢弃超出限额的日志，并在写入时补写"已丢弃N行"的汇总行
  *
  * @author aeye
  * @since 1.0.0
@@ -42,34 +59,89 @@ public class LogFileWriterService implements CommandLineRunner {
     private DirectoryConfig directoryConfig;
 
     @Autowired
-    private AppBuildService appBuildService;
+    private LogFilePathUpdater logFilePathUpdater;
 
     @Autowired
-    private AppDeployService appDeployService;
+    private LogSegmentRegistry segmentRegistry;
+
+    @Autowired
+    private LogCompressionService logCompressionService;
+
+    @Autowired
+    private LogSearchService logSearchService;
+
+    @Autowired
+    private LogIngestLimitProperties ingestLimitProperties;
 
     /** 单个日志文件最大大小（MB），默认20MB */
     @Value("${app.log.max-file-size-mb:20}")
     private int maxFileSizeMb;
 
+    /** 待写入行数阈值，达到后立即触发写入 */
     @Value("${app.log.flush-size:500}")
     private int flushSize;
 
-    @Value("${app.log.flush-interval-minutes:5}")
-    private int flushIntervalMinutes;
+    /** 待写入字节数阈值（KB），达到后立即触发写入 */
+    @Value("${app.log.flush.max-bytes-kb:256}")
+    private int flushMaxBytesKb;
+
+    /** 日志从发布到写入文件的最大延迟（毫秒） */
+    @Value("${app.log.flush.max-latency-ms:1000}")
+    private long flushMaxLatencyMs;
+
+    /** 落盘模式：none / periodic / batch */
+    @Value("${app.log.flush.fsync-mode:periodic}")
+    private String fsyncModeName;
+
+    /** periodic模式下的fsync间隔（毫秒） */
+    @Value("${app.log.flush.fsync-interval-ms:1000}")
+    private long fsyncIntervalMs;
 
     /**
-     * 日志缓冲区内部类
-     * 每个应用独立的缓冲区，包含日志队列和文件状态
+     * 落盘模式
+     */
+    private enum FsyncMode {
+        /** 只写入页缓存，由操作系统决定落盘时机 */
+        NONE,
+        /** 定时对有新写入的文件执行一次fsync（组提交） */
+        PERIODIC,
+        /** 每次刷新写入完成后立即fsync */
+        BATCH
+    }
+
+    private FsyncMode fsyncMode = FsyncMode.PERIODIC;
+
+    /**
+     * 日志写入状态内部类
+     * 每个应用独立，包含数据源、消费序号和文件状态
      */
     private static class LogFileBuffer {
-        /** 日志队列 */
-        final ConcurrentLinkedDeque<AppLog> logs = new ConcurrentLinkedDeque<>();
-        /** 待写入的日志数量 */
-        final AtomicInteger pendingCount = new AtomicInteger(0);
+        /** 数据源：应用日志环形缓冲区 */
+        volatile LogRingBuffer ring;
+        /** 文件写入消费序号（已写入文件的最大序号） */
+        volatile AtomicLong cursor;
+        /** 是否已提交异步写入任务（避免重复提交） */
+        final AtomicBoolean flushQueued = new AtomicBoolean(false);
         /** 写入锁（防止并发写入） */
         final ReentrantLock writeLock = new ReentrantLock();
         /** 当前日志文件 */
         volatile File currentFile;
+        /** 当前日志文件的追加写入通道（持有写入锁时使用） */
+        FileChannel channel;
+        /** 当前日志文件的稀疏行索引（随通道打开和关闭） */
+        LogLineIndex.Writer lineIndex;
+        /** 当前日志文件的时间与级别索引（随通道打开和关闭） */
+        LogTimeIndex.Writer timeIndex;
+        /** 最近一次写入时间 */
+        volatile long lastWriteTime;
+        /** 最早一条未写入日志的发布时间（0表示没有待写入日志） */
+        final AtomicLong firstPendingTime = new AtomicLong(0);
+        /** 待写入日志的字节数（按字符数估算） */
+        final AtomicLong pendingBytes = new AtomicLong(0);
+        /** 已写入但尚未fsync的字节数（写入方持锁更新，定时检查和统计无锁读取） */
+        final AtomicLong unsyncedBytes = new AtomicLong(0);
+        /** 最近一次fsync时间 */
+        volatile long lastSyncTime;
         /** 当前文件大小 */
         volatile long currentFileSize = 0;
         /** 当前版本 */
@@ -78,6 +150,12 @@ public class LogFileWriterService implements CommandLineRunner {
         volatile int runCount = 0;
         /** 当前文件序号（y） */
         volatile int fileSeq = 1;
+        /** 文件写入限流（未配置文件写入预算时为null） */
+        volatile LogRateLimiter diskLimiter;
+        /** 限流游标：已经过文件写入限流的最大序号（持有写入锁时访问），可能大于消费序号 */
+        long limitedSeq;
+        /** 已经过限流但写入失败的日志（持有写入锁时访问），下次写入时直接重试，不再计入限额 */
+        List<AppLog> unwritten;
     }
 
     /** 缓冲区映射：key = appCode */
@@ -89,9 +167,82 @@ public class LogFileWriterService implements CommandLineRunner {
     /** 异步写入线程池 */
     private ExecutorService writerExecutor;
 
-    /** 日志时间格式化器（使用ThreadLocal保证线程安全） */
-    private static final ThreadLocal<SimpleDateFormat> logTimeFormat = ThreadLocal
-            .withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"));
+    /** 写入缓冲区数量（聚集写入） */
+    private static final int WRITE_BUFFER_COUNT = 4;
+
+    /** 单个写入缓冲区大小（字节） */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /** 空闲超过此时间的写入通道会被关闭（毫秒） */
+    private static final long CHANNEL_IDLE_CLOSE_MS = 10 * 60 * 1000L;
+
+    /** 刷新统计：刷新次数、写入行数、写入字节数 */
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedLines = new AtomicLong();
+    private final AtomicLong flushedBytes = new AtomicLong();
+    /** 刷新统计：写入耗时累计与最大值（纳秒） */
+    private final AtomicLong flushNanosTotal = new AtomicLong();
+    private final AtomicLong flushNanosMax = new AtomicLong();
+    /** 刷新统计：最早待写入日志从发布到写入完成的延迟累计与最大值（毫秒） */
+    private final AtomicLong flushLatencyMsTotal = new AtomicLong();
+    private final AtomicLong flushLatencyMsMax = new AtomicLong();
+    /** 落盘统计：fsync次数、落盘字节数、耗时累计与最大值（纳秒） */
+    private final AtomicLong fsyncCount = new AtomicLong();
+    private final AtomicLong fsyncBytes = new AtomicLong();
+    private final AtomicLong fsyncNanosTotal = new AtomicLong();
+    private final AtomicLong fsyncNanosMax = new AtomicLong();
+
+    /** 行分隔符（与平台保持一致） */
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 写入上下文
+     * 每个写入线程复用一组编码器和堆外缓冲区，与应用无关，写入结束时缓冲区已全部落盘
+     */
+    private static class WriteContext {
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer[] buffers = new ByteBuffer[WRITE_BUFFER_COUNT];
+        /** 当前正在填充的缓冲区下标 */
+        int current = 0;
+        /** 已编码、尚未登记到索引的行（写入通道成功后登记） */
+        long[] lineOffsets = new long[256];
+        long[] lineBytes = new long[256];
+        long[] lineTimes = new long[256];
+        int[] lineLevels = new int[256];
+        int lineCount = 0;
+
+        WriteContext() {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            }
+        }
+
+        void reset() {
+            for (ByteBuffer buffer : buffers) {
+                buffer.clear();
+            }
+            current = 0;
+        }
+
+        void addLine(long offset, long bytes, long time, int level) {
+            if (lineCount == lineOffsets.length) {
+                int size = lineCount * 2;
+                lineOffsets = Arrays.copyOf(lineOffsets, size);
+                lineBytes = Arrays.copyOf(lineBytes, size);
+                lineTimes = Arrays.copyOf(lineTimes, size);
+                lineLevels = Arrays.copyOf(lineLevels, size);
+            }
+            lineOffsets[lineCount] = offset;
+            lineBytes[lineCount] = bytes;
+            lineTimes[lineCount] = time;
+            lineLevels[lineCount] = level;
+            lineCount++;
+        }
+    }
+
+    private static final ThreadLocal<WriteContext> writeContext = ThreadLocal.withInitial(WriteContext::new);
 
     /**
      * 获取或创建缓冲区
@@ -110,8 +261,14 @@ public class LogFileWriterService implements CommandLineRunner {
     @Override
     public void run(String... args) throws Exception {
         String logsDir = directoryConfig.getLogsDir();
-        logger.info("日志文件写入服务启动，日志目录: {}，刷新阈值: {}，刷新间隔: {} 分钟，单文件最大: {}MB",
-                logsDir, flushSize, flushIntervalMinutes, maxFileSizeMb);
+        try {
+            fsyncMode = FsyncMode.valueOf(fsyncModeName.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("未知的日志落盘模式: {}，使用periodic", fsyncModeName);
+            fsyncMode = FsyncMode.PERIODIC;
+        }
+        logger.info("日志文件写入服务启动，日志目录: {}，刷新阈值: {} 行 / {}KB，最大延迟: {}ms，落盘模式: {}，单文件最大: {}MB",
+                logsDir, flushSize, flushMaxBytesKb, flushMaxLatencyMs, fsyncMode, maxFileSizeMb);
 
         startWriterExecutor();
         startFlushScheduler();
@@ -130,6 +287,7 @@ public class LogFileWriterService implements CommandLineRunner {
 
     /**
      * 启动定时刷新调度器
+     * 按最大延迟的四分之一检查各应用：待写入日志超过最大延迟时触发写入，到达fsync间隔时组提交落盘
      */
     private void startFlushScheduler() {
         scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
@@ -138,41 +296,133 @@ public class LogFileWriterService implements CommandLineRunner {
             return t;
         });
 
-        scheduler.scheduleAtFixedRate(() -> {
+        long tickMs = Math.max(10, Math.min(1000, flushMaxLatencyMs / 4));
+        scheduler.scheduleWithFixedDelay(() -> {
             try {
-                flushAllToFile();
+                checkFlushPolicy();
             } catch (Exception e) {
                 logger.error("定时刷新日志到文件时发生异常", e);
             }
-        }, flushIntervalMinutes, flushIntervalMinutes, TimeUnit.MINUTES);
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                closeIdleChannels();
+            } catch (Exception e) {
+                logger.error("关闭空闲日志文件通道时发生异常", e);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
     }
 
     /**
-     * 添加日志到缓冲区
-     * 日志会被添加到对应应用的缓冲区，当待写入日志数达到阈值时自动触发文件写入
+     * 检查刷新策略
+     */
+    private void checkFlushPolicy() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, LogFileBuffer> entry : buffers.entrySet()) {
+            LogFileBuffer buffer = entry.getValue();
+            long firstPending = buffer.firstPendingTime.get();
+            if (firstPending > 0 && now - firstPending >= flushMaxLatencyMs) {
+                asyncFlushToFile(entry.getKey());
+            }
+            if (fsyncMode == FsyncMode.PERIODIC && buffer.unsyncedBytes.get() > 0
+                    && now - buffer.lastSyncTime >= fsyncIntervalMs && buffer.writeLock.tryLock()) {
+                // 写入方持有锁时跳过，下次检查时再落盘
+                try {
+                    syncChannel(buffer);
+                } finally {
+                    buffer.writeLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 注册应用的日志环形缓冲区
+     * 文件写入作为门控消费者，缓冲区在覆盖尚未写入文件的日志前会等待并唤醒写入任务
      *
-     * @param appCode    应用编码
-     * @param version    版本号
-     * @param logLevel   日志级别
-     * @param logContent 日志内容
-     * @param logTime    日志时间
-     */
-    public void addLog(String appCode, String version, String logLevel,
-            String logContent, Date logTime) {
+     * @param appCode 应用编码
+     * @param ring    应用日志环形缓冲区
+     */
+    public void attach(String appCode, LogRingBuffer ring) {
         LogFileBuffer buffer = getOrCreateBuffer(appCode);
+        buffer.writeLock.lock();
+        try {
+            buffer.ring = ring;
+            buffer.cursor = ring.addGatingSequence(() -> asyncFlushToFile(appCode));
+            buffer.diskLimiter = createDiskLimiter(appCode);
+            buffer.limitedSeq = 0;
+            buffer.unwritten = null;
+        } finally {
+            buffer.writeLock.unlock();
+        }
+    }
+
+    /**
+     * 按应用的文件写入预算创建限流器，未启用限流或不限制时返回null
+     */
+    private LogRateLimiter createDiskLimiter(String appCode) {
+        if (!ingestLimitProperties.isEnabled()) {
+            return null;
+        }
+        LogIngestLimitProperties.Budget budget = ingestLimitProperties.resolve(appCode);
+        int rate = budget.getDiskLinesPerSecond() != null ? budget.getDiskLinesPerSecond() : 0;
+        int burst = budget.getDiskBurst() != null ? budget.getDiskBurst() : rate;
+        return rate > 0 ? new LogRateLimiter(rate, burst) : null;
+    }
+
+    /**
+     * 按文件写入预算过滤待写入的日志
+     * 超出限额的日志不写入文件，每条日志只经过一次限流（见 {@link LogFileBuffer#limitedSeq}）
+     */
+    private List<AppLog> applyDiskLimit(LogRateLimiter limiter, List<AppLog> logs) {
+        long now = System.currentTimeMillis();
+        List<AppLog> accepted = new ArrayList<>(logs.size());
+        for (AppLog log : logs) {
+            String content = log.getLogContent();
+            if (LogRateLimiter.SUMMARY_LOGGER.equals(log.getLogger())
+                    || limiter.tryAcquire(now, content != null ? content.length() : 0)) {
+                accepted.add(log);
+            }
+        }
+        return accepted;
+    }
 
+    /**
+     * 生成文件写入的丢弃汇总日志，距上次汇总超过间隔时在本批次前补写
+     * （汇总随写入补写，应用停止输出日志时剩余的丢弃数在下次写入时汇总；
+     * 汇总写入文件后才从待汇总数中扣除，写入失败时留待下次汇总）
+     */
+    private AppLog diskLimitSummary(String appCode, String version, long[] summary, LogRateLimiter limiter,
+                                    long now) {
         AppLog log = new AppLog();
         log.setAppCode(appCode);
         log.setVersion(version);
-        log.setLogLevel(logLevel);
-        log.setLogContent(logContent);
-        log.setLogTime(logTime != null ? logTime : new Date());
-
-        buffer.logs.offerLast(log);
-        int pending = buffer.pendingCount.incrementAndGet();
+        log.setLogLevel("WARN");
+        log.setLogger(LogRateLimiter.SUMMARY_LOGGER);
+        log.setLogTime(new Date(now));
+        log.setLogContent(limiter.formatSummary("文件写入", summary, now));
+        return log;
+    }
 
+    /**
+     * 日志发布通知
+     * 记录待写入日志的发布时间和字节数，待写入行数或字节数达到阈值时立即触发文件写入，
+     * 否则由定时检查在最大延迟内写入
+     *
+     * @param appCode 应用编码
+     * @param seq     新发布日志的序号
+     * @param bytes   新发布日志的内容长度
+     */
+    public void onPublished(String appCode, long seq, int bytes) {
+        LogFileBuffer buffer = buffers.get(appCode);
+        if (buffer == null || buffer.cursor == null) {
+            return;
+        }
+        buffer.firstPendingTime.compareAndSet(0, System.currentTimeMillis());
+        long pending = buffer.pendingBytes.addAndGet(bytes);
         // 检查是否达到提交阈值
-        if (pending >= flushSize) {
+        if (seq - buffer.cursor.get() >= flushSize || pending >= (long) flushMaxBytesKb * 1024) {
             asyncFlushToFile(appCode);
         }
     }
@@ -184,7 +434,12 @@ public class LogFileWriterService implements CommandLineRunner {
         if (writerExecutor == null || writerExecutor.isShutdown()) {
             return;
         }
+        LogFileBuffer buffer = buffers.get(appCode);
+        if (buffer == null || !buffer.flushQueued.compareAndSet(false, true)) {
+            return;
+        }
         writerExecutor.submit(() -> {
+            buffer.flushQueued.set(false);
             try {
                 flushToFile(appCode);
             } catch (Exception e) {
@@ -207,30 +462,7 @@ public class LogFileWriterService implements CommandLineRunner {
         }
 
         try {
-            int pending = buffer.pendingCount.get();
-            if (pending == 0) {
-                return;
-            }
-
-            // 收集待写入的日志
-            List<AppLog> logsToWrite = new ArrayList<>();
-            for (int i = 0; i < pending; i++) {
-                AppLog log = buffer.logs.pollFirst();
-                if (log != null) {
-                    logsToWrite.add(log);
-                }
-            }
-            buffer.pendingCount.addAndGet(-logsToWrite.size());
-
-            if (logsToWrite.isEmpty()) {
-                return;
-            }
-
-            // 写入文件
-            writeLogsToFile(appCode, logsToWrite, buffer);
-
-            logger.debug("应用[{}]日志写入完成，已写入 {} 条", appCode, logsToWrite.size());
-
+            flushBufferInternal(appCode, buffer);
         } finally {
             buffer.writeLock.unlock();
         }
@@ -268,13 +500,22 @@ public class LogFileWriterService implements CommandLineRunner {
 
     /**
      * 写入日志到文件
+     * 使用应用的长期写入通道追加写入，文件达到上限时滚动到下一个文件并继续写入剩余日志。
+     * 文件大小、未落盘字节数和行/时间索引在缓冲区内容实际写入通道后才更新；
+     * 写入失败时把文件截回最后一次成功写入的位置，返回已完整写入的日志条数，其余日志由调用方保留重试
+     *
+     * @return 已写入文件的日志条数和字节数
      */
-    private void writeLogsToFile(String appCode, List<AppLog> logs,
+    private WriteResult writeLogsToFile(String appCode, List<AppLog> logs,
             LogFileBuffer buffer) {
+        WriteResult result = new WriteResult();
         if (logs.isEmpty()) {
-            return;
+            return result;
         }
 
+        WriteContext ctx = writeContext.get();
+        ctx.reset();
+        ctx.lineCount = 0;
         try {
             // 提取安全的应用名称（处理appCode可能是完整路径的情况）
             String safeAppName = extractSafeAppName(appCode);
@@ -311,58 +552,352 @@ public class LogFileWriterService implements CommandLineRunner {
                 }
 
                 // 创建新文件: safeAppName_version_x-y.log
-                String fileName = String.format("%s_%s_%d-%d.log",
-                        safeAppName, safeVersion, buffer.runCount, buffer.fileSeq);
-                buffer.currentFile = logDir.resolve(fileName).toFile();
-                buffer.currentFileSize = buffer.currentFile.exists() ? buffer.currentFile.length() : 0;
-
-                // 更新数据库中的日志文件路径
-                try {
-                    String absolutePath = buffer.currentFile.getAbsolutePath();
-                    appBuildService.updateLogFile(appCode, absolutePath);
-                    // 同时也更新AppDeploy表（如果存在对应的svcCode）
-                    appDeployService.updateLogFile(appCode, absolutePath);
-                } catch (Exception e) {
-                    logger.error("更新应用[{}]日志文件路径失败", appCode, e);
-                }
+                openSegment(appCode, buffer, logDir, safeAppName);
+            } else if (buffer.channel == null) {
+                // 通道因空闲或异常被关闭，重新打开当前文件
+                openChannel(buffer);
             }
 
-            // 写入日志
-            try (BufferedWriter writer = new BufferedWriter(
-                    new OutputStreamWriter(new FileOutputStream(buffer.currentFile, true),
-                            StandardCharsets.UTF_8))) {
-                for (AppLog log : logs) {
-                    String line = log.getLogContent();
-                    writer.write(line);
-                    writer.newLine();
-                    buffer.currentFileSize += line.getBytes(StandardCharsets.UTF_8).length + 1;
-
-                    // 检查是否需要滚动
-                    if (buffer.currentFileSize >= getMaxFileSize()) {
-                        writer.flush();
-                        buffer.fileSeq++;
-                        String fileName = String.format("%s_%s_%d-%d.log",
-                                safeAppName, buffer.currentVersion, buffer.runCount, buffer.fileSeq);
-                        buffer.currentFile = logDir.resolve(fileName).toFile();
-                        buffer.currentFileSize = 0;
-
-                        // 更新数据库中的日志文件路径
-                        try {
-                            String absolutePath = buffer.currentFile.getAbsolutePath();
-                            appBuildService.updateLogFile(appCode, absolutePath);
-                            // 同时也更新AppDeploy表（如果存在对应的svcCode）
-                            appDeployService.updateLogFile(appCode, absolutePath);
-                        } catch (Exception e) {
-                            logger.error("更新应用[{}]日志文件路径失败", appCode, e);
-                        }
+            long size = buffer.currentFileSize;
+            int pendingLogs = 0;
+            for (AppLog log : logs) {
+                String content = log.getLogContent() != null ? log.getLogContent() : "";
+                long time = log.getLogTime() != null ? log.getLogTime().getTime() : System.currentTimeMillis();
+                int level = LogTimeIndex.levelCode(log.getLogLevel());
+                // 合并的多行事件（如异常堆栈）按物理行写入和建立索引
+                int start = 0;
+                while (true) {
+                    int end = content.indexOf('\n', start);
+                    int lineEnd = end >= 0 ? end : content.length();
+                    long lineBytes = encodeLine(ctx, buffer.channel, content, start, lineEnd);
+                    ctx.addLine(size, lineBytes, time, level);
+                    size += lineBytes;
+                    if (end < 0) {
                         break;
                     }
+                    start = end + 1;
                 }
+                pendingLogs++;
+
+                // 达到单文件上限时滚动（不拆分事件），本批次剩余日志继续写入下一个文件
+                if (size >= getMaxFileSize()) {
+                    drain(ctx, buffer.channel);
+                    commitLines(ctx, buffer, size, result);
+                    result.logs += pendingLogs;
+                    pendingLogs = 0;
+                    segmentRegistry.onSegmentWritten(buffer.currentFile, buffer.currentFileSize);
+                    buffer.fileSeq++;
+                    openSegment(appCode, buffer, logDir, safeAppName);
+                    size = buffer.currentFileSize;
+                }
+            }
+            drain(ctx, buffer.channel);
+            commitLines(ctx, buffer, size, result);
+            result.logs += pendingLogs;
+            if (buffer.lineIndex != null) {
+                buffer.lineIndex.flush();
+            }
+            if (buffer.timeIndex != null) {
+                buffer.timeIndex.flush();
             }
+            buffer.lastWriteTime = System.currentTimeMillis();
+            segmentRegistry.onSegmentWritten(buffer.currentFile, buffer.currentFileSize);
 
         } catch (IOException e) {
-            logger.error("写入日志文件失败: appCode={}", appCode, e);
+            logger.error("写入日志文件失败，{} 条日志稍后重试: appCode={}", logs.size() - result.logs, appCode, e);
+            result.failed = true;
+            // 关闭通道，截掉未完整写入的部分，下次写入时重新打开
+            closeChannel(buffer);
+            truncateUncommitted(buffer);
         }
+        return result;
+    }
+
+    /**
+     * 单次写入的结果
+     */
+    private static class WriteResult {
+        /** 已完整写入的日志条数（按传入顺序的前缀） */
+        int logs;
+        /** 已写入的字节数 */
+        long bytes;
+        /** 是否发生写入失败 */
+        boolean failed;
+    }
+
+    /**
+     * 缓冲区内容已写入通道后，更新文件大小和未落盘字节数，并把暂存的行登记到行索引和时间索引
+     */
+    private void commitLines(WriteContext ctx, LogFileBuffer buffer, long size, WriteResult result) {
+        for (int i = 0; i < ctx.lineCount; i++) {
+            if (buffer.lineIndex != null) {
+                buffer.lineIndex.onLine(ctx.lineOffsets[i]);
+            }
+            if (buffer.timeIndex != null) {
+                buffer.timeIndex.onLine(ctx.lineOffsets[i], ctx.lineBytes[i], ctx.lineTimes[i], ctx.lineLevels[i]);
+            }
+        }
+        ctx.lineCount = 0;
+        long bytes = size - buffer.currentFileSize;
+        buffer.currentFileSize = size;
+        buffer.unsyncedBytes.addAndGet(bytes);
+        result.bytes += bytes;
+    }
+
+    /**
+     * 写入失败后把当前文件截回最后一次成功写入的位置（需要在持有写入锁且通道已关闭时调用）
+     * 截断失败时按实际大小继续追加，重试的日志可能与部分写入的内容重复
+     */
+    private void truncateUncommitted(LogFileBuffer buffer) {
+        File file = buffer.currentFile;
+        if (file == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            if (channel.size() > buffer.currentFileSize) {
+                channel.truncate(buffer.currentFileSize);
+            }
+        } catch (IOException e) {
+            logger.warn("截断未完整写入的日志失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 日志文件名: safeAppName_version_x-y.log
+     */
+    private String segmentFileName(String safeAppName, LogFileBuffer buffer) {
+        return String.format("%s_%s_%d-%d.log",
+                safeAppName, buffer.currentVersion, buffer.runCount, buffer.fileSeq);
+    }
+
+    /**
+     * 切换到新的日志文件（需要在持有写入锁的情况下调用）
+     * 关闭旧通道，打开新文件的追加写入通道，并登记数据库中的日志文件路径（异步合并更新）。
+     * 旧文件封存后提交后台压缩；目标文件已被压缩封存时顺延到下一个文件序号
+     */
+    private void openSegment(String appCode, LogFileBuffer buffer, Path logDir, String safeAppName) throws IOException {
+        File previous = buffer.currentFile;
+        closeChannel(buffer);
+
+        File file = logDir.resolve(segmentFileName(safeAppName, buffer)).toFile();
+        while (!segmentRegistry.activate(appCode, file)) {
+            buffer.fileSeq++;
+            file = logDir.resolve(segmentFileName(safeAppName, buffer)).toFile();
+        }
+        buffer.currentFile = file;
+        openChannel(buffer);
+
+        if (previous != null && !previous.equals(file)) {
+            onSegmentSealed(previous);
+        }
+        logFilePathUpdater.submit(appCode, file.getAbsolutePath());
+    }
+
+    /**
+     * 分段封存后提交后台建立倒排索引和压缩
+     */
+    private void onSegmentSealed(File segment) {
+        logSearchService.submit(segment);
+        logCompressionService.submit(segment);
+    }
+
+    /**
+     * 打开当前文件的追加写入通道（需要在持有写入锁的情况下调用）
+     */
+    private void openChannel(LogFileBuffer buffer) throws IOException {
+        buffer.channel = FileChannel.open(buffer.currentFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        buffer.currentFileSize = buffer.channel.size();
+        try {
+            buffer.lineIndex = LogLineIndex.Writer.open(buffer.currentFile);
+        } catch (IOException e) {
+            logger.warn("创建日志行索引失败: {}", buffer.currentFile, e);
+            buffer.lineIndex = null;
+        }
+        try {
+            buffer.timeIndex = LogTimeIndex.Writer.open(buffer.currentFile,
+                    buffer.lineIndex != null ? buffer.lineIndex.getLines() : 0);
+        } catch (IOException e) {
+            logger.warn("创建日志时间索引失败: {}", buffer.currentFile, e);
+            buffer.timeIndex = null;
+        }
+    }
+
+    /**
+     * 关闭写入通道（需要在持有写入锁的情况下调用）
+     */
+    private void closeChannel(LogFileBuffer buffer) {
+        if (buffer.channel == null) {
+            return;
+        }
+        if (fsyncMode != FsyncMode.NONE) {
+            // 关闭前落盘，保证已封存的文件完整
+            syncChannel(buffer);
+        }
+        try {
+            buffer.channel.close();
+        } catch (IOException e) {
+            logger.warn("关闭日志文件通道失败: {}", buffer.currentFile, e);
+        }
+        buffer.channel = null;
+        if (buffer.lineIndex != null) {
+            try {
+                buffer.lineIndex.close();
+            } catch (IOException e) {
+                logger.warn("关闭日志行索引失败: {}", buffer.currentFile, e);
+            }
+            buffer.lineIndex = null;
+        }
+        if (buffer.timeIndex != null) {
+            try {
+                buffer.timeIndex.close();
+            } catch (IOException e) {
+                logger.warn("关闭日志时间索引失败: {}", buffer.currentFile, e);
+            }
+            buffer.timeIndex = null;
+        }
+    }
+
+    /**
+     * 对写入通道执行fsync（需要在持有写入锁的情况下调用）
+     * 只同步文件内容，不强制同步元数据
+     */
+    private void syncChannel(LogFileBuffer buffer) {
+        if (buffer.channel == null || buffer.unsyncedBytes.get() <= 0) {
+            return;
+        }
+        long synced = buffer.unsyncedBytes.get();
+        long start = System.nanoTime();
+        try {
+            buffer.channel.force(false);
+        } catch (IOException e) {
+            logger.warn("日志文件落盘失败: {}", buffer.currentFile, e);
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        fsyncCount.incrementAndGet();
+        fsyncBytes.addAndGet(synced);
+        fsyncNanosTotal.addAndGet(nanos);
+        updateMax(fsyncNanosMax, nanos);
+        buffer.unsyncedBytes.addAndGet(-synced);
+        buffer.lastSyncTime = System.currentTimeMillis();
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 重试
+        }
+    }
+
+    /**
+     * 获取文件写入统计
+     *
+     * @return 刷新策略、刷新延迟和落盘统计
+     */
+    public Map<String, Object> getWriterStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("fsyncMode", fsyncMode.name().toLowerCase());
+        stats.put("maxLatencyMs", flushMaxLatencyMs);
+        stats.put("maxLines", flushSize);
+        stats.put("maxBytes", (long) flushMaxBytesKb * 1024);
+        stats.put("fsyncIntervalMs", fsyncIntervalMs);
+
+        long flushes = flushCount.get();
+        stats.put("flushCount", flushes);
+        stats.put("flushedLines", flushedLines.get());
+        stats.put("flushedBytes", flushedBytes.get());
+        stats.put("avgFlushMs", flushes > 0 ? flushNanosTotal.get() / flushes / 1_000_000.0 : 0);
+        stats.put("maxFlushMs", flushNanosMax.get() / 1_000_000.0);
+        stats.put("avgFlushLatencyMs", flushes > 0 ? flushLatencyMsTotal.get() / flushes : 0);
+        stats.put("maxFlushLatencyMs", flushLatencyMsMax.get());
+
+        long fsyncs = fsyncCount.get();
+        stats.put("fsyncCount", fsyncs);
+        stats.put("fsyncBytes", fsyncBytes.get());
+        stats.put("avgBytesPerFsync", fsyncs > 0 ? fsyncBytes.get() / fsyncs : 0);
+        stats.put("avgFsyncMs", fsyncs > 0 ? fsyncNanosTotal.get() / fsyncs / 1_000_000.0 : 0);
+        stats.put("maxFsyncMs", fsyncNanosMax.get() / 1_000_000.0);
+
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> apps = new ArrayList<>();
+        for (Map.Entry<String, LogFileBuffer> entry : buffers.entrySet()) {
+            LogFileBuffer buffer = entry.getValue();
+            Map<String, Object> app = new LinkedHashMap<>();
+            app.put("appCode", entry.getKey());
+            long firstPending = buffer.firstPendingTime.get();
+            app.put("pendingLines", buffer.ring != null && buffer.cursor != null
+                    ? buffer.ring.getLastSeq() - buffer.cursor.get() : 0);
+            app.put("pendingBytes", buffer.pendingBytes.get());
+            app.put("pendingAgeMs", firstPending > 0 ? now - firstPending : 0);
+            app.put("unsyncedBytes", buffer.unsyncedBytes.get());
+            app.put("currentFile", buffer.currentFile != null ? buffer.currentFile.getName() : null);
+            LogRateLimiter diskLimiter = buffer.diskLimiter;
+            if (diskLimiter != null) {
+                app.put("diskLimit", diskLimiter.describe());
+            }
+            apps.add(app);
+        }
+        stats.put("apps", apps);
+        stats.put("compression", logCompressionService.getStats());
+        return stats;
+    }
+
+    /**
+     * 将一行日志（content 的 [start, end) 区间）编码到写入缓冲区，缓冲区全部写满时聚集写入通道
+     *
+     * @return 本行写入的字节数（含行分隔符）
+     */
+    private long encodeLine(WriteContext ctx, FileChannel channel, String content, int start, int end)
+            throws IOException {
+        long bytes = 0;
+        CharBuffer chars = start == 0 && end == content.length()
+                ? CharBuffer.wrap(content) : CharBuffer.wrap(content, start, end);
+        ctx.encoder.reset();
+        while (true) {
+            ByteBuffer out = ctx.buffers[ctx.current];
+            int before = out.position();
+            CoderResult result = ctx.encoder.encode(chars, out, true);
+            bytes += out.position() - before;
+            if (!result.isOverflow()) {
+                break;
+            }
+            nextBuffer(ctx, channel);
+        }
+        for (byte b : LINE_SEPARATOR) {
+            if (!ctx.buffers[ctx.current].hasRemaining()) {
+                nextBuffer(ctx, channel);
+            }
+            ctx.buffers[ctx.current].put(b);
+        }
+        return bytes + LINE_SEPARATOR.length;
+    }
+
+    /**
+     * 切换到下一个写入缓冲区，全部写满时先写入通道
+     */
+    private void nextBuffer(WriteContext ctx, FileChannel channel) throws IOException {
+        if (ctx.current + 1 < ctx.buffers.length) {
+            ctx.current++;
+        } else {
+            drain(ctx, channel);
+        }
+    }
+
+    /**
+     * 聚集写入所有已填充的缓冲区并重置
+     */
+    private void drain(WriteContext ctx, FileChannel channel) throws IOException {
+        int count = ctx.current + 1;
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            ctx.buffers[i].flip();
+            remaining += ctx.buffers[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(ctx.buffers, 0, count);
+        }
+        ctx.reset();
     }
 
     /**
@@ -378,14 +913,14 @@ public class LogFileWriterService implements CommandLineRunner {
         int maxRunCount = 0;
         String prefix = appCode + "_" + version + "_";
 
-        File[] files = logDir.toFile().listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".log"));
+        File[] files = logDir.toFile().listFiles((dir, name) -> name.startsWith(prefix) && LogSegmentFiles.isLogFile(name));
 
         if (files != null) {
             for (File file : files) {
                 String name = file.getName();
                 try {
                     int start = prefix.length();
-                    int end = name.lastIndexOf(".log");
+                    int end = LogSegmentFiles.baseName(name).length();
                     if (end > start) {
                         String xyPart = name.substring(start, end);
                         String[] parts = xyPart.split("-");
@@ -418,7 +953,7 @@ public class LogFileWriterService implements CommandLineRunner {
         // 匹配模式: appCode_version_x-y.log
         String prefix = appCode + "_" + version + "_";
 
-        File[] files = logDir.toFile().listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".log"));
+        File[] files = logDir.toFile().listFiles((dir, name) -> name.startsWith(prefix) && LogSegmentFiles.isLogFile(name));
 
         if (files != null) {
             for (File file : files) {
@@ -426,7 +961,7 @@ public class LogFileWriterService implements CommandLineRunner {
                 try {
                     // 解析 x-y 部分
                     int start = prefix.length();
-                    int end = name.lastIndexOf(".log");
+                    int end = LogSegmentFiles.baseName(name).length();
                     if (end > start) {
                         String xyPart = name.substring(start, end);
                         String[] parts = xyPart.split("-");
@@ -452,8 +987,8 @@ public class LogFileWriterService implements CommandLineRunner {
         if (maxRunCount > 0) {
             String lastFileName = String.format("%s_%s_%d-%d.log", appCode, version, maxRunCount, maxFileSeq);
             File lastFile = logDir.resolve(lastFileName).toFile();
-            if (lastFile.exists() && lastFile.length() >= getMaxFileSize()) {
-                // 文件已满，递增文件序号
+            if (!lastFile.exists() || lastFile.length() >= getMaxFileSize()) {
+                // 文件已满或已被压缩封存，递增文件序号
                 return new int[] { maxRunCount, maxFileSeq + 1 };
             }
             // 文件未满，继续使用
@@ -464,17 +999,6 @@ public class LogFileWriterService implements CommandLineRunner {
         return new int[] { 1, 1 };
     }
 
-    /**
-     * 格式化日志行
-     */
-    private String formatLogLine(AppLog log) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(logTimeFormat.get().format(log.getLogTime()));
-        sb.append(" ");
-        sb.append(log.getLogContent());
-        return sb.toString();
-    }
-
     /**
      * 刷新所有缓冲区到文件
      */
@@ -484,6 +1008,39 @@ public class LogFileWriterService implements CommandLineRunner {
         }
     }
 
+    /**
+     * 关闭长时间未写入的文件通道，避免大量空闲应用占用文件句柄
+     */
+    private void closeIdleChannels() {
+        long now = System.currentTimeMillis();
+        for (LogFileBuffer buffer : buffers.values()) {
+            if (buffer.channel == null || now - buffer.lastWriteTime < CHANNEL_IDLE_CLOSE_MS) {
+                continue;
+            }
+            if (buffer.writeLock.tryLock()) {
+                try {
+                    closeChannel(buffer);
+                } finally {
+                    buffer.writeLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭所有文件通道
+     */
+    private void closeAllChannels() {
+        for (LogFileBuffer buffer : buffers.values()) {
+            buffer.writeLock.lock();
+            try {
+                closeChannel(buffer);
+            } finally {
+                buffer.writeLock.unlock();
+            }
+        }
+    }
+
     /**
      * 开始新的运行/打包会话
      * 调用此方法后，下次写入日志时会递增运行次数（x），文件序号（y）重置为1
@@ -519,6 +1076,12 @@ public class LogFileWriterService implements CommandLineRunner {
             buffer.runCount = maxRunCount + 1;
             buffer.fileSeq = 1;
             buffer.currentVersion = safeVersion;
+            closeChannel(buffer);
+            // 上一次会话的文件已封存
+            File sealed = segmentRegistry.deactivate(appCode);
+            if (sealed != null) {
+                onSegmentSealed(sealed);
+            }
             buffer.currentFile = null;
             buffer.currentFileSize = 0;
 
@@ -530,24 +1093,110 @@ public class LogFileWriterService implements CommandLineRunner {
 
     /**
      * 内部刷新方法（需要在持有锁的情况下调用）
+     * 从消费序号之后分批读取环形缓冲区中的日志写入文件，并推进消费序号
      */
     private void flushBufferInternal(String appCode, LogFileBuffer buffer) {
-        int pending = buffer.pendingCount.get();
-        if (pending == 0) {
+        LogRingBuffer ring = buffer.ring;
+        AtomicLong cursor = buffer.cursor;
+        if (ring == null || cursor == null) {
             return;
         }
 
-        List<AppLog> logsToWrite = new ArrayList<>();
-        for (int i = 0; i < pending; i++) {
-            AppLog log = buffer.logs.pollFirst();
-            if (log != null) {
-                logsToWrite.add(log);
+        // 先重置待写入统计，写入期间新发布的日志重新计时
+        long firstPending = buffer.firstPendingTime.getAndSet(0);
+        buffer.pendingBytes.set(0);
+
+        long start = System.nanoTime();
+        int batchSize = Math.max(flushSize, 1);
+        long written = 0;
+        long writtenBytes = 0;
+        long lastSeq = ring.getLastSeq();
+        while (cursor.get() < lastSeq) {
+            long from = cursor.get() + 1;
+            LogRateLimiter diskLimiter = buffer.diskLimiter;
+            List<AppLog> logsToWrite;
+            long batchLastSeq;
+            String version;
+            if (buffer.unwritten != null) {
+                // 上次写入失败的日志已经过限流，直接重试
+                logsToWrite = buffer.unwritten;
+                batchLastSeq = buffer.limitedSeq;
+                version = logsToWrite.get(0).getVersion();
+            } else {
+                List<AppLog> batch = ring.readFrom(from, batchSize);
+                if (batch.isEmpty()) {
+                    cursor.set(lastSeq);
+                    break;
+                }
+                long firstSeq = batch.get(0).getSeq();
+                if (firstSeq > from) {
+                    logger.warn("应用[{}]日志写入落后，{} 条日志已被覆盖未能写入文件", appCode, firstSeq - from);
+                }
+                batchLastSeq = batch.get(batch.size() - 1).getSeq();
+                version = batch.get(0).getVersion();
+                logsToWrite = diskLimiter != null ? applyDiskLimit(diskLimiter, batch) : batch;
+                buffer.limitedSeq = batchLastSeq;
+            }
+
+            long[] summary = null;
+            long now = System.currentTimeMillis();
+            if (diskLimiter != null) {
+                summary = diskLimiter.peekSummary(now, ingestLimitProperties.getSummaryIntervalSeconds() * 1000L);
+                if (summary != null) {
+                    List<AppLog> withSummary = new ArrayList<>(logsToWrite.size() + 1);
+                    withSummary.add(diskLimitSummary(appCode, version, summary, diskLimiter, now));
+                    withSummary.addAll(logsToWrite);
+                    logsToWrite = withSummary;
+                }
             }
+            WriteResult result = writeLogsToFile(appCode, logsToWrite, buffer);
+            writtenBytes += result.bytes;
+            written += result.logs;
+            if (summary != null && result.logs > 0) {
+                diskLimiter.commitSummary(summary, now);
+                logger.warn("应用[{}]{}", appCode, logsToWrite.get(0).getLogContent());
+            }
+            if (result.failed) {
+                // 只推进到已写入的日志，其余日志保留在缓冲区中（门控消费者未推进，不会被覆盖），由定时检查重试；
+                // 未写入的日志已经过限流，重试时不重复计入限额（未写入的汇总不保留，待汇总数未扣除）
+                long committedSeq = from - 1;
+                List<AppLog> remaining = new ArrayList<>();
+                for (int i = 0; i < logsToWrite.size(); i++) {
+                    Long seq = logsToWrite.get(i).getSeq();
+                    if (seq == null) {
+                        continue;
+                    }
+                    if (i < result.logs) {
+                        committedSeq = seq;
+                    } else {
+                        remaining.add(logsToWrite.get(i));
+                    }
+                }
+                buffer.unwritten = remaining.isEmpty() ? null : remaining;
+                cursor.set(remaining.isEmpty() ? batchLastSeq : committedSeq);
+                buffer.firstPendingTime.compareAndSet(0, firstPending > 0 ? firstPending : System.currentTimeMillis());
+                break;
+            }
+            buffer.unwritten = null;
+            cursor.set(batchLastSeq);
         }
-        buffer.pendingCount.addAndGet(-logsToWrite.size());
 
-        if (!logsToWrite.isEmpty()) {
-            writeLogsToFile(appCode, logsToWrite, buffer);
+        if (written > 0) {
+            if (fsyncMode == FsyncMode.BATCH) {
+                syncChannel(buffer);
+            }
+            long nanos = System.nanoTime() - start;
+            flushCount.incrementAndGet();
+            flushedLines.addAndGet(written);
+            flushedBytes.addAndGet(writtenBytes);
+            flushNanosTotal.addAndGet(nanos);
+            updateMax(flushNanosMax, nanos);
+            if (firstPending > 0) {
+                long latency = System.currentTimeMillis() - firstPending;
+                flushLatencyMsTotal.addAndGet(latency);
+                updateMax(flushLatencyMsMax, latency);
+            }
+            logger.debug("应用[{}]日志写入完成，已写入 {} 条", appCode, written);
         }
     }
 
@@ -555,8 +1204,9 @@ public class LogFileWriterService implements CommandLineRunner {
     public void shutdown() {
         logger.info("正在关闭日志文件写入服务...");
 
-        // 刷新所有缓冲区
+        // 刷新所有缓冲区并关闭文件通道
         flushAllToFile();
+        closeAllChannels();
 
         // 关闭调度器
         if (scheduler != null && !scheduler.isShutdown()) {
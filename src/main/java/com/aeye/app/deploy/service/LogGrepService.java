@@ -0,0 +1,430 @@
+package com.aeye.app.deploy.service;
+
+import com.aeye.app.deploy.util.BoyerMooreHorspool;
+import com.aeye.app.deploy.util.LogSegmentFiles;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 日志分段并行搜索服务（grep）
+ * <p>
+ * 按子串或正则表达式搜索一个或多个应用的全部日志分段：
+ * <ul>
+ *   <li>分段按最后修改时间从新到旧分发到有界的工作线程池并行扫描</li>
+ *   <li>未压缩分段通过内存映射读取，压缩分段流式解压</li>
+ *   <li>先用 Boyer-Moore-Horspool 查找字面量（子串本身或正则中必须出现的最长字面量），
+ *       命中后才对所在行执行正则匹配</li>
+ *   <li>命中结果按发现顺序以 NDJSON 流式返回，达到条数上限或超时后停止所有扫描</li>
+ * </ul>
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Service
+public class LogGrepService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogGrepService.class);
+
+    /** 内存映射的单个窗口大小 */
+    private static final int MAP_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /** 压缩分段的解压缓冲区大小 */
+    private static final int STREAM_CHUNK_SIZE = 1024 * 1024;
+
+    /** 结果队列容量（写出跟不上时扫描线程等待） */
+    private static final int RESULT_QUEUE_SIZE = 1024;
+
+    /** 正则元字符 */
+    private static final String REGEX_META = "\\\\.[]{}()*+?^$|";
+
+    @Autowired
+    private LogSegmentRegistry segmentRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /** 工作线程数 */
+    @Value("${app.log.grep.threads:4}")
+    private int threads;
+
+    /** 单次搜索最长时间（秒） */
+    @Value("${app.log.grep.timeout-seconds:60}")
+    private int timeoutSeconds;
+
+    private ThreadPoolExecutor grepExecutor;
+
+    /**
+     * 单次搜索的共享状态
+     */
+    private static class GrepTask {
+        final Pattern regex;
+        final BoyerMooreHorspool literal;
+        final AtomicInteger remaining;
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final BlockingQueue<Object> results = new ArrayBlockingQueue<>(RESULT_QUEUE_SIZE);
+        final AtomicInteger scannedFiles = new AtomicInteger();
+        final AtomicLong scannedBytes = new AtomicLong();
+
+        GrepTask(Pattern regex, BoyerMooreHorspool literal, int limit) {
+            this.regex = regex;
+            this.literal = literal;
+            this.remaining = new AtomicInteger(limit);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        grepExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "log-grep");
+                    t.setDaemon(true);
+                    return t;
+                });
+        grepExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 搜索并将结果以 NDJSON 写出
+     * 每个命中一行 {app, fileName, line, offset, content}，最后一行为汇总 {done, count, truncated, ...}
+     *
+     * @param appDirs    应用日志目录名列表，为空时搜索全部应用
+     * @param pattern    子串或正则表达式
+     * @param regex      是否按正则表达式搜索
+     * @param ignoreCase 是否忽略大小写
+     * @param limit      最大命中条数
+     * @param out        输出流
+     */
+    public void grep(List<String> appDirs, String pattern, boolean regex, boolean ignoreCase, int limit,
+            OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        Pattern compiled = null;
+        String literal = pattern;
+        int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+        if (regex) {
+            compiled = Pattern.compile(pattern, flags);
+            literal = requiredLiteral(pattern);
+        } else if (ignoreCase && !isAscii(pattern)) {
+            compiled = Pattern.compile(Pattern.quote(pattern), flags);
+        }
+        if (ignoreCase && literal != null && !isAscii(literal)) {
+            // 预过滤只折叠ASCII大小写，非ASCII字面量忽略大小写时只能逐行匹配
+            literal = null;
+        }
+        BoyerMooreHorspool prefilter = literal != null && !literal.isEmpty()
+                ? new BoyerMooreHorspool(literal.getBytes(StandardCharsets.UTF_8), ignoreCase) : null;
+        GrepTask task = new GrepTask(compiled, prefilter, limit);
+
+        Map<String, List<LogSegmentRegistry.Segment>> snapshot = segmentRegistry.snapshot();
+        List<LogSegmentRegistry.Segment> segments = snapshot.entrySet().stream()
+                .filter(e -> appDirs == null || appDirs.isEmpty() || appDirs.contains(e.getKey()))
+                .flatMap(e -> e.getValue().stream())
+                .filter(s -> s.getFile() != null)
+                .sorted(Comparator.comparingLong(LogSegmentRegistry.Segment::getLastModified).reversed())
+                .collect(Collectors.toList());
+
+        AtomicInteger pending = new AtomicInteger(segments.size());
+        List<Future<?>> futures = new ArrayList<>(segments.size());
+        for (LogSegmentRegistry.Segment segment : segments) {
+            futures.add(grepExecutor.submit(() -> {
+                try {
+                    if (!task.cancelled.get()) {
+                        grepSegment(task, segment);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    logger.warn("搜索日志分段失败: {}", segment.getFile(), e);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }));
+        }
+
+        int count = 0;
+        long deadline = start + timeoutSeconds * 1000L;
+        boolean timedOut = false;
+        try {
+            while (true) {
+                // 先判断是否全部完成，再取结果，保证完成前放入的结果都已写出
+                boolean finished = pending.get() == 0;
+                Object item = task.results.poll(finished ? 0 : 200, TimeUnit.MILLISECONDS);
+                if (item != null) {
+                    writeLine(out, item);
+                    count++;
+                    continue;
+                }
+                if (finished) {
+                    break;
+                }
+                out.flush();
+                if (System.currentTimeMillis() > deadline) {
+                    timedOut = true;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // 达到上限、超时或客户端断开时停止剩余扫描
+            task.cancelled.set(true);
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("done", true);
+        summary.put("count", count);
+        summary.put("truncated", task.remaining.get() <= 0);
+        summary.put("timedOut", timedOut);
+        summary.put("segments", segments.size());
+        summary.put("scannedFiles", task.scannedFiles.get());
+        summary.put("scannedBytes", task.scannedBytes.get());
+        summary.put("tookMs", System.currentTimeMillis() - start);
+        writeLine(out, summary);
+        out.flush();
+    }
+
+    private void writeLine(OutputStream out, Object value) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(value));
+        out.write('\n');
+    }
+
+    /**
+     * 扫描单个分段
+     */
+    private void grepSegment(GrepTask task, LogSegmentRegistry.Segment segment)
+            throws IOException, InterruptedException {
+        File file = segment.getFile();
+        if (!file.exists()) {
+            return;
+        }
+        task.scannedFiles.incrementAndGet();
+        long[] lineNo = { 0 };
+        if (LogSegmentFiles.isCompressed(file)) {
+            try (InputStream in = LogSegmentFiles.openStream(file)) {
+                byte[] buf = new byte[STREAM_CHUNK_SIZE];
+                int filled = 0;
+                long baseOffset = 0;
+                int n;
+                while (!task.cancelled.get() && (n = in.read(buf, filled, buf.length - filled)) > 0) {
+                    filled += n;
+                    int end = lastNewline(buf, filled);
+                    if (end < 0) {
+                        if (filled == buf.length) {
+                            // 超长行：扩大缓冲区
+                            buf = Arrays.copyOf(buf, buf.length * 2);
+                        }
+                        continue;
+                    }
+                    scanChunk(task, segment, ByteBuffer.wrap(buf, 0, end + 1), end + 1, baseOffset, lineNo);
+                    System.arraycopy(buf, end + 1, buf, 0, filled - end - 1);
+                    filled -= end + 1;
+                    baseOffset += end + 1;
+                }
+                if (filled > 0 && !task.cancelled.get()) {
+                    scanChunk(task, segment, ByteBuffer.wrap(buf, 0, filled), filled, baseOffset, lineNo);
+                }
+                task.scannedBytes.addAndGet(baseOffset + filled);
+            }
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size && !task.cancelled.get()) {
+                long length = Math.min(MAP_CHUNK_SIZE, size - position);
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (int) length;
+                if (position + length < size) {
+                    // 只处理到窗口内最后一个完整行
+                    int last = end - 1;
+                    while (last >= 0 && mapped.get(last) != '\n') {
+                        last--;
+                    }
+                    if (last >= 0) {
+                        end = last + 1;
+                    }
+                }
+                scanChunk(task, segment, mapped, end, position, lineNo);
+                position += end;
+            }
+            task.scannedBytes.addAndGet(position);
+        }
+    }
+
+    /**
+     * 扫描一块以行首开始的数据
+     *
+     * @param buf        数据
+     * @param end        有效数据长度
+     * @param baseOffset 数据在文件中的起始偏移
+     * @param lineNo     数据起始处的行号（扫描后更新为结束处的行号）
+     */
+    private void scanChunk(GrepTask task, LogSegmentRegistry.Segment segment, ByteBuffer buf, int end,
+            long baseOffset, long[] lineNo) throws InterruptedException {
+        int countedTo = 0;
+        int pos = 0;
+        while (pos < end && !task.cancelled.get()) {
+            int hit;
+            if (task.literal != null) {
+                hit = task.literal.indexOf(buf, pos, end);
+                if (hit < 0) {
+                    break;
+                }
+            } else {
+                hit = pos;
+            }
+            int lineStart = hit;
+            while (lineStart > pos && buf.get(lineStart - 1) != '\n') {
+                lineStart--;
+            }
+            int lineEnd = hit;
+            while (lineEnd < end && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            lineNo[0] += countNewlines(buf, countedTo, lineStart);
+            countedTo = lineStart;
+
+            int contentEnd = lineEnd > lineStart && buf.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            byte[] bytes = new byte[contentEnd - lineStart];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buf.get(lineStart + i);
+            }
+            String content = new String(bytes, StandardCharsets.UTF_8);
+            if (task.regex == null || task.regex.matcher(content).find()) {
+                emit(task, segment, lineNo[0], baseOffset + lineStart, content);
+            }
+            pos = lineEnd + 1;
+        }
+        lineNo[0] += countNewlines(buf, countedTo, end);
+    }
+
+    private void emit(GrepTask task, LogSegmentRegistry.Segment segment, long line, long offset, String content)
+            throws InterruptedException {
+        if (task.remaining.getAndDecrement() <= 0) {
+            task.cancelled.set(true);
+            return;
+        }
+        Map<String, Object> match = new LinkedHashMap<>();
+        match.put("app", segment.getAppDir());
+        match.put("fileName", segment.getFile().getName());
+        match.put("line", line);
+        match.put("offset", offset);
+        match.put("content", content);
+        while (!task.cancelled.get() && !task.results.offer(match, 100, TimeUnit.MILLISECONDS)) {
+            // 写出跟不上时等待
+        }
+        if (task.remaining.get() <= 0) {
+            task.cancelled.set(true);
+        }
+    }
+
+    private static int countNewlines(ByteBuffer buf, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int lastNewline(byte[] buf, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 提取正则表达式中必须出现的最长字面量
+     * 只考虑分组和字符类之外的字符，量词前的字符不计入；
+     * 含分支（|）或内联标志时无法确定，返回null
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.indexOf('|') >= 0 || regex.contains("(?")) {
+            return null;
+        }
+        String best = "";
+        StringBuilder current = new StringBuilder();
+        int classDepth = 0;
+        int groupDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            boolean outside = classDepth == 0 && groupDepth == 0;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(++i);
+                if (outside && REGEX_META.indexOf(next) >= 0 && !isQuantified(regex, i + 1)) {
+                    current.append(next);
+                    continue;
+                }
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (c == '(' && classDepth == 0) {
+                groupDepth++;
+            } else if (c == ')' && classDepth == 0 && groupDepth > 0) {
+                groupDepth--;
+            } else if (outside && REGEX_META.indexOf(c) < 0 && !isQuantified(regex, i + 1)) {
+                current.append(c);
+                continue;
+            }
+            if (current.length() > best.length()) {
+                best = current.toString();
+            }
+            current.setLength(0);
+        }
+        if (current.length() > best.length()) {
+            best = current.toString();
+        }
+        return best.isEmpty() ? null : best;
+    }
+
+    private static boolean isQuantified(String regex, int next) {
+        return next < regex.length() && "?*{".indexOf(regex.charAt(next)) >= 0;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (grepExecutor != null) {
+            grepExecutor.shutdownNow();
+        }
+    }
+}
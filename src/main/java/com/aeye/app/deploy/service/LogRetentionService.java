@@ -0,0 +1,266 @@
+package com.aeye.app.deploy.service;
+
+import com.aeye.app.deploy.config.LogRetentionProperties;
+import com.aeye.app.deploy.util.LogSegmentFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 日志保留与磁盘配额服务
+ * <p>
+ * 根据 {@link LogRetentionProperties} 定时清理日志目录，按以下顺序计算待删除的分段：
+ * <ol>
+ *   <li>每个版本只保留最近 N 次运行/打包的分段</li>
+ *   <li>删除超过最长保留天数的分段</li>
+ *   <li>应用总占用超出上限时从最旧的分段开始删除</li>
+ *   <li>日志目录总占用超出上限时跨应用从最旧的分段开始删除</li>
+ * </ol>
+ * 计算基于 {@link LogSegmentRegistry} 的内存索引，不重复扫描目录；正在写入的分段始终保留。
+ * 删除分段时一并删除其在 .idx 目录下的附属索引文件。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Service
+public class LogRetentionService implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogRetentionService.class);
+
+    private static final long MB = 1024L * 1024;
+
+    @Autowired
+    private LogRetentionProperties properties;
+
+    @Autowired
+    private LogSegmentRegistry segmentRegistry;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 清理候选项
+     */
+    private static class Candidate {
+        final LogSegmentRegistry.Segment segment;
+        final String reason;
+
+        Candidate(LogSegmentRegistry.Segment segment, String reason) {
+            this.segment = segment;
+            this.reason = reason;
+        }
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!properties.isEnabled()) {
+            logger.info("日志自动清理未启用，可通过 /logFiles/retention/preview 预览清理结果后设置 app.log.retention.enabled=true 启用");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-retention");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, properties.getCheckIntervalMinutes());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                enforce();
+            } catch (Exception e) {
+                logger.error("日志清理失败", e);
+            }
+        }, 1, interval, TimeUnit.MINUTES);
+        logger.info("日志自动清理已启用，检查间隔: {} 分钟", interval);
+    }
+
+    /**
+     * 预览清理结果（不删除文件）
+     *
+     * @return 待删除的分段及可回收的字节数
+     */
+    public Map<String, Object> preview() {
+        List<Candidate> candidates = evaluate();
+        List<Map<String, Object>> files = new ArrayList<>();
+        long reclaimBytes = 0;
+        for (Candidate candidate : candidates) {
+            LogSegmentRegistry.Segment segment = candidate.segment;
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("appCode", segment.getAppDir());
+            item.put("fileName", segment.getFile().getName());
+            item.put("size", segment.getSize());
+            item.put("lastModified", segment.getLastModified());
+            item.put("reason", candidate.reason);
+            files.add(item);
+            reclaimBytes += segment.getSize();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalBytes", segmentRegistry.getTotalBytes());
+        result.put("reclaimBytes", reclaimBytes);
+        result.put("fileCount", files.size());
+        result.put("files", files);
+        return result;
+    }
+
+    /**
+     * 执行清理
+     *
+     * @return 删除的分段数
+     */
+    public int enforce() {
+        int deleted = 0;
+        long reclaimed = 0;
+        for (Candidate candidate : evaluate()) {
+            LogSegmentRegistry.Segment segment = candidate.segment;
+            if (deleteSegment(segment.getFile())) {
+                deleted++;
+                reclaimed += segment.getSize();
+                logger.debug("清理日志分段: {}，原因: {}", segment.getFile(), candidate.reason);
+            }
+        }
+        if (deleted > 0) {
+            logger.info("日志清理完成，删除 {} 个分段，回收 {} MB", deleted, reclaimed / MB);
+        }
+        return deleted;
+    }
+
+    /**
+     * 删除分段文件及其附属索引（分段正在写入时不删除）
+     *
+     * @param file 分段文件
+     * @return 是否已删除
+     */
+    public boolean deleteSegment(File file) {
+        try {
+            boolean sealed = segmentRegistry.sealIfInactive(file, () -> {
+                Files.deleteIfExists(file.toPath());
+                deleteSidecars(file);
+            });
+            if (sealed) {
+                segmentRegistry.onSegmentDeleted(file);
+            }
+            return sealed;
+        } catch (IOException e) {
+            logger.warn("删除日志分段失败: {}", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * 删除分段在 .idx 目录下的附属文件（baseName.*）
+     */
+    private void deleteSidecars(File file) throws IOException {
+        File sidecarDir = new File(file.getParentFile(), LogSegmentRegistry.SIDECAR_DIR);
+        String prefix = LogSegmentFiles.baseName(file.getName()) + ".";
+        File[] sidecars = sidecarDir.listFiles((d, name) -> name.startsWith(prefix));
+        if (sidecars != null) {
+            for (File sidecar : sidecars) {
+                Files.deleteIfExists(sidecar.toPath());
+            }
+        }
+    }
+
+    /**
+     * 根据策略计算待删除的分段
+     */
+    private List<Candidate> evaluate() {
+        Map<String, List<LogSegmentRegistry.Segment>> snapshot = segmentRegistry.snapshot();
+        long now = System.currentTimeMillis();
+        Map<LogSegmentRegistry.Segment, String> selected = new LinkedHashMap<>();
+        List<LogSegmentRegistry.Segment> remaining = new ArrayList<>();
+
+        for (Map.Entry<String, List<LogSegmentRegistry.Segment>> entry : snapshot.entrySet()) {
+            LogRetentionProperties.Policy policy = properties.resolve(entry.getKey());
+            List<LogSegmentRegistry.Segment> segments = entry.getValue().stream()
+                    .filter(s -> s.getFile() != null && !segmentRegistry.isActive(s.getFile()))
+                    .sorted(Comparator.comparingLong(LogSegmentRegistry.Segment::getLastModified))
+                    .collect(Collectors.toList());
+
+            // 每个版本保留最近N次运行
+            Integer maxRuns = policy.getMaxRunsPerVersion();
+            if (maxRuns != null && maxRuns > 0) {
+                Map<String, TreeSet<Integer>> runsByVersion = new HashMap<>();
+                for (LogSegmentRegistry.Segment s : entry.getValue()) {
+                    runsByVersion.computeIfAbsent(s.getVersion(), k -> new TreeSet<>()).add(s.getRunCount());
+                }
+                for (LogSegmentRegistry.Segment s : segments) {
+                    NavigableSet<Integer> newer = runsByVersion.get(s.getVersion()).tailSet(s.getRunCount(), false);
+                    if (newer.size() >= maxRuns) {
+                        selected.put(s, "超过每版本保留次数(" + maxRuns + ")");
+                    }
+                }
+            }
+
+            // 最长保留天数
+            Integer maxAgeDays = policy.getMaxAgeDays();
+            if (maxAgeDays != null && maxAgeDays > 0) {
+                long cutoff = now - TimeUnit.DAYS.toMillis(maxAgeDays);
+                for (LogSegmentRegistry.Segment s : segments) {
+                    if (s.getLastModified() < cutoff) {
+                        selected.putIfAbsent(s, "超过保留天数(" + maxAgeDays + ")");
+                    }
+                }
+            }
+
+            // 应用总占用上限
+            long appBytes = 0;
+            for (LogSegmentRegistry.Segment s : entry.getValue()) {
+                if (!selected.containsKey(s)) {
+                    appBytes += s.getSize();
+                }
+            }
+            Long maxAppMb = policy.getMaxAppMb();
+            for (LogSegmentRegistry.Segment s : segments) {
+                if (selected.containsKey(s)) {
+                    continue;
+                }
+                if (maxAppMb != null && maxAppMb > 0 && appBytes > maxAppMb * MB) {
+                    selected.put(s, "超过应用占用上限(" + maxAppMb + "MB)");
+                    appBytes -= s.getSize();
+                } else {
+                    remaining.add(s);
+                }
+            }
+        }
+
+        // 日志目录总占用上限：跨应用从最旧的分段开始删除
+        if (properties.getMaxTotalMb() > 0) {
+            long totalBytes = segmentRegistry.getTotalBytes();
+            for (LogSegmentRegistry.Segment s : selected.keySet()) {
+                totalBytes -= s.getSize();
+            }
+            remaining.sort(Comparator.comparingLong(LogSegmentRegistry.Segment::getLastModified));
+            long limit = properties.getMaxTotalMb() * MB;
+            for (LogSegmentRegistry.Segment s : remaining) {
+                if (totalBytes <= limit) {
+                    break;
+                }
+                selected.put(s, "超过日志目录总占用上限(" + properties.getMaxTotalMb() + "MB)");
+                totalBytes -= s.getSize();
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<LogSegmentRegistry.Segment, String> entry : selected.entrySet()) {
+            candidates.add(new Candidate(entry.getKey(), entry.getValue()));
+        }
+        return candidates;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.aeye.app.deploy.service;
+
+import com.aeye.app.deploy.util.LogLineIndex;
+import com.aeye.app.deploy.util.LogSegmentFiles;
+import com.aeye.app.deploy.util.LogTimeIndex;
+import com.aeye.app.deploy.util.LogTokenIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * 日志搜索服务
+ * <p>
+ * 分段封存后在后台低优先级线程中建立倒排索引（{@link LogTokenIndex}），
+ * 按词元搜索时已建立索引的分段直接查倒排列表，再通过行索引定位读取命中的行；
+ * 正在写入或尚未建立索引的分段退化为顺序扫描。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Service
+public class LogSearchService implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogSearchService.class);
+
+    /** 缓存的索引读取器数量 */
+    private static final int READER_CACHE_SIZE = 256;
+
+    @Autowired
+    private LogSegmentRegistry segmentRegistry;
+
+    /** 待建立索引的分段 */
+    private final BlockingQueue<File> indexQueue = new LinkedBlockingQueue<>();
+
+    /** 已入队的分段（去重） */
+    private final Set<File> queued = ConcurrentHashMap.newKeySet();
+
+    /** 索引读取器缓存（按访问顺序淘汰） */
+    private final Map<File, LogTokenIndex.Reader> readerCache = new LinkedHashMap<File, LogTokenIndex.Reader>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, LogTokenIndex.Reader> eldest) {
+            return size() > READER_CACHE_SIZE;
+        }
+    };
+
+    private ExecutorService indexExecutor;
+
+    private ScheduledExecutorService scanScheduler;
+
+    @Override
+    public void run(String... args) {
+        indexExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "log-token-indexer");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        indexExecutor.submit(this::processIndexQueue);
+
+        // 补建遗留分段的索引
+        scanScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-token-index-scanner");
+            t.setDaemon(true);
+            return t;
+        });
+        scanScheduler.scheduleWithFixedDelay(this::scanUnindexedSegments, 2, 30, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 提交已封存的分段建立索引
+     *
+     * @param segment 分段文件
+     */
+    public void submit(File segment) {
+        if (segment == null) {
+            return;
+        }
+        File key = new File(segment.getParentFile(), LogSegmentFiles.baseName(segment.getName())).getAbsoluteFile();
+        if (queued.add(key)) {
+            indexQueue.offer(key);
+        }
+    }
+
+    private void scanUnindexedSegments() {
+        try {
+            for (List<LogSegmentRegistry.Segment> segments : segmentRegistry.snapshot().values()) {
+                for (LogSegmentRegistry.Segment segment : segments) {
+                    File file = segment.getFile();
+                    if (file != null && !segmentRegistry.isActive(file) && !LogTokenIndex.indexFile(file).exists()) {
+                        submit(file);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("扫描未建立索引的日志分段失败", e);
+        }
+    }
+
+    private void processIndexQueue() {
+        while (!Thread.currentThread().isInterrupted()) {
+            File key = null;
+            try {
+                key = indexQueue.poll(1, TimeUnit.SECONDS);
+                if (key == null) {
+                    continue;
+                }
+                buildIndex(key);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("建立日志分段索引失败: {}", key, e);
+            } finally {
+                if (key != null) {
+                    queued.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 建立分段索引（分段可能已被压缩）
+     *
+     * @param key 分段路径（不含后缀）
+     */
+    private void buildIndex(File key) throws IOException {
+        File segment = new File(key.getPath() + LogSegmentFiles.LOG_SUFFIX);
+        if (!segment.exists()) {
+            segment = new File(key.getPath() + LogSegmentFiles.GZIP_SUFFIX);
+        }
+        if (!segment.exists() || segmentRegistry.isActive(segment)) {
+            return;
+        }
+        File indexFile = LogTokenIndex.indexFile(segment);
+        if (indexFile.exists() && indexFile.lastModified() >= segment.lastModified()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int tokens = LogTokenIndex.build(segment);
+        logger.debug("日志分段索引已建立: {}，{} 个词元，耗时 {}ms", segment.getName(), tokens,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按词元搜索应用日志
+     * 查询中的所有词元（字母、数字和 _-.$ 组成，长度不少于3，不区分大小写）都出现的行才会命中，
+     * 从最新的分段开始搜索，达到条数上限后停止。
+     *
+     * @param appDir   应用日志目录名
+     * @param query    查询字符串
+     * @param fileName 只搜索指定分段（可选）
+     * @param limit    最大返回条数
+     * @return 命中的行及搜索统计
+     */
+    public Map<String, Object> search(String appDir, String query, String fileName, int limit) throws IOException {
+        long start = System.currentTimeMillis();
+        Set<String> tokens = LogTokenIndex.tokenize(query);
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("查询需要至少包含一个长度不少于3的词元");
+        }
+
+        List<LogSegmentRegistry.Segment> segments = segmentRegistry.snapshot()
+                .getOrDefault(appDir, Collections.emptyList()).stream()
+                .filter(s -> s.getFile() != null)
+                .filter(s -> fileName == null || fileName.isEmpty()
+                        || LogSegmentFiles.baseName(fileName).equals(s.getBaseName()))
+                .sorted(Comparator.comparingLong(LogSegmentRegistry.Segment::getLastModified).reversed())
+                .collect(Collectors.toList());
+
+        List<Map<String, Object>> matches = new ArrayList<>();
+        int indexedSegments = 0;
+        int scannedSegments = 0;
+        for (LogSegmentRegistry.Segment segment : segments) {
+            if (matches.size() >= limit) {
+                break;
+            }
+            File file = segment.getFile();
+            if (!file.exists()) {
+                continue;
+            }
+            LogTokenIndex.Reader reader = segmentRegistry.isActive(file) ? null : getReader(file);
+            if (reader != null) {
+                indexedSegments++;
+                searchIndexed(file, reader, tokens, limit, matches);
+            } else {
+                scannedSegments++;
+                searchScan(file, tokens, limit, matches);
+                if (!segmentRegistry.isActive(file)) {
+                    submit(file);
+                }
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("tokens", tokens);
+        result.put("matches", matches);
+        result.put("count", matches.size());
+        result.put("truncated", matches.size() >= limit);
+        result.put("indexedSegments", indexedSegments);
+        result.put("scannedSegments", scannedSegments);
+        result.put("tookMs", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * 通过倒排索引搜索分段，稀疏的命中行逐个经行索引定位读取
+     */
+    private void searchIndexed(File file, LogTokenIndex.Reader reader, Set<String> tokens, int limit,
+            List<Map<String, Object>> matches) throws IOException {
+        List<int[]> lists = new ArrayList<>();
+        for (String token : tokens) {
+            int[] lines = reader.lookup(token);
+            if (lines.length == 0) {
+                return;
+            }
+            lists.add(lines);
+        }
+        int[] lines = LogTokenIndex.intersect(lists);
+        if (lines.length == 0) {
+            return;
+        }
+        // 命中行间隔不超过一个检查点间隔时顺序读过去比重新定位更快；没有成员索引的压缩分段定位需从头解压，始终顺序读取
+        long maxGap = LogSegmentFiles.isSeekable(file) ? LogLineIndex.INTERVAL : Long.MAX_VALUE;
+        LogLineIndex index = LogLineIndex.open(file);
+        int[] next = { 0 };
+        while (next[0] < lines.length && matches.size() < limit) {
+            int before = next[0];
+            index.scan(lines[next[0]], (line, offset, bytes, length) -> {
+                if (line != lines[next[0]]) {
+                    return true;
+                }
+                matches.add(toMatch(file, line, offset, bytes, length));
+                next[0]++;
+                return next[0] < lines.length && matches.size() < limit && lines[next[0]] - line <= maxGap;
+            });
+            // 命中行超出分段末尾（索引与分段不一致）时停止
+            if (next[0] == before) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 顺序扫描分段
+     */
+    private void searchScan(File file, Set<String> tokens, int limit, List<Map<String, Object>> matches)
+            throws IOException {
+        LogLineIndex.open(file, !segmentRegistry.isActive(file)).scan(0, (line, offset, bytes, length) -> {
+            if (LogTokenIndex.lineMatches(bytes, length, tokens)) {
+                matches.add(toMatch(file, line, offset, bytes, length));
+            }
+            return matches.size() < limit;
+        });
+    }
+
+    /**
+     * 按时间范围和最低级别查询应用日志
+     * 通过分段的时间索引（{@link LogTimeIndex}）定位，按时间先后返回，达到条数上限后停止。
+     * 分段最后修改时间早于起始时间的直接跳过，没有时间索引的分段不参与查询。
+     *
+     * @param appDir   应用日志目录名
+     * @param from     起始时间（毫秒，含）
+     * @param to       结束时间（毫秒，含）
+     * @param minLevel 最低级别（可选，TRACE/DEBUG/INFO/WARN/ERROR）
+     * @param fileName 只查询指定分段（可选）
+     * @param limit    最大返回条数
+     * @return 命中的行及查询统计
+     */
+    public Map<String, Object> searchTimeRange(String appDir, long from, long to, String minLevel, String fileName,
+            int limit) throws IOException {
+        long start = System.currentTimeMillis();
+        int minLevelCode = LogTimeIndex.levelCode(minLevel);
+        if (minLevel != null && !minLevel.isEmpty() && minLevelCode == LogTimeIndex.LEVEL_UNKNOWN) {
+            throw new IllegalArgumentException("不支持的日志级别: " + minLevel);
+        }
+
+        List<LogSegmentRegistry.Segment> segments = segmentRegistry.snapshot()
+                .getOrDefault(appDir, Collections.emptyList()).stream()
+                .filter(s -> s.getFile() != null && s.getLastModified() >= from)
+                .filter(s -> fileName == null || fileName.isEmpty()
+                        || LogSegmentFiles.baseName(fileName).equals(s.getBaseName()))
+                .sorted(Comparator.comparingLong(LogSegmentRegistry.Segment::getLastModified))
+                .collect(Collectors.toList());
+
+        List<Map<String, Object>> matches = new ArrayList<>();
+        int searchedSegments = 0;
+        int unindexedSegments = 0;
+        for (LogSegmentRegistry.Segment segment : segments) {
+            if (matches.size() >= limit) {
+                break;
+            }
+            File file = segment.getFile();
+            if (!file.exists()) {
+                continue;
+            }
+            LogTimeIndex index = LogTimeIndex.open(file);
+            if (index == null) {
+                unindexedSegments++;
+                continue;
+            }
+            long[] range = index.timeRange();
+            if (range == null || range[0] > to || range[1] < from) {
+                continue;
+            }
+            searchedSegments++;
+            index.query(from, to, minLevelCode, (line, offset, time, level, bytes, length) -> {
+                Map<String, Object> match = toMatch(file, line, offset, bytes, length);
+                match.put("time", time);
+                match.put("level", LogTimeIndex.levelName(level));
+                matches.add(match);
+                return matches.size() < limit;
+            });
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("matches", matches);
+        result.put("count", matches.size());
+        result.put("truncated", matches.size() >= limit);
+        result.put("searchedSegments", searchedSegments);
+        result.put("unindexedSegments", unindexedSegments);
+        result.put("tookMs", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private Map<String, Object> toMatch(File file, long line, long offset, byte[] bytes, int length) {
+        Map<String, Object> match = new LinkedHashMap<>();
+        match.put("fileName", file.getName());
+        match.put("line", line);
+        match.put("offset", offset);
+        match.put("content", new String(bytes, 0, length, StandardCharsets.UTF_8));
+        return match;
+    }
+
+    /**
+     * 获取分段的索引读取器，索引不存在或早于分段最后修改时间时返回null
+     */
+    private LogTokenIndex.Reader getReader(File segment) throws IOException {
+        File indexFile = LogTokenIndex.indexFile(segment);
+        if (indexFile.lastModified() < segment.lastModified()) {
+            return null;
+        }
+        synchronized (readerCache) {
+            LogTokenIndex.Reader reader = readerCache.get(indexFile);
+            if (reader != null && !reader.isStale()) {
+                return reader;
+            }
+        }
+        LogTokenIndex.Reader reader = LogTokenIndex.Reader.open(indexFile);
+        if (reader != null) {
+            synchronized (readerCache) {
+                readerCache.put(indexFile, reader);
+            }
+        }
+        return reader;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scanScheduler != null) {
+            scanScheduler.shutdownNow();
+        }
+        if (indexExecutor != null) {
+            indexExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.aeye.app.deploy.service;
+
+import com.aeye.app.deploy.config.DirectoryConfig;
+import com.aeye.app.deploy.util.LogSegmentFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 日志分段登记表
+ * <p>
+ * 记录每个应用当前正在写入的日志分段。文件写入服务在打开分段时登记，
+ * 压缩、清理等后台任务只处理未被登记的（已封存的）分段。登记和封存互斥，
+ * 保证分段不会在被压缩或删除的同时重新打开写入。
+ * <p>
+ * 同时维护日志目录的内存索引（按应用目录分组的分段及其大小）：首次使用时扫描一次日志目录，
+ * 之后由写入、压缩和删除操作增量更新，清理策略据此计算而不必反复扫描目录。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Component
+public class LogSegmentRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogSegmentRegistry.class);
+
+    /** 分段附属索引文件所在的子目录（logs/&lt;app&gt;/.idx） */
+    public static final String SIDECAR_DIR = ".idx";
+
+    /** 封存动作 */
+    @FunctionalInterface
+    public interface SealAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * 分段信息
+     * 文件名格式: appDir_version_x-y.log[.gz]
+     */
+    public static class Segment {
+        /** 应用日志目录名 */
+        private final String appDir;
+        /** 分段文件名去掉后缀的部分 */
+        private final String baseName;
+        private final String version;
+        private final int runCount;
+        private final int fileSeq;
+        private volatile File file;
+        private volatile long size;
+        private volatile long lastModified;
+
+        Segment(String appDir, String baseName, String version, int runCount, int fileSeq) {
+            this.appDir = appDir;
+            this.baseName = baseName;
+            this.version = version;
+            this.runCount = runCount;
+            this.fileSeq = fileSeq;
+        }
+
+        public String getAppDir() { return appDir; }
+        public String getBaseName() { return baseName; }
+        public String getVersion() { return version; }
+        public int getRunCount() { return runCount; }
+        public int getFileSeq() { return fileSeq; }
+        public File getFile() { return file; }
+        /** 磁盘占用大小（压缩后为压缩文件大小） */
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+    }
+
+    @Autowired
+    private DirectoryConfig directoryConfig;
+
+    /** 正在写入的分段：key = appCode */
+    private final Map<String, File> activeSegments = new ConcurrentHashMap<>();
+
+    /** 分段索引：key = 应用目录名，value = (分段基本名 -> 分段信息) */
+    private final Map<String, Map<String, Segment>> segments = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    /**
+     * 登记应用正在写入的分段
+     *
+     * @param appCode 应用编码
+     * @param file    分段文件
+     * @return 分段已被封存（存在压缩文件）时返回false，调用方应改用下一个分段
+     */
+    public synchronized boolean activate(String appCode, File file) {
+        if (LogSegmentFiles.compressedFile(file).exists()) {
+            return false;
+        }
+        activeSegments.put(appCode, file.getAbsoluteFile());
+        return true;
+    }
+
+    /**
+     * 取消应用的分段登记
+     *
+     * @param appCode 应用编码
+     * @return 之前登记的分段，没有时返回null
+     */
+    public synchronized File deactivate(String appCode) {
+        return activeSegments.remove(appCode);
+    }
+
+    /**
+     * 分段是否正在写入
+     */
+    public boolean isActive(File file) {
+        return activeSegments.containsValue(file.getAbsoluteFile());
+    }
+
+    /**
+     * 在分段未被写入时执行封存动作（与登记互斥）
+     *
+     * @param file   分段文件
+     * @param action 封存动作
+     * @return 分段正在写入时不执行并返回false
+     */
+    public synchronized boolean sealIfInactive(File file, SealAction action) throws IOException {
+        if (isActive(file)) {
+            return false;
+        }
+        action.run();
+        return true;
+    }
+
+    /**
+     * 记录分段写入后的大小
+     */
+    public void onSegmentWritten(File file, long size) {
+        Segment segment = getOrCreate(file);
+        if (segment != null) {
+            segment.file = file;
+            segment.size = size;
+            segment.lastModified = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 记录分段被压缩（原文件已替换为压缩文件）
+     */
+    public void onSegmentCompressed(File compressed) {
+        Segment segment = getOrCreate(compressed);
+        if (segment != null) {
+            segment.file = compressed;
+            segment.size = compressed.length();
+            segment.lastModified = compressed.lastModified();
+        }
+    }
+
+    /**
+     * 记录分段被删除
+     */
+    public void onSegmentDeleted(File file) {
+        Map<String, Segment> appSegments = segments.get(file.getParentFile().getName());
+        if (appSegments != null) {
+            appSegments.remove(LogSegmentFiles.baseName(file.getName()));
+        }
+    }
+
+    /**
+     * 获取分段索引快照
+     *
+     * @return key = 应用目录名，value = 分段列表
+     */
+    public Map<String, List<Segment>> snapshot() {
+        ensureLoaded();
+        Map<String, List<Segment>> result = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Segment>> entry : segments.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                result.put(entry.getKey(), new ArrayList<>(entry.getValue().values()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取日志目录总占用（字节）
+     */
+    public long getTotalBytes() {
+        ensureLoaded();
+        long total = 0;
+        for (Map<String, Segment> appSegments : segments.values()) {
+            for (Segment segment : appSegments.values()) {
+                total += segment.size;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 首次使用时扫描日志目录建立索引
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (segments) {
+            if (loaded) {
+                return;
+            }
+            int count = 0;
+            File[] appDirs = new File(directoryConfig.getLogsDir()).listFiles(File::isDirectory);
+            if (appDirs != null) {
+                for (File dir : appDirs) {
+                    File[] files = dir.listFiles((d, name) -> LogSegmentFiles.isLogFile(name));
+                    if (files == null) {
+                        continue;
+                    }
+                    for (File file : files) {
+                        Segment segment = getOrCreate(file);
+                        if (segment != null && segment.file == null) {
+                            segment.file = file;
+                            segment.size = file.length();
+                            segment.lastModified = file.lastModified();
+                            count++;
+                        }
+                    }
+                }
+            }
+            loaded = true;
+            logger.info("日志分段索引已建立，共 {} 个分段", count);
+        }
+    }
+
+    /**
+     * 按文件名获取或创建分段信息，文件名不符合命名规则时返回null
+     */
+    private Segment getOrCreate(File file) {
+        String appDir = file.getParentFile().getName();
+        String baseName = LogSegmentFiles.baseName(file.getName());
+        Map<String, Segment> appSegments = segments.computeIfAbsent(appDir, k -> new ConcurrentHashMap<>());
+        Segment segment = appSegments.get(baseName);
+        if (segment != null) {
+            return segment;
+        }
+        // 解析 appDir_version_x-y
+        String prefix = appDir + "_";
+        int lastUnderscore = baseName.lastIndexOf('_');
+        if (!baseName.startsWith(prefix) || lastUnderscore < prefix.length()) {
+            return null;
+        }
+        String[] parts = baseName.substring(lastUnderscore + 1).split("-");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            segment = new Segment(appDir, baseName, baseName.substring(prefix.length(), lastUnderscore),
+                    Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Segment existing = appSegments.putIfAbsent(baseName, segment);
+        return existing != null ? existing : segment;
+    }
+}
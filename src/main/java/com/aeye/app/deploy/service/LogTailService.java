@@ -0,0 +1,569 @@
+package com.aeye.app.deploy.service;
+
+import com.aeye.app.deploy.model.AppLog;
+import com.aeye.app.deploy.util.LogRingBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 日志长轮询和SSE推送服务
+ * <p>
+ * 作为日志环形缓冲区的非门控消费者（与WebSocket推送相同），为不使用WebSocket的客户端提供：
+ * <ul>
+ *   <li>长轮询：增量读取没有新日志时以 {@link DeferredResult} 挂起请求，直到有序号大于 afterSeq 的日志或超时，
+ *       等待期间不占用请求线程</li>
+ *   <li>SSE：从指定序号开始持续推送，事件 id 为批次最后一条日志的序号，
+ *       EventSource 断线重连时通过 Last-Event-ID 从断点继续</li>
+ * </ul>
+ * 日志发布时只标记有新日志，由发送线程读取缓冲区并完成挂起的请求或发送事件。
+ * SSE 订阅按各自的序号从缓冲区读取，不在内存中为慢客户端排队：同一订阅同时只有一个发送任务，
+ * 落后超过缓冲区容量时跳过被覆盖的日志并发送 gap 事件。
+ * SSE 使用 Servlet 异步非阻塞输出（{@link WriteListener}），与长轮询共用少量发送线程：
+ * 连接不可写时发送任务直接返回，待容器回调可写后再继续，慢客户端不占用线程；
+ * 连续不可写超过 app.log.tail.send-time-limit-ms 时由看门狗结束该订阅（与WebSocket会话的发送超时相同）。
+ * 订阅在容器确认连接结束后才从订阅数中移除，已结束但连接尚未释放的订阅仍计入最大订阅数。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+@Service
+public class LogTailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogTailService.class);
+
+    /** 长轮询的最长等待时间（毫秒） */
+    @Value("${app.log.tail.max-wait-ms:30000}")
+    private long maxWaitMs;
+
+    /** 最大挂起的长轮询请求数，超过时立即返回 */
+    @Value("${app.log.tail.max-waiters:1000}")
+    private int maxWaiters;
+
+    /** 最大SSE订阅数 */
+    @Value("${app.log.tail.max-streams:200}")
+    private int maxStreams;
+
+    /** SSE连接超时时间（毫秒），超时后客户端自动重连 */
+    @Value("${app.log.tail.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs;
+
+    /** SSE心跳间隔（秒），用于发现已断开的客户端 */
+    @Value("${app.log.tail.heartbeat-seconds:15}")
+    private int heartbeatSeconds;
+
+    /** 长轮询和SSE发送线程数 */
+    @Value("${app.log.tail.sender-threads:2}")
+    private int senderThreads;
+
+    /** SSE连接连续不可写的时间上限（毫秒），超过时结束订阅 */
+    @Value("${app.log.tail.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    /** 单次SSE事件最大日志条数 */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /** SSE订阅每轮最多发送的事件数，之后让出发送线程 */
+    private static final int MAX_EVENTS_PER_TURN = 8;
+
+    /** SSE心跳（注释行） */
+    private static final byte[] HEARTBEAT = ":ping\n\n".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /** 按appCode的日志缓冲区 */
+    private final ConcurrentHashMap<String, LogRingBuffer> rings = new ConcurrentHashMap<>();
+
+    /** 按appCode分组的等待者（长轮询请求和SSE订阅） */
+    private final ConcurrentHashMap<String, Set<Tailer>> appTailers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger waiterCount = new AtomicInteger();
+
+    private final Set<SseStream> streams = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService senderExecutor;
+
+    private ScheduledExecutorService heartbeatScheduler;
+
+    /**
+     * 等待者：有新日志时提交到发送线程执行，同一等待者同时只有一个任务
+     */
+    private abstract class Tailer implements Runnable {
+        final String appCode;
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        Tailer(String appCode) {
+            this.appCode = appCode;
+        }
+
+        void signal() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    senderExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // 发送线程池已关闭（服务停止）
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean again;
+            try {
+                again = process();
+            } catch (Exception e) {
+                logger.warn("处理日志等待者异常: appCode={}", appCode, e);
+                again = false;
+            }
+            scheduled.set(false);
+            if (again || hasNewLogs()) {
+                // 本轮未处理完，或处理期间发布了新日志
+                signal();
+            }
+        }
+
+        LogRingBuffer ring() {
+            return rings.get(appCode);
+        }
+
+        /**
+         * @return 是否需要立即再次执行
+         */
+        abstract boolean process();
+
+        abstract boolean hasNewLogs();
+    }
+
+    /**
+     * 长轮询请求
+     */
+    private class LongPollWaiter<T> extends Tailer {
+        final long afterSeq;
+        final DeferredResult<T> deferred;
+        final Supplier<T> result;
+
+        LongPollWaiter(String appCode, long afterSeq, DeferredResult<T> deferred, Supplier<T> result) {
+            super(appCode);
+            this.afterSeq = afterSeq;
+            this.deferred = deferred;
+            this.result = result;
+        }
+
+        @Override
+        boolean process() {
+            if (!deferred.isSetOrExpired() && hasNewLogs()) {
+                deferred.setResult(result.get());
+            }
+            return false;
+        }
+
+        @Override
+        boolean hasNewLogs() {
+            LogRingBuffer ring = ring();
+            return !deferred.isSetOrExpired() && ring != null && ring.getLastSeq() > afterSeq;
+        }
+    }
+
+    /**
+     * SSE订阅
+     * 发送任务只在连接可写时写出事件，不可写时保留待发送的事件并返回，容器回调可写后重新调度
+     */
+    private class SseStream extends Tailer implements WriteListener, AsyncListener {
+        final AsyncContext asyncContext;
+        final ServletOutputStream out;
+        final long connectedAt = System.currentTimeMillis();
+        /** 已编码的最大序号（仅发送任务访问） */
+        volatile long cursor;
+        volatile boolean heartbeatDue;
+        volatile boolean closed;
+        /** 连接开始不可写的时间，可写时为0 */
+        volatile long blockedSince;
+        /** 已编码但尚未写出的事件（仅发送任务访问） */
+        private byte[] pending;
+        /** 是否有已写出但尚未刷新的数据（仅发送任务访问） */
+        private boolean unflushed;
+        volatile long sentEvents;
+        volatile long sentLines;
+        volatile long gapLines;
+
+        SseStream(String appCode, long afterSeq, AsyncContext asyncContext, ServletOutputStream out) {
+            super(appCode);
+            this.cursor = afterSeq;
+            this.asyncContext = asyncContext;
+            this.out = out;
+        }
+
+        @Override
+        boolean process() {
+            if (closed) {
+                return false;
+            }
+            int events = 0;
+            try {
+                while (events < MAX_EVENTS_PER_TURN) {
+                    if (pending == null) {
+                        pending = nextEvent();
+                        if (pending == null) {
+                            break;
+                        }
+                    }
+                    if (!writable()) {
+                        // 等待容器回调 onWritePossible
+                        return false;
+                    }
+                    out.write(pending);
+                    pending = null;
+                    unflushed = true;
+                    events++;
+                }
+                if (unflushed && writable()) {
+                    out.flush();
+                    unflushed = false;
+                }
+            } catch (Exception e) {
+                logger.debug("SSE发送失败，关闭订阅: appCode={}, {}", appCode, e.getMessage());
+                close();
+                return false;
+            }
+            return events >= MAX_EVENTS_PER_TURN;
+        }
+
+        /**
+         * 编码下一个事件（有被覆盖的日志时在日志事件前附带 gap 事件），没有日志且无需心跳时返回null
+         */
+        private byte[] nextEvent() throws IOException {
+            LogRingBuffer ring = ring();
+            List<AppLog> batch = ring != null ? ring.readAfter(cursor, MAX_BATCH_SIZE) : Collections.emptyList();
+            if (batch.isEmpty()) {
+                if (!heartbeatDue) {
+                    return null;
+                }
+                heartbeatDue = false;
+                return HEARTBEAT;
+            }
+            long firstSeq = batch.get(0).getSeq();
+            long lastSeq = batch.get(batch.size() - 1).getSeq();
+            StringBuilder event = new StringBuilder();
+            if (firstSeq > cursor + 1) {
+                // 推送落后，中间的日志已被覆盖
+                Map<String, Object> gap = new LinkedHashMap<>();
+                gap.put("from", cursor + 1);
+                gap.put("to", firstSeq - 1);
+                event.append("event:gap\ndata:").append(objectMapper.writeValueAsString(gap)).append("\n\n");
+                gapLines += firstSeq - 1 - cursor;
+            }
+            event.append("id:").append(lastSeq).append("\nevent:logs\ndata:")
+                    .append(objectMapper.writeValueAsString(batch)).append("\n\n");
+            cursor = lastSeq;
+            sentEvents++;
+            sentLines += batch.size();
+            heartbeatDue = false;
+            return event.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 连接是否可写，不可写时记录开始时间（先记录再检查，避免与 onWritePossible 交错时漏掉回调）
+         */
+        private boolean writable() {
+            if (blockedSince == 0) {
+                blockedSince = System.currentTimeMillis();
+            }
+            if (out.isReady()) {
+                blockedSince = 0;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean hasNewLogs() {
+            if (closed || blockedSince > 0) {
+                return false;
+            }
+            LogRingBuffer ring = ring();
+            return pending != null || unflushed || ring != null && ring.getLastSeq() > cursor;
+        }
+
+        @Override
+        public void onWritePossible() {
+            blockedSince = 0;
+            signal();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.debug("SSE连接异常，关闭订阅: appCode={}, {}", appCode, t.getMessage());
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+            // 容器已释放连接，不再计入订阅数
+            streams.remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        /**
+         * 结束订阅并结束异步请求，连接释放（onComplete）前仍计入订阅数
+         */
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            removeTailer(this);
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // 异步请求已结束
+            }
+        }
+
+        Map<String, Object> getStats(long now) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("appCode", appCode);
+            stats.put("cursor", cursor);
+            LogRingBuffer ring = ring();
+            stats.put("backlogLines", ring != null ? Math.max(0, ring.getLastSeq() - cursor) : 0);
+            stats.put("connectedMs", now - connectedAt);
+            stats.put("sentEvents", sentEvents);
+            stats.put("sentLines", sentLines);
+            stats.put("gapLines", gapLines);
+            long since = blockedSince;
+            stats.put("blockedMs", since > 0 ? now - since : 0);
+            stats.put("closed", closed);
+            return stats;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        senderExecutor = Executors.newFixedThreadPool(Math.max(1, senderThreads), r -> {
+            Thread t = new Thread(r, "log-tail-sender-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-tail-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, heartbeatSeconds);
+        heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.SECONDS);
+        heartbeatScheduler.scheduleWithFixedDelay(this::closeStalledStreams, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.shutdownNow();
+        }
+        for (SseStream stream : streams) {
+            stream.close();
+        }
+        if (senderExecutor != null) {
+            senderExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 注册应用的日志环形缓冲区
+     *
+     * @param appCode 应用编码
+     * @param ring    应用日志环形缓冲区
+     */
+    public void attach(String appCode, LogRingBuffer ring) {
+        rings.put(appCode, ring);
+    }
+
+    /**
+     * 日志发布通知
+     * 有等待者时提交到发送线程处理，无等待者时直接返回
+     *
+     * @param appCode 应用编码
+     */
+    public void onPublished(String appCode) {
+        Set<Tailer> tailers = appTailers.get(appCode);
+        if (tailers == null || tailers.isEmpty()) {
+            return;
+        }
+        for (Tailer tailer : tailers) {
+            tailer.signal();
+        }
+    }
+
+    /**
+     * 挂起长轮询请求，直到有序号大于 afterSeq 的日志或等待超时
+     * 超过最大挂起数时立即返回当前结果
+     *
+     * @param appCode  应用编码
+     * @param afterSeq 客户端已有的最大序号
+     * @param waitMs   等待时间（毫秒），不超过 app.log.tail.max-wait-ms
+     * @param result   结果生成方法（有新日志或超时时在发送线程/容器线程中调用）
+     * @return 异步结果
+     */
+    public <T> DeferredResult<T> await(String appCode, long afterSeq, long waitMs, Supplier<T> result) {
+        long timeout = Math.max(1, Math.min(waitMs, maxWaitMs));
+        DeferredResult<T> deferred = new DeferredResult<>(timeout);
+        if (waiterCount.incrementAndGet() > maxWaiters) {
+            waiterCount.decrementAndGet();
+            logger.debug("长轮询挂起数已达上限 {}，立即返回: appCode={}", maxWaiters, appCode);
+            deferred.setResult(result.get());
+            return deferred;
+        }
+        LongPollWaiter<T> waiter = new LongPollWaiter<>(appCode, afterSeq, deferred, result);
+        deferred.onTimeout(() -> deferred.setResult(result.get()));
+        deferred.onCompletion(() -> {
+            if (removeTailer(waiter)) {
+                waiterCount.decrementAndGet();
+            }
+        });
+        addTailer(waiter);
+        // 检查与挂起之间发布的日志
+        if (waiter.hasNewLogs()) {
+            waiter.signal();
+        }
+        return deferred;
+    }
+
+    /**
+     * 创建SSE订阅，推送序号大于 afterSeq 的日志
+     * 在当前请求上开启异步处理并注册非阻塞输出，超过最大订阅数时不开启异步处理
+     *
+     * @param appCode  应用编码
+     * @param afterSeq 客户端已有的最大序号，为空时只推送之后的新日志
+     * @param request  SSE请求
+     * @param response SSE响应
+     * @return 是否已创建订阅，超过最大订阅数时返回false
+     * @throws IOException 获取响应输出流失败
+     */
+    public boolean openStream(String appCode, Long afterSeq, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        if (streams.size() >= maxStreams) {
+            logger.warn("SSE订阅数已达上限 {}，拒绝订阅: appCode={}", maxStreams, appCode);
+            return false;
+        }
+        LogRingBuffer ring = rings.get(appCode);
+        long from = afterSeq != null ? afterSeq : ring != null ? ring.getLastSeq() : 0;
+        if (ring != null && from > ring.getLastSeq()) {
+            // 客户端序号大于服务端（服务重启后序号重新开始），从缓冲区现有日志开始
+            from = 0;
+        }
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-cache");
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(sseTimeoutMs);
+        SseStream stream = new SseStream(appCode, from, asyncContext, response.getOutputStream());
+        asyncContext.addListener(stream);
+        streams.add(stream);
+        addTailer(stream);
+        // 发送积压的日志（至少发送一次，让客户端尽快收到响应头），由容器回调可写后开始
+        stream.heartbeatDue = true;
+        stream.out.setWriteListener(stream);
+        return true;
+    }
+
+    private void addTailer(Tailer tailer) {
+        appTailers.computeIfAbsent(tailer.appCode, k -> ConcurrentHashMap.newKeySet()).add(tailer);
+    }
+
+    private boolean removeTailer(Tailer tailer) {
+        Set<Tailer> tailers = appTailers.get(tailer.appCode);
+        if (tailers == null || !tailers.remove(tailer)) {
+            return false;
+        }
+        if (tailers.isEmpty()) {
+            appTailers.remove(tailer.appCode, tailers);
+        }
+        return true;
+    }
+
+    /**
+     * 定时向空闲的SSE订阅发送心跳
+     */
+    private void heartbeat() {
+        for (SseStream stream : streams) {
+            if (!stream.closed) {
+                stream.heartbeatDue = true;
+                stream.signal();
+            }
+        }
+    }
+
+    /**
+     * 结束连续不可写超过时间上限的SSE订阅
+     * 发送不阻塞线程，结束后连接由容器释放，释放前仍计入订阅数
+     */
+    private void closeStalledStreams() {
+        long now = System.currentTimeMillis();
+        for (SseStream stream : streams) {
+            long since = stream.blockedSince;
+            if (!stream.closed && since > 0 && now - since > sendTimeLimitMs) {
+                logger.warn("SSE连接不可写超时，结束订阅: appCode={}, 已等待{}ms", stream.appCode, now - since);
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * 获取长轮询和SSE统计
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("waiters", waiterCount.get());
+        result.put("maxWaiters", maxWaiters);
+        result.put("maxWaitMs", maxWaitMs);
+        List<Map<String, Object>> streamStats = new ArrayList<>();
+        for (SseStream stream : streams) {
+            streamStats.add(stream.getStats(now));
+        }
+        result.put("streams", streamStats.size());
+        result.put("maxStreams", maxStreams);
+        result.put("sendTimeLimitMs", sendTimeLimitMs);
+        result.put("streamDetails", streamStats);
+        return result;
+    }
+}
@@ -1,6 +1,9 @@
 package com.aeye.app.deploy.service;
 
 import com.aeye.app.deploy.model.AppLog;
+import com.aeye.app.deploy.util.LogFrameEncoder;
+import com.aeye.app.deploy.util.LogRingBuffer;
+import com.aeye.app.deploy.util.LogStreamFilter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
@@ -8,175 +11,919 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.Session;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLDecoder;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 日志WebSocket处理器
  * 管理客户端连接，按appCode订阅推送日志
+ * <p>
+ * 作为日志环形缓冲区的非门控消费者：每个应用维护一个推送序号，日志发布时只标记应用待推送，
+ * 推送线程按序号从缓冲区批量读取日志推送。推送落后超过缓冲区容量时跳过被覆盖的日志，
+ * 不会阻塞日志写入方。
+ * <p>
+ * 推送按 appCode 分片到固定数量的推送通道（app.websocket.push-lanes），每个通道一个线程，
+ * 同一应用总在同一通道推送，批次严格按序号顺序入队。应用自身的环形缓冲区即其有界队列；
+ * 通道内按差额轮询（deficit round-robin）调度各应用：每轮给应用 lane-quantum-lines 行的额度，
+ * 额度用完仍有积压时排到通道队尾，日志量大的应用不会饿死同通道的其他应用。
+ * 各应用的积压行数、推送和被覆盖（丢弃）计数见 {@link #getStats()}。
+ * <p>
+ * 每个会话有独立的有界发送队列：推送线程只把序列化好的批次放入各会话队列，不直接写网络；
+ * 会话发送线程从队列取出批次后通过容器的异步发送（JSR-356 RemoteEndpoint.Async）提交，不等待写完即返回，
+ * 发送完成回调后再调度该会话的下一个批次，同一会话同时只有一个批次在发送，发送线程不会阻塞在任何一个连接上。
+ * 队列满时按溢出策略处理：
+ * <ul>
+ *   <li>drop-oldest：丢弃最旧的批次</li>
+ *   <li>coalesce：丢弃最旧的批次，并在之后补发一条"已跳过N行"的提示</li>
+ *   <li>disconnect：断开该会话</li>
+ * </ul>
+ * 单次发送超过时间上限的会话会被断开（异步发送超时由容器报告，看门狗兜底），慢客户端只会积压自己的队列。
+ * <p>
+ * 客户端连接时通过 codec 参数选择编码格式（json/compact/binary，见 {@link LogFrameEncoder}），
+ * 每个批次按订阅会话用到的格式各编码一次，编码结果由同格式的会话共享；
+ * 客户端协商 permessage-deflate 时由容器压缩（可通过 app.websocket.permessage-deflate 关闭）。
+ * <p>
+ * 断线续传：客户端连接时携带 lastSeq 和 epoch 参数，或连接后发送 {"type":"subscribe","lastSeq":N,"epoch":E}，
+ * 处理器在推送锁内从环形缓冲区补发 lastSeq 之后的日志，再加入实时推送，补发和实时推送之间不丢失、不重复
+ * （重新订阅时正在发送的批次可能重复一次，客户端按序号去重）。
+ * 序号在服务重启后从1开始，客户端同时携带序号纪元 epoch（{@link LogRingBuffer#EPOCH}，见增量读取接口、
+ * 订阅确认和重置通知），纪元不一致时（包括应用在重启后尚未产生日志）先发送 reset 的 gap 通知，再从缓冲区现有日志补发。
+ * 请求的范围已被覆盖或清空时先发送 gap 通知（from/to 为缺失的序号范围）；实时推送落后被覆盖时同样发送 gap 通知。
+ * <p>
+ * 订阅过滤：握手参数 minLevel、include、exclude、maxRate，或连接后发送
+ * {"type":"filter","minLevel":"WARN","include":"..","exclude":"..","maxRate":N}（见 {@link LogStreamFilter}）。
+ * 过滤在编码之前进行，被过滤的日志不会被序列化；条件相同的会话共享过滤和编码结果，限流的会话单独编码。
+ * 过滤条件无效时握手连接以 BAD_DATA 关闭，控制消息则回复 error 通知。
+ * <p>
+ * 多应用订阅：一个连接可以订阅多个应用，握手参数 appCode 为可选的首个订阅，之后通过控制消息增减：
+ * <pre>
+ *   {"type":"subscribe","appCode":"X","lastSeq":N,"epoch":E,"minLevel":..,"include":..,"exclude":..,"maxRate":..}
+ *   {"type":"unsubscribe","appCode":"X"}
+ *   {"type":"filter","appCode":"X",...}（省略 appCode 时作用于连接的所有订阅）
+ * </pre>
+ * 每个订阅独立维护推送序号、过滤条件和补发，日志帧均带有应用编码（json 格式为 AppLog.appCode，
+ * compact/binary 为 app 字段）；compact/binary 连接在订阅和退订后收到 subscribed/unsubscribed 确认。
+ * 连接数按连接计数，与订阅数无关，单个连接的订阅数由 app.websocket.max-subscriptions 限制。
  */
 @Component
 public class LogWebSocketHandler extends TextWebSocketHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(LogWebSocketHandler.class);
-    
+
     /** JSON序列化器（线程安全，复用实例） */
     private final ObjectMapper objectMapper;
-    
+
+    /** 日志帧编码器 */
+    private final LogFrameEncoder frameEncoder;
+
     /** 最大WebSocket连接数 */
     @Value("${app.websocket.max-connections:100}")
     private int maxConnections;
 
-    /** 按appCode分组的会话集合 */
-    private final ConcurrentHashMap<String, Set<WebSocketSession>> appSessions = new ConcurrentHashMap<>();
-    
-    /** 异步消息发送队列 */
-    private final BlockingQueue<LogMessage> messageQueue = new LinkedBlockingQueue<>(10000);
-    
-    /** 消息发送线程池 */
-    private ExecutorService senderExecutor;
-    
+    /** 单个会话发送队列的最大批次数 */
+    @Value("${app.websocket.session-queue-size:64}")
+    private int sessionQueueSize;
+
+    /** 单个会话发送队列的最大字节数（KB） */
+    @Value("${app.websocket.session-queue-kb:4096}")
+    private int sessionQueueKb;
+
+    /** 发送队列溢出策略：drop-oldest、coalesce、disconnect */
+    @Value("${app.websocket.overflow-policy:coalesce}")
+    private String overflowPolicyName;
+
+    /** 单次发送的时间上限（毫秒），超过时断开会话 */
+    @Value("${app.websocket.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    /** 会话发送线程数（只负责取出批次并提交异步发送，不等待网络写完） */
+    @Value("${app.websocket.sender-threads:4}")
+    private int senderThreads;
+
+    /** 推送通道数（每个通道一个线程，应用按 appCode 固定分配到通道） */
+    @Value("${app.websocket.push-lanes:2}")
+    private int pushLanes;
+
+    /** 推送通道每轮给单个应用的行数额度 */
+    @Value("${app.websocket.lane-quantum-lines:2000}")
+    private int laneQuantumLines;
+
+    /** 单个连接的最大订阅数 */
+    @Value("${app.websocket.max-subscriptions:50}")
+    private int maxSubscriptions;
+
+    /** 按appCode分组的订阅集合 */
+    private final ConcurrentHashMap<String, Set<Subscription>> appSubscriptions = new ConcurrentHashMap<>();
+
+    /** 已注册的会话（按会话ID） */
+    private final ConcurrentHashMap<String, ClientSession> clients = new ConcurrentHashMap<>();
+
+    /** 按appCode分组的推送流（数据源和推送序号） */
+    private final ConcurrentHashMap<String, AppLogStream> appStreams = new ConcurrentHashMap<>();
+
+    /** 推送通道 */
+    private PushLane[] lanes;
+
+    /** 单批次最大推送条数 */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /** 推送通道线程池 */
+    private ExecutorService laneExecutor;
+
+    /** 会话发送线程池 */
+    private ExecutorService sessionExecutor;
+
+    /** 发送超时检查调度器 */
+    private ScheduledExecutorService watchdog;
+
+    private OverflowPolicy overflowPolicy;
+
     /** 当前连接总数 */
-    private final java.util.concurrent.atomic.AtomicInteger connectionCount = new java.util.concurrent.atomic.AtomicInteger(0);
-    
-    /** 内部消息封装类 */
-    /** 内部消息封装类 */
-    private static class LogMessage {
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+
+    /** 发送队列溢出策略 */
+    enum OverflowPolicy {
+        DROP_OLDEST, COALESCE, DISCONNECT;
+
+        static OverflowPolicy of(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            logger.warn("未知的WebSocket发送队列溢出策略: {}，使用coalesce", name);
+            return COALESCE;
+        }
+    }
+
+    /** 应用推送流内部类 */
+    private static class AppLogStream {
         final String appCode;
-        final AppLog log;
-        
-        LogMessage(String appCode, AppLog log) {
+        /** 数据源：应用日志环形缓冲区 */
+        final LogRingBuffer ring;
+        /** 已推送的最大序号（仅在持有drainLock时修改） */
+        long cursor;
+        /** 是否已在推送通道队列中 */
+        final AtomicBoolean queued = new AtomicBoolean(false);
+        /** 推送锁，推送与订阅补发互斥 */
+        final Object drainLock = new Object();
+        /** 本轮剩余的行数额度（在持有drainLock时访问） */
+        long deficit;
+
+        // 统计（在持有drainLock时修改）
+        volatile long pushedBatches;
+        volatile long pushedLines;
+        volatile long gapEvents;
+        volatile long gapLines;
+        /** 额度用完仍有积压、让出通道的次数 */
+        volatile long yields;
+
+        AppLogStream(String appCode, LogRingBuffer ring) {
             this.appCode = appCode;
-            this.log = log;
+            this.ring = ring;
+            this.cursor = ring.getLastSeq();
+        }
+    }
+
+    /** 待发送的批次 */
+    private static class Outbound {
+        final String appCode;
+        final WebSocketMessage<?> message;
+        final int lines;
+        final long enqueueTime;
+
+        Outbound(String appCode, WebSocketMessage<?> message, int lines, long enqueueTime) {
+            this.appCode = appCode;
+            this.message = message;
+            this.lines = lines;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    /** 连接对单个应用的订阅 */
+    private static class Subscription {
+        final ClientSession client;
+        final String appCode;
+        /** 订阅过滤器（控制消息整体替换，由推送线程在持有推送锁时使用） */
+        volatile LogStreamFilter filter = LogStreamFilter.NONE;
+        /** 已处理到的最大序号（含被过滤的日志，在持有推送锁时修改） */
+        volatile long lastSeq;
+        long replayedLines;
+
+        Subscription(ClientSession client, String appCode) {
+            this.client = client;
+            this.appCode = appCode;
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("appCode", appCode);
+            stats.put("lastSeq", lastSeq);
+            stats.put("replayedLines", replayedLines);
+            LogStreamFilter current = filter;
+            if (!current.isPassAll()) {
+                stats.put("filter", current.describe());
+            }
+            return stats;
+        }
+    }
+
+    /** 连接及其发送队列（队列和计数在持有会话锁时访问），一个连接可有多个应用订阅 */
+    private class ClientSession implements Runnable {
+        final WebSocketSession session;
+        final LogFrameEncoder.Codec codec;
+        /** 按appCode的订阅 */
+        final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+        final long connectedAt = System.currentTimeMillis();
+        final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+        long queuedBytes;
+        /** 是否已提交发送任务 */
+        boolean scheduled;
+        /** 按应用待补发提示的跳过行数 */
+        final Map<String, Long> pendingSkippedLines = new LinkedHashMap<>();
+        /** 容器的异步发送端点（非JSR-356会话为null，回退为阻塞发送） */
+        final RemoteEndpoint.Async async;
+        /** 当前发送开始时间（0表示未在发送） */
+        volatile long sendingSince;
+        boolean closing;
+
+        long sentMessages;
+        long sentLines;
+        long sentBytes;
+        long droppedMessages;
+        long droppedLines;
+        int maxQueued;
+        long lastSendTime;
+
+        ClientSession(WebSocketSession session, LogFrameEncoder.Codec codec) {
+            this.session = session;
+            this.codec = codec;
+            Session nativeSession = session instanceof NativeWebSocketSession
+                    ? ((NativeWebSocketSession) session).getNativeSession(Session.class) : null;
+            this.async = nativeSession != null ? nativeSession.getAsyncRemote() : null;
+            if (async != null) {
+                async.setSendTimeout(sendTimeLimitMs);
+            }
+        }
+
+        /**
+         * 放入发送队列（不阻塞），需要时提交发送任务
+         *
+         * @param appCode 批次所属应用（溢出时按应用汇总跳过行数）
+         */
+        void enqueue(String appCode, WebSocketMessage<?> message, int lines) {
+            if (message == null) {
+                return;
+            }
+            boolean disconnect = false;
+            synchronized (this) {
+                if (closing) {
+                    return;
+                }
+                long limitBytes = (long) sessionQueueKb * 1024;
+                while (!queue.isEmpty() && (queue.size() >= sessionQueueSize
+                        || queuedBytes + message.getPayloadLength() > limitBytes)) {
+                    if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                        disconnect = true;
+                        closing = true;
+                        break;
+                    }
+                    Outbound dropped = queue.pollFirst();
+                    queuedBytes -= dropped.message.getPayloadLength();
+                    droppedMessages++;
+                    droppedLines += dropped.lines;
+                    if (overflowPolicy == OverflowPolicy.COALESCE && dropped.lines > 0) {
+                        pendingSkippedLines.merge(dropped.appCode, (long) dropped.lines, Long::sum);
+                    }
+                }
+                if (!disconnect) {
+                    queue.addLast(new Outbound(appCode, message, lines, System.currentTimeMillis()));
+                    queuedBytes += message.getPayloadLength();
+                    maxQueued = Math.max(maxQueued, queue.size());
+                    if (!scheduled) {
+                        scheduled = true;
+                        schedule();
+                    }
+                }
+            }
+            if (disconnect) {
+                logger.warn("WebSocket会话发送队列已满，断开连接: sessionId={}, 订阅: {}",
+                        session.getId(), subscriptions.keySet());
+                close(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        }
+
+        /**
+         * 取出下一个批次并提交发送（同一会话同时只有一个批次在发送）
+         * 异步发送时提交后立即返回，发送完成回调中再调度下一个批次
+         */
+        @Override
+        public void run() {
+            WebSocketMessage<?> message = null;
+            int lines = 0;
+            while (message == null) {
+                synchronized (this) {
+                    if (closing || !session.isOpen()) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (!pendingSkippedLines.isEmpty()) {
+                        Iterator<Map.Entry<String, Long>> it = pendingSkippedLines.entrySet().iterator();
+                        Map.Entry<String, Long> skipped = it.next();
+                        it.remove();
+                        message = skippedMarker(codec, skipped.getKey(), skipped.getValue());
+                        lines = 0;
+                    } else {
+                        Outbound next = queue.pollFirst();
+                        if (next == null) {
+                            scheduled = false;
+                            return;
+                        }
+                        queuedBytes -= next.message.getPayloadLength();
+                        message = next.message;
+                        lines = next.lines;
+                    }
+                }
+            }
+            sendingSince = System.currentTimeMillis();
+            if (async != null) {
+                WebSocketMessage<?> sending = message;
+                int sendingLines = lines;
+                SendHandler handler = result -> onSent(sending, sendingLines,
+                        result.isOK() ? null : result.getException());
+                try {
+                    if (message instanceof BinaryMessage) {
+                        // 共享的二进制帧按会话创建独立的读取位置，不复制内容
+                        async.sendBinary(((BinaryMessage) message).getPayload().duplicate(), handler);
+                    } else {
+                        async.sendText(((TextMessage) message).getPayload(), handler);
+                    }
+                } catch (Exception e) {
+                    onSent(message, lines, e);
+                }
+                return;
+            }
+            Exception error = null;
+            try {
+                if (message instanceof BinaryMessage) {
+                    session.sendMessage(new BinaryMessage(((BinaryMessage) message).getPayload().duplicate(), true));
+                } else {
+                    session.sendMessage(message);
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+            onSent(message, lines, error);
+        }
+
+        /**
+         * 批次发送完成（异步发送时在容器线程中回调），成功时调度下一个批次
+         */
+        private void onSent(WebSocketMessage<?> message, int lines, Throwable error) {
+            long now = System.currentTimeMillis();
+            sendingSince = 0;
+            if (error != null) {
+                boolean closed;
+                synchronized (this) {
+                    scheduled = false;
+                    closed = closing;
+                }
+                // 看门狗或溢出策略已断开的会话，挂起的发送以失败回调，不再重复处理
+                if (!closed) {
+                    logger.warn("推送日志失败，移除会话: sessionId={}, {}", session.getId(), error.getMessage());
+                    close(CloseStatus.SERVER_ERROR);
+                }
+                return;
+            }
+            synchronized (this) {
+                sentMessages++;
+                sentLines += lines;
+                sentBytes += message.getPayloadLength();
+                lastSendTime = now;
+            }
+            // 回到发送线程取下一个批次，不占用容器的回调线程
+            schedule();
+        }
+
+        /**
+         * 提交发送任务，线程池已关闭时清除调度标记
+         */
+        private void schedule() {
+            try {
+                sessionExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    scheduled = false;
+                }
+            }
+        }
+
+        /**
+         * 移除队列中指定应用尚未发送的批次（重新订阅或退订时）
+         */
+        synchronized void purge(String appCode) {
+            Iterator<Outbound> it = queue.iterator();
+            while (it.hasNext()) {
+                Outbound outbound = it.next();
+                if (appCode.equals(outbound.appCode)) {
+                    queuedBytes -= outbound.message.getPayloadLength();
+                    it.remove();
+                }
+            }
+            pendingSkippedLines.remove(appCode);
+        }
+
+        void close(CloseStatus status) {
+            synchronized (this) {
+                closing = true;
+                queue.clear();
+                queuedBytes = 0;
+            }
+            unregister(session);
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        synchronized Map<String, Object> getStats(long now) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("sessionId", session.getId());
+            stats.put("codec", codec.name().toLowerCase());
+            List<String> extensions = new ArrayList<>();
+            for (WebSocketExtension extension : session.getExtensions()) {
+                extensions.add(extension.getName());
+            }
+            stats.put("extensions", extensions);
+            stats.put("remoteAddress", session.getRemoteAddress() != null
+                    ? session.getRemoteAddress().toString() : null);
+            stats.put("connectedMs", now - connectedAt);
+            stats.put("queuedMessages", queue.size());
+            stats.put("queuedBytes", queuedBytes);
+            stats.put("maxQueued", maxQueued);
+            Outbound oldest = queue.peekFirst();
+            stats.put("lagMs", oldest != null ? now - oldest.enqueueTime : 0);
+            long since = sendingSince;
+            stats.put("sendingMs", since > 0 ? now - since : 0);
+            stats.put("sentMessages", sentMessages);
+            stats.put("sentLines", sentLines);
+            stats.put("sentBytes", sentBytes);
+            stats.put("droppedMessages", droppedMessages);
+            stats.put("droppedLines", droppedLines);
+            List<Map<String, Object>> subscriptionStats = new ArrayList<>();
+            for (Subscription subscription : subscriptions.values()) {
+                subscriptionStats.add(subscription.getStats());
+            }
+            stats.put("subscriptions", subscriptionStats);
+            stats.put("lastSendTime", lastSendTime);
+            return stats;
         }
     }
-    
+
     public LogWebSocketHandler() {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
         this.objectMapper.setDateFormat(new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"));
+        this.frameEncoder = new LogFrameEncoder(objectMapper);
     }
-    
+
     @PostConstruct
     public void init() {
-        // 启动消息发送线程
-        senderExecutor = Executors.newFixedThreadPool(2, r -> {
-            Thread t = new Thread(r, "ws-sender");
+        overflowPolicy = OverflowPolicy.of(overflowPolicyName);
+
+        // 启动推送通道线程
+        lanes = new PushLane[Math.max(1, pushLanes)];
+        AtomicInteger laneThreadIndex = new AtomicInteger();
+        laneExecutor = Executors.newFixedThreadPool(lanes.length, r -> {
+            Thread t = new Thread(r, "ws-push-lane-" + laneThreadIndex.incrementAndGet());
             t.setDaemon(true);
             return t;
         });
-        
-        for (int i = 0; i < 2; i++) {
-            senderExecutor.submit(this::processSendQueue);
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new PushLane(i);
+            laneExecutor.submit(lanes[i]);
         }
-        logger.info("WebSocket消息发送线程已启动，最大连接数: {}", maxConnections);
+
+        AtomicInteger sessionThreadIndex = new AtomicInteger();
+        sessionExecutor = Executors.newFixedThreadPool(Math.max(1, senderThreads), r -> {
+            Thread t = new Thread(r, "ws-session-sender-" + sessionThreadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-send-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        watchdog.scheduleWithFixedDelay(this::closeStalledSessions, 1, 1, TimeUnit.SECONDS);
+        logger.info("WebSocket消息发送线程已启动，推送通道: {}，最大连接数: {}，会话队列: {}批/{}KB，溢出策略: {}",
+                lanes.length, maxConnections, sessionQueueSize, sessionQueueKb, overflowPolicy);
     }
-    
+
     @PreDestroy
     public void shutdown() {
-        if (senderExecutor != null) {
-            senderExecutor.shutdown();
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+        if (laneExecutor != null) {
+            laneExecutor.shutdown();
             try {
-                if (!senderExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    senderExecutor.shutdownNow();
+                if (!laneExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    laneExecutor.shutdownNow();
                 }
             } catch (InterruptedException e) {
-                senderExecutor.shutdownNow();
+                laneExecutor.shutdownNow();
                 Thread.currentThread().interrupt();
             }
         }
+        if (sessionExecutor != null) {
+            sessionExecutor.shutdownNow();
+        }
     }
-    
+
     /**
-     * 处理发送队列
+     * 推送通道：单线程按差额轮询推送分配到本通道的应用
      */
+    private class PushLane implements Runnable {
+        final int index;
+        /** 待推送的应用（每个应用最多入队一次） */
+        final BlockingQueue<AppLogStream> ready = new LinkedBlockingQueue<>();
+        volatile long turns;
+
+        PushLane(int index) {
+            this.index = index;
+        }
+
+        void offer(AppLogStream stream) {
+            if (stream.queued.compareAndSet(false, true)) {
+                ready.offer(stream);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    // 阻塞等待有新日志的应用
+                    AppLogStream stream = ready.poll(1, TimeUnit.SECONDS);
+                    if (stream == null) {
+                        continue;
+                    }
+                    // 先清除入队标记，处理期间新发布的日志会重新入队
+                    stream.queued.set(false);
+                    turns++;
+                    if (drainStream(stream, laneQuantumLines)) {
+                        // 额度用完仍有积压，排到队尾让其他应用先推送
+                        stream.yields++;
+                        offer(stream);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.error("处理WebSocket推送通道异常: lane={}", index, e);
+                    // 避免异常循环过快
+                    try { Thread.sleep(100); } catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+                }
+            }
+        }
+    }
+
+    private PushLane laneOf(String appCode) {
+        return lanes[Math.floorMod(appCode.hashCode(), lanes.length)];
+    }
+
     /**
-     * 处理发送队列（批量发送）
+     * 从推送序号之后分批读取日志并发送，最多使用一轮的行数额度
+     *
+     * @return 额度用完时是否仍有积压
      */
-    private void processSendQueue() {
-        List<LogMessage> batchBuffer = new ArrayList<>(500);
-        
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                // 阻塞等待第一条消息
-                LogMessage first = messageQueue.poll(1, TimeUnit.SECONDS);
-                if (first == null) {
-                    continue;
+    private boolean drainStream(AppLogStream stream, int quantum) {
+        synchronized (stream.drainLock) {
+            stream.deficit += quantum;
+            while (stream.deficit > 0) {
+                List<AppLog> batch = stream.ring.readAfter(stream.cursor,
+                        (int) Math.min(MAX_BATCH_SIZE, stream.deficit));
+                if (batch.isEmpty()) {
+                    // 积压已清空，额度不累积
+                    stream.deficit = 0;
+                    return false;
                 }
-                
-                batchBuffer.add(first);
-                // 立即获取队列中剩余的消息（最多500条），不阻塞
-                messageQueue.drainTo(batchBuffer, 499);
-                
-                // 按AppCode分组
-                Map<String, List<AppLog>> logGroups = batchBuffer.stream()
-                    .collect(Collectors.groupingBy(
-                        msg -> msg.appCode,
-                        Collectors.mapping(msg -> msg.log, Collectors.toList())
-                    ));
-                
-                // 发送各组消息
-                for (Map.Entry<String, List<AppLog>> entry : logGroups.entrySet()) {
-                    try {
-                        // 序列化为JSON数组发送
-                        String message = objectMapper.writeValueAsString(entry.getValue());
-                        doSendMessage(entry.getKey(), message);
-                    } catch (Exception e) {
-                        logger.error("序列化日志批次失败", e);
-                    }
+                long firstSeq = batch.get(0).getSeq();
+                if (firstSeq > stream.cursor + 1) {
+                    // 推送落后，中间的日志已被覆盖
+                    stream.gapEvents++;
+                    stream.gapLines += firstSeq - 1 - stream.cursor;
+                    broadcastGap(stream.appCode, stream.cursor + 1, firstSeq - 1);
                 }
-                
-                batchBuffer.clear();
-                
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                stream.cursor = batch.get(batch.size() - 1).getSeq();
+                stream.deficit -= batch.size();
+                stream.pushedBatches++;
+                stream.pushedLines += batch.size();
+                doSendMessage(stream.appCode, batch);
+            }
+            return stream.cursor < stream.ring.getLastSeq();
+        }
+    }
+
+    /**
+     * 订阅应用日志（需要时先补发 lastSeq 之后的日志）
+     * 在推送锁内完成补发并加入订阅集合，期间不会有实时批次插入，补发的最后一条即为实时推送的起点
+     *
+     * @param lastSeq 客户端已收到的最大序号，为空时只推送之后的新日志
+     * @return 实时推送的起始序号（之后的日志都会推送）
+     */
+    private long subscribe(Subscription subscription, Long lastSeq, Long epoch) {
+        Set<Subscription> subscriptions = appSubscriptions.computeIfAbsent(subscription.appCode,
+                k -> ConcurrentHashMap.newKeySet());
+        AppLogStream stream = appStreams.get(subscription.appCode);
+        if (stream == null) {
+            // 应用在本次运行中尚未产生日志，客户端的序号来自重启之前，通知其重置后接收之后的全部日志
+            if (isReset(null, lastSeq, epoch)) {
+                ClientSession client = subscription.client;
+                client.enqueue(subscription.appCode, gapFrame(client.codec, subscription.appCode, 1, 0, true), 0);
+            }
+            subscriptions.add(subscription);
+            return 0;
+        }
+        synchronized (stream.drainLock) {
+            if (subscriptions.isEmpty()) {
+                // 首个订阅者：从当前最新序号开始推送，历史日志由客户端通过HTTP接口获取或通过lastSeq补发
+                stream.cursor = stream.ring.getLastSeq();
+            }
+            if (lastSeq != null) {
+                replay(subscription, stream, lastSeq, isReset(stream, lastSeq, epoch));
+            }
+            subscription.lastSeq = stream.cursor;
+            subscriptions.add(subscription);
+            return stream.cursor;
+        }
+    }
+
+    /**
+     * 客户端的序号是否来自之前的运行（需要重置）
+     * 携带纪元时按纪元判断；未携带时（旧客户端）应用尚无日志或序号大于服务端推送序号视为重启
+     *
+     * @param stream 应用推送流（应用尚未产生日志时为null）
+     */
+    private static boolean isReset(AppLogStream stream, Long lastSeq, Long epoch) {
+        if (lastSeq == null || lastSeq <= 0) {
+            return false;
+        }
+        if (epoch != null) {
+            return epoch != LogRingBuffer.EPOCH;
+        }
+        return stream == null || lastSeq > stream.cursor;
+    }
+
+    /**
+     * 补发 (afterSeq, 推送序号] 范围内的日志（需要在持有推送锁的情况下调用）
+     *
+     * @param reset 客户端序号来自之前的运行，通知客户端重置序号后从缓冲区现有日志补发
+     */
+    private void replay(Subscription subscription, AppLogStream stream, long lastSeq, boolean reset) {
+        ClientSession client = subscription.client;
+        String appCode = subscription.appCode;
+        long afterSeq = lastSeq;
+        long upTo = stream.cursor;
+        long firstSeq = stream.ring.getFirstSeq();
+        if (reset) {
+            client.enqueue(appCode, gapFrame(client.codec, appCode, 1, firstSeq - 1, true), 0);
+            afterSeq = firstSeq - 1;
+        } else if (afterSeq + 1 < firstSeq) {
+            client.enqueue(appCode, gapFrame(client.codec, appCode, afterSeq + 1, firstSeq - 1, false), 0);
+            afterSeq = firstSeq - 1;
+        }
+        // 补发量不超过会话队列的一半，避免补发批次触发溢出策略（超出部分按 gap 通知）
+        long maxReplay = (long) Math.max(1, sessionQueueSize / 2) * MAX_BATCH_SIZE;
+        if (upTo - afterSeq > maxReplay) {
+            client.enqueue(appCode, gapFrame(client.codec, appCode, afterSeq + 1, upTo - maxReplay, false), 0);
+            afterSeq = upTo - maxReplay;
+        }
+        long cursor = afterSeq;
+        int replayed = 0;
+        while (cursor < upTo) {
+            List<AppLog> batch = stream.ring.readAfter(cursor, (int) Math.min(MAX_BATCH_SIZE, upTo - cursor));
+            if (batch.isEmpty()) {
                 break;
-            } catch (Exception e) {
-                logger.error("处理WebSocket消息队列异常", e);
-                // 避免异常循环过快
-                try { Thread.sleep(100); } catch (InterruptedException ex) {}
             }
+            cursor = batch.get(batch.size() - 1).getSeq();
+            LogStreamFilter filter = subscription.filter;
+            List<AppLog> lines = filter.filter(batch);
+            filter.recordFiltered(batch.size() - lines.size());
+            if (lines.isEmpty()) {
+                continue;
+            }
+            WebSocketMessage<?> frame = encodeLogs(client.codec, appCode, lines);
+            if (frame == null) {
+                return;
+            }
+            client.enqueue(appCode, frame, lines.size());
+            replayed += lines.size();
         }
+        subscription.replayedLines += replayed;
+        logger.debug("WebSocket补发日志: appCode={}, sessionId={}, lastSeq={}, 补发{}条",
+                appCode, client.session.getId(), lastSeq, replayed);
     }
-    
+
     /**
-     * 实际发送消息
+     * 向应用的所有订阅发送 gap 通知（需要在持有推送锁的情况下调用）
      */
-    private void doSendMessage(String appCode, String message) {
-        Set<WebSocketSession> sessions = appSessions.get(appCode);
-        if (sessions == null || sessions.isEmpty()) {
+    private void broadcastGap(String appCode, long from, long to) {
+        Set<Subscription> subscriptions = appSubscriptions.get(appCode);
+        if (subscriptions == null) {
             return;
         }
-        
-        TextMessage textMessage = new TextMessage(message);
-        List<WebSocketSession> deadSessions = new ArrayList<>();
-        
-        for (WebSocketSession session : sessions) {
-            if (session.isOpen()) {
-                try {
-                    synchronized (session) {
-                        session.sendMessage(textMessage);
-                    }
-                } catch (IOException e) {
-                    logger.warn("推送日志失败，移除会话: sessionId={}", session.getId());
-                    deadSessions.add(session);
+        WebSocketMessage<?>[] frames = new WebSocketMessage<?>[LogFrameEncoder.Codec.values().length];
+        for (Subscription subscription : subscriptions) {
+            ClientSession client = subscription.client;
+            int index = client.codec.ordinal();
+            if (frames[index] == null) {
+                frames[index] = gapFrame(client.codec, appCode, from, to, false);
+            }
+            client.enqueue(appCode, frames[index], 0);
+        }
+    }
+
+    /**
+     * 将批次放入订阅会话的发送队列（不等待网络发送）
+     * 每种编码格式只编码一次，同格式的会话共享同一帧
+     */
+    private void doSendMessage(String appCode, List<AppLog> batch) {
+        Set<Subscription> subscriptions = appSubscriptions.get(appCode);
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return;
+        }
+
+        // 按过滤条件缓存过滤结果，按编码格式和过滤条件缓存编码结果
+        Map<String, List<AppLog>> filtered = null;
+        Map<String, WebSocketMessage<?>> frames = new HashMap<>();
+        long now = System.currentTimeMillis();
+        long batchLastSeq = batch.get(batch.size() - 1).getSeq();
+        for (Subscription subscription : subscriptions) {
+            ClientSession client = subscription.client;
+            if (!client.session.isOpen()) {
+                unregister(client.session);
+                continue;
+            }
+            subscription.lastSeq = batchLastSeq;
+            LogStreamFilter filter = subscription.filter;
+            List<AppLog> lines = batch;
+            if (!filter.isPassAll()) {
+                if (filtered == null) {
+                    filtered = new HashMap<>();
                 }
-            } else {
-                deadSessions.add(session);
+                lines = filtered.get(filter.getKey());
+                if (lines == null) {
+                    lines = filter.filter(batch);
+                    filtered.put(filter.getKey(), lines);
+                }
+                filter.recordFiltered(batch.size() - lines.size());
+            }
+            if (filter.isSampling()) {
+                // 限流有会话状态，单独编码
+                lines = filter.sample(lines, now);
+                if (!lines.isEmpty()) {
+                    client.enqueue(appCode, encodeLogs(client.codec, appCode, lines), lines.size());
+                }
+                long sampled = filter.takeSampledNotice(now);
+                if (sampled > 0) {
+                    client.enqueue(appCode, sampledFrame(client.codec, appCode, sampled, filter.getMaxRate()), 0);
+                }
+                continue;
+            }
+            if (lines.isEmpty()) {
+                continue;
             }
+            String frameKey = filter.isPassAll() ? client.codec.name() : client.codec.name() + "|" + filter.getKey();
+            WebSocketMessage<?> frame = frames.get(frameKey);
+            if (frame == null) {
+                frame = encodeLogs(client.codec, appCode, lines);
+                if (frame == null) {
+                    continue;
+                }
+                frames.put(frameKey, frame);
+            }
+            client.enqueue(appCode, frame, lines.size());
+        }
+    }
+
+    private WebSocketMessage<?> encodeLogs(LogFrameEncoder.Codec codec, String appCode, List<AppLog> lines) {
+        try {
+            return frameEncoder.encodeLogs(codec, appCode, lines);
+        } catch (Exception e) {
+            logger.error("序列化日志批次失败: codec={}", codec, e);
+            return null;
         }
-        
-        // 清理已关闭的会话
-        for (WebSocketSession deadSession : deadSessions) {
-            sessions.remove(deadSession);
-            connectionCount.decrementAndGet();
+    }
+
+    /**
+     * 生成限流丢弃提示
+     */
+    private WebSocketMessage<?> sampledFrame(LogFrameEncoder.Codec codec, String appCode, long sampledLines,
+            int maxRate) {
+        Map<String, Object> control = new LinkedHashMap<>();
+        control.put("t", "sampled");
+        control.put("app", appCode);
+        control.put("count", sampledLines);
+        control.put("maxRate", maxRate);
+        return noticeFrame(codec, appCode, control,
+                "[推送] 超过每秒 " + maxRate + " 行的订阅限制，已丢弃 " + sampledLines + " 行日志");
+    }
+
+    /**
+     * 生成错误提示
+     */
+    private WebSocketMessage<?> errorFrame(LogFrameEncoder.Codec codec, String appCode, String message) {
+        Map<String, Object> control = new LinkedHashMap<>();
+        control.put("t", "error");
+        control.put("app", appCode);
+        control.put("message", message);
+        return noticeFrame(codec, appCode, control, "[推送] " + message);
+    }
+
+    /**
+     * 生成跳过提示
+     */
+    private WebSocketMessage<?> skippedMarker(LogFrameEncoder.Codec codec, String appCode, long skippedLines) {
+        Map<String, Object> control = new LinkedHashMap<>();
+        control.put("t", "skipped");
+        control.put("app", appCode);
+        control.put("count", skippedLines);
+        return noticeFrame(codec, appCode, control, "[推送] 客户端接收过慢，已跳过 " + skippedLines + " 行日志");
+    }
+
+    /**
+     * 生成 gap 通知（序号 from~to 的日志已不在缓冲区中）
+     *
+     * @param reset 服务端序号已重新开始，客户端需要丢弃已记录的序号（此时 to 可能小于 from，表示没有缺失）
+     */
+    private WebSocketMessage<?> gapFrame(LogFrameEncoder.Codec codec, String appCode, long from, long to,
+            boolean reset) {
+        Map<String, Object> control = new LinkedHashMap<>();
+        control.put("t", "gap");
+        control.put("app", appCode);
+        control.put("from", from);
+        control.put("to", to);
+        if (reset) {
+            control.put("reset", true);
+            control.put("epoch", LogRingBuffer.EPOCH);
+        }
+        String text = to >= from ? "[推送] 序号 " + from + "~" + to + " 的日志已不在缓冲区中，无法补发"
+                : "[推送] 服务端日志序号已重置，重新同步";
+        return noticeFrame(codec, appCode, control, text);
+    }
+
+    /**
+     * 生成通知帧
+     * json 格式为一条与日志批次格式相同的提示日志（客户端按普通日志显示），compact/binary 格式为控制消息
+     */
+    private WebSocketMessage<?> noticeFrame(LogFrameEncoder.Codec codec, String appCode, Map<String, Object> control,
+            String text) {
+        try {
+            if (codec != LogFrameEncoder.Codec.JSON) {
+                return frameEncoder.encodeControl(codec, control);
+            }
+            AppLog marker = new AppLog();
+            marker.setAppCode(appCode);
+            marker.setLogLevel("WARN");
+            marker.setLogContent(text);
+            marker.setLogTime(new Date());
+            return new TextMessage(objectMapper.writeValueAsBytes(Collections.singletonList(marker)));
+        } catch (Exception e) {
+            logger.error("序列化通知消息失败: {}", control.get("t"), e);
+            return null;
+        }
+    }
+
+    /**
+     * 断开单次发送超过时间上限的会话
+     */
+    private void closeStalledSessions() {
+        long now = System.currentTimeMillis();
+        for (ClientSession client : clients.values()) {
+            long since = client.sendingSince;
+            if (since > 0 && now - since > sendTimeLimitMs) {
+                logger.warn("WebSocket会话发送超时，断开连接: sessionId={}, 订阅: {}, 已等待{}ms",
+                        client.session.getId(), client.subscriptions.keySet(), now - since);
+                client.close(CloseStatus.SESSION_NOT_RELIABLE);
+            }
         }
     }
 
@@ -192,60 +939,394 @@ public class LogWebSocketHandler extends TextWebSocketHandler {
             }
             return;
         }
-        
-        String appCode = getAppCodeFromSession(session);
+
+        ClientSession client = new ClientSession(session, LogFrameEncoder.Codec.of(getQueryParam(session, "codec")));
+        String appCode = getQueryParam(session, "appCode");
+        Subscription subscription = null;
         if (appCode != null) {
-            appSessions.computeIfAbsent(appCode, k -> ConcurrentHashMap.newKeySet()).add(session);
-            connectionCount.incrementAndGet();
-            logger.info("WebSocket连接建立: appCode={}, sessionId={}, 当前连接数: {}", 
-                appCode, session.getId(), connectionCount.get());
+            subscription = new Subscription(client, appCode);
+            try {
+                subscription.filter = LogStreamFilter.of(getQueryParam(session, "minLevel"),
+                        getQueryParam(session, "include"), getQueryParam(session, "exclude"),
+                        parseRate(getQueryParam(session, "maxRate")));
+            } catch (IllegalArgumentException e) {
+                logger.warn("WebSocket订阅过滤条件无效，拒绝连接: sessionId={}, {}", session.getId(), e.getMessage());
+                try {
+                    session.close(CloseStatus.BAD_DATA.withReason("invalid filter"));
+                } catch (IOException ex) {
+                    // ignore
+                }
+                return;
+            }
+        }
+        clients.put(session.getId(), client);
+        connectionCount.incrementAndGet();
+        if (subscription != null) {
+            client.subscriptions.put(appCode, subscription);
+            subscribe(subscription, parseSeq(getQueryParam(session, "lastSeq")),
+                    parseSeq(getQueryParam(session, "epoch")));
         }
+        logger.info("WebSocket连接建立: appCode={}, sessionId={}, codec={}, 过滤: {}, 当前连接数: {}",
+                appCode, session.getId(), client.codec,
+                subscription == null || subscription.filter.isPassAll() ? "无" : subscription.filter.getKey(),
+                connectionCount.get());
     }
 
+    /**
+     * 处理客户端控制消息
+     * <ul>
+     *   <li>{"type":"subscribe","appCode":"X","lastSeq":N,"epoch":E,...}：订阅应用（可同时指定过滤条件）；
+     *       已订阅时从 lastSeq 之后重新同步（丢弃尚未发送的批次，补发后继续实时推送）。
+     *       连接只有一个订阅时可省略 appCode</li>
+     *   <li>{"type":"unsubscribe","appCode":"X"}：退订应用，丢弃尚未发送的批次</li>
+     *   <li>{"type":"filter","appCode":"X",...}：替换订阅过滤条件，从下一个批次开始生效，省略 appCode 时作用于所有订阅</li>
+     * </ul>
+     */
     @Override
-    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        String appCode = getAppCodeFromSession(session);
-        if (appCode != null) {
-            Set<WebSocketSession> sessions = appSessions.get(appCode);
-            if (sessions != null) {
-                sessions.remove(session);
-                if (sessions.isEmpty()) {
-                    appSessions.remove(appCode);
-                }
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        ClientSession client = clients.get(session.getId());
+        if (client == null) {
+            return;
+        }
+        Map<?, ?> command;
+        try {
+            command = objectMapper.readValue(message.getPayload(), Map.class);
+        } catch (Exception e) {
+            logger.debug("忽略无法解析的WebSocket消息: sessionId={}", session.getId());
+            return;
+        }
+        Object type = command.get("type");
+        if ("subscribe".equals(type)) {
+            handleSubscribe(client, command);
+        } else if ("unsubscribe".equals(type)) {
+            handleUnsubscribe(client, command);
+        } else if ("filter".equals(type)) {
+            handleFilter(client, command);
+        }
+    }
+
+    private void handleSubscribe(ClientSession client, Map<?, ?> command) {
+        String appCode = resolveAppCode(client, command);
+        if (appCode == null) {
+            client.enqueue(null, errorFrame(client.codec, null, "订阅缺少 appCode"), 0);
+            return;
+        }
+        LogStreamFilter filter = null;
+        if (command.containsKey("minLevel") || command.containsKey("include") || command.containsKey("exclude")
+                || command.containsKey("maxRate")) {
+            try {
+                filter = parseFilter(command);
+            } catch (IllegalArgumentException e) {
+                client.enqueue(appCode, errorFrame(client.codec, appCode, "过滤条件无效: " + e.getMessage()), 0);
+                return;
+            }
+        }
+        Object lastSeqValue = command.get("lastSeq");
+        Long lastSeq = lastSeqValue instanceof Number ? ((Number) lastSeqValue).longValue() : null;
+        Object epochValue = command.get("epoch");
+        Long epoch = epochValue instanceof Number ? ((Number) epochValue).longValue() : null;
+
+        Subscription subscription = client.subscriptions.get(appCode);
+        if (subscription != null) {
+            if (filter != null) {
+                subscription.filter = filter;
+            }
+            if (lastSeq != null) {
+                resubscribe(subscription, lastSeq, epoch);
             }
-            connectionCount.decrementAndGet();
-            logger.info("WebSocket连接关闭: appCode={}, sessionId={}, 当前连接数: {}", 
-                appCode, session.getId(), connectionCount.get());
+            acknowledge(client, "subscribed", appCode, subscription.lastSeq);
+            return;
         }
+        if (client.subscriptions.size() >= maxSubscriptions) {
+            client.enqueue(appCode, errorFrame(client.codec, appCode, "订阅数已达上限 " + maxSubscriptions), 0);
+            return;
+        }
+        subscription = new Subscription(client, appCode);
+        if (filter != null) {
+            subscription.filter = filter;
+        }
+        client.subscriptions.put(appCode, subscription);
+        long seq = subscribe(subscription, lastSeq, epoch);
+        if (!clients.containsKey(client.session.getId())) {
+            // 订阅期间连接已关闭
+            removeSubscription(subscription);
+            return;
+        }
+        acknowledge(client, "subscribed", appCode, seq);
+        logger.debug("WebSocket订阅应用: appCode={}, sessionId={}, 订阅数: {}",
+                appCode, client.session.getId(), client.subscriptions.size());
+    }
+
+    private void handleUnsubscribe(ClientSession client, Map<?, ?> command) {
+        String appCode = asString(command.get("appCode"));
+        Subscription subscription = appCode != null ? client.subscriptions.remove(appCode) : null;
+        if (subscription == null) {
+            return;
+        }
+        removeSubscription(subscription);
+        client.purge(appCode);
+        acknowledge(client, "unsubscribed", appCode, subscription.lastSeq);
+        logger.debug("WebSocket退订应用: appCode={}, sessionId={}, 订阅数: {}",
+                appCode, client.session.getId(), client.subscriptions.size());
+    }
+
+    private void handleFilter(ClientSession client, Map<?, ?> command) {
+        String appCode = asString(command.get("appCode"));
+        LogStreamFilter filter;
+        try {
+            filter = parseFilter(command);
+        } catch (IllegalArgumentException e) {
+            client.enqueue(appCode, errorFrame(client.codec, appCode, "过滤条件无效: " + e.getMessage()), 0);
+            return;
+        }
+        if (appCode == null) {
+            // 每个订阅使用独立的过滤器实例（限流状态不共享）
+            for (Subscription subscription : client.subscriptions.values()) {
+                subscription.filter = parseFilter(command);
+            }
+        } else {
+            Subscription subscription = client.subscriptions.get(appCode);
+            if (subscription == null) {
+                client.enqueue(appCode, errorFrame(client.codec, appCode, "未订阅应用 " + appCode), 0);
+                return;
+            }
+            subscription.filter = filter;
+        }
+        logger.debug("WebSocket订阅过滤条件更新: sessionId={}, appCode={}, 过滤: {}", client.session.getId(),
+                appCode, filter.isPassAll() ? "无" : filter.getKey());
     }
 
     /**
-     * 推送日志给订阅该appCode的所有客户端（异步）
+     * 控制消息中的应用编码，省略时使用连接唯一的订阅
      */
-    public void pushLog(AppLog log) {
-        String appCode = log.getAppCode();
-        Set<WebSocketSession> sessions = appSessions.get(appCode);
-        if (sessions == null || sessions.isEmpty()) {
+    private static String resolveAppCode(ClientSession client, Map<?, ?> command) {
+        String appCode = asString(command.get("appCode"));
+        if (appCode == null && client.subscriptions.size() == 1) {
+            return client.subscriptions.keys().nextElement();
+        }
+        return appCode;
+    }
+
+    private static LogStreamFilter parseFilter(Map<?, ?> command) {
+        Object maxRate = command.get("maxRate");
+        return LogStreamFilter.of(asString(command.get("minLevel")), asString(command.get("include")),
+                asString(command.get("exclude")), maxRate instanceof Number ? ((Number) maxRate).intValue() : null);
+    }
+
+    /**
+     * 发送订阅确认（json 格式的客户端不发送）
+     *
+     * @param seq 实时推送的起始序号
+     */
+    private void acknowledge(ClientSession client, String type, String appCode, long seq) {
+        if (client.codec == LogFrameEncoder.Codec.JSON) {
             return;
         }
+        Map<String, Object> control = new LinkedHashMap<>();
+        control.put("t", type);
+        control.put("app", appCode);
+        control.put("seq", seq);
+        control.put("epoch", LogRingBuffer.EPOCH);
+        try {
+            client.enqueue(appCode, frameEncoder.encodeControl(client.codec, control), 0);
+        } catch (IOException e) {
+            logger.error("序列化订阅确认失败", e);
+        }
+    }
 
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static Integer parseRate(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
         try {
-            // 放入队列异步发送（不再预先序列化，改为批量处理时序列化）
-            if (!messageQueue.offer(new LogMessage(appCode, log))) {
-                logger.warn("WebSocket消息队列已满，丢弃消息: appCode={}", appCode);
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("maxRate 不是整数: " + value);
+        }
+    }
+
+    /**
+     * 重新订阅：丢弃会话队列中该应用尚未发送的批次后按 lastSeq 补发
+     */
+    private void resubscribe(Subscription subscription, long lastSeq, Long epoch) {
+        AppLogStream stream = appStreams.get(subscription.appCode);
+        if (stream == null) {
+            if (isReset(null, lastSeq, epoch)) {
+                ClientSession client = subscription.client;
+                client.purge(subscription.appCode);
+                client.enqueue(subscription.appCode, gapFrame(client.codec, subscription.appCode, 1, 0, true), 0);
             }
-        } catch (Exception e) {
-            logger.error("入队日志失败", e);
+            return;
+        }
+        synchronized (stream.drainLock) {
+            subscription.client.purge(subscription.appCode);
+            replay(subscription, stream, lastSeq, isReset(stream, lastSeq, epoch));
+        }
+    }
+
+    private static Long parseSeq(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        ClientSession client = unregister(session);
+        if (client != null) {
+            logger.info("WebSocket连接关闭: sessionId={}, 订阅: {}, 当前连接数: {}",
+                session.getId(), client.subscriptions.keySet(), connectionCount.get());
         }
     }
 
-    private String getAppCodeFromSession(WebSocketSession session) {
+    /**
+     * 注销会话及其所有订阅，每个会话只计数一次（发送失败、发送超时和连接关闭回调都可能触发）
+     *
+     * @return 注销的会话，未注册或已注销时返回null
+     */
+    private ClientSession unregister(WebSocketSession session) {
+        ClientSession client = clients.remove(session.getId());
+        if (client == null) {
+            return null;
+        }
+        for (Subscription subscription : client.subscriptions.values()) {
+            removeSubscription(subscription);
+        }
+        connectionCount.decrementAndGet();
+        return client;
+    }
+
+    private void removeSubscription(Subscription subscription) {
+        Set<Subscription> subscriptions = appSubscriptions.get(subscription.appCode);
+        if (subscriptions != null) {
+            subscriptions.remove(subscription);
+            if (subscriptions.isEmpty()) {
+                appSubscriptions.remove(subscription.appCode, subscriptions);
+            }
+        }
+    }
+
+    /**
+     * 注册应用的日志环形缓冲区
+     *
+     * @param appCode 应用编码
+     * @param ring    应用日志环形缓冲区
+     */
+    public void attach(String appCode, LogRingBuffer ring) {
+        appStreams.put(appCode, new AppLogStream(appCode, ring));
+    }
+
+    /**
+     * 日志发布通知
+     * 有订阅者时将应用标记为待推送（异步），无订阅者时直接返回
+     *
+     * @param appCode 应用编码
+     */
+    public void onPublished(String appCode) {
+        Set<Subscription> subscriptions = appSubscriptions.get(appCode);
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return;
+        }
+        AppLogStream stream = appStreams.get(appCode);
+        if (stream != null) {
+            laneOf(appCode).offer(stream);
+        }
+    }
+
+    /**
+     * 获取应用当前的订阅数
+     *
+     * @param appCode 应用编码
+     * @return 订阅数
+     */
+    public int getSubscriberCount(String appCode) {
+        Set<Subscription> subscriptions = appSubscriptions.get(appCode);
+        return subscriptions != null ? subscriptions.size() : 0;
+    }
+
+    /**
+     * 获取WebSocket推送统计
+     * 包括连接数、订阅数、溢出策略和各会话的队列长度、延迟、发送和丢弃计数及各订阅的序号和过滤条件
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        long totalDropped = 0;
+        int totalSubscriptions = 0;
+        for (ClientSession client : clients.values()) {
+            Map<String, Object> stats = client.getStats(now);
+            totalDropped += (Long) stats.get("droppedMessages");
+            totalSubscriptions += client.subscriptions.size();
+            sessions.add(stats);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("connections", connectionCount.get());
+        result.put("maxConnections", maxConnections);
+        result.put("subscriptions", totalSubscriptions);
+        result.put("maxSubscriptions", maxSubscriptions);
+        result.put("overflowPolicy", overflowPolicy.name().replace('_', '-').toLowerCase());
+        result.put("sessionQueueSize", sessionQueueSize);
+        result.put("sessionQueueKb", sessionQueueKb);
+        result.put("sendTimeLimitMs", sendTimeLimitMs);
+        result.put("droppedMessages", totalDropped);
+        List<Map<String, Object>> laneStats = new ArrayList<>();
+        for (PushLane lane : lanes) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("lane", lane.index);
+            stats.put("readyApps", lane.ready.size());
+            stats.put("turns", lane.turns);
+            laneStats.add(stats);
+        }
+        result.put("laneQuantumLines", laneQuantumLines);
+        result.put("lanes", laneStats);
+        List<Map<String, Object>> appStats = new ArrayList<>();
+        for (AppLogStream stream : appStreams.values()) {
+            int subscribers = getSubscriberCount(stream.appCode);
+            if (subscribers == 0 && stream.pushedBatches == 0) {
+                continue;
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("appCode", stream.appCode);
+            stats.put("lane", laneOf(stream.appCode).index);
+            stats.put("subscribers", subscribers);
+            stats.put("queued", stream.queued.get());
+            // 积压行数：缓冲区中尚未推送的日志（无订阅时不推送，记为0）
+            stats.put("backlogLines", subscribers > 0
+                    ? Math.max(0, stream.ring.getLastSeq() - Math.max(stream.cursor, stream.ring.getFirstSeq() - 1)) : 0);
+            stats.put("pushedBatches", stream.pushedBatches);
+            stats.put("pushedLines", stream.pushedLines);
+            stats.put("gapEvents", stream.gapEvents);
+            stats.put("droppedLines", stream.gapLines);
+            stats.put("yields", stream.yields);
+            appStats.add(stats);
+        }
+        result.put("apps", appStats);
+        result.put("sessions", sessions);
+        return result;
+    }
+
+    private String getQueryParam(WebSocketSession session, String name) {
         URI uri = session.getUri();
         if (uri != null && uri.getQuery() != null) {
             for (String param : uri.getQuery().split("&")) {
-                String[] kv = param.split("=");
-                if (kv.length == 2 && "appCode".equals(kv[0])) {
-                    return kv[1];
+                String[] kv = param.split("=", 2);
+                if (kv.length == 2 && name.equals(kv[0])) {
+                    try {
+                        return URLDecoder.decode(kv[1], "UTF-8");
+                    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                        return kv[1];
+                    }
                 }
             }
         }
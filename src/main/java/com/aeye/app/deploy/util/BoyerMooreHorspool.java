@@ -0,0 +1,75 @@
+package com.aeye.app.deploy.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Boyer-Moore-Horspool 字节串查找
+ * <p>
+ * 在字节缓冲区（包括内存映射缓冲区）中查找固定字节串，用于日志搜索的字面量预过滤。
+ * 忽略大小写时只折叠ASCII字母。实例不可变，可被多个线程共享。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public final class BoyerMooreHorspool {
+
+    private final byte[] pattern;
+    private final int[] shift = new int[256];
+    private final boolean ignoreCase;
+
+    /**
+     * @param pattern    待查找的字节串（非空）
+     * @param ignoreCase 是否忽略ASCII大小写
+     */
+    public BoyerMooreHorspool(byte[] pattern, boolean ignoreCase) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("pattern is empty");
+        }
+        this.ignoreCase = ignoreCase;
+        this.pattern = new byte[pattern.length];
+        for (int i = 0; i < pattern.length; i++) {
+            this.pattern[i] = fold(pattern[i]);
+        }
+        int m = pattern.length;
+        for (int i = 0; i < 256; i++) {
+            shift[i] = m;
+        }
+        for (int i = 0; i < m - 1; i++) {
+            int b = this.pattern[i] & 0xFF;
+            shift[b] = m - 1 - i;
+            if (ignoreCase && b >= 'a' && b <= 'z') {
+                shift[b - 32] = m - 1 - i;
+            }
+        }
+    }
+
+    private byte fold(byte b) {
+        return ignoreCase && b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    public int length() {
+        return pattern.length;
+    }
+
+    /**
+     * 在 [from, to) 范围内查找（使用绝对位置读取，不改变缓冲区位置）
+     *
+     * @return 首次出现的位置，未找到时返回-1
+     */
+    public int indexOf(ByteBuffer buf, int from, int to) {
+        int m = pattern.length;
+        int last = m - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (fold(buf.get(i + j)) == pattern[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += shift[buf.get(i + last) & 0xFF];
+        }
+        return -1;
+    }
+}
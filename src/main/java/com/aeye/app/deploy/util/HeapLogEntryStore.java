@@ -0,0 +1,57 @@
+package com.aeye.app.deploy.util;
+
+import com.aeye.app.deploy.model.AppLog;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 堆内槽位存储
+ * <p>
+ * 槽位直接引用发布时创建的 {@link AppLog} 对象，读取无锁（wait-free），
+ * 读取方通过校验日志序号识别已被覆盖的槽位。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public class HeapLogEntryStore implements LogEntryStore {
+
+    /** 单条日志的固定开销估算（AppLog、Date、Long及String对象头），单位字节 */
+    private static final int ENTRY_OVERHEAD_BYTES = 104;
+
+    /** 预分配的槽位数组 */
+    private final AtomicReferenceArray<AppLog> slots;
+
+    public HeapLogEntryStore(int capacity) {
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    @Override
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    @Override
+    public int store(int index, long seq, AppLog log) {
+        slots.set(index, log);
+        String content = log.getLogContent();
+        // 字符按2字节估算
+        return ENTRY_OVERHEAD_BYTES + (content != null ? content.length() * 2 : 0);
+    }
+
+    @Override
+    public AppLog load(int index, long seq) {
+        AppLog log = slots.get(index);
+        if (log == null || log.getSeq() == null || log.getSeq() != seq) {
+            return null;
+        }
+        return log;
+    }
+
+    @Override
+    public void release(int index, long seq) {
+        AppLog log = slots.get(index);
+        if (log != null && log.getSeq() != null && log.getSeq() == seq) {
+            slots.compareAndSet(index, log, null);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.aeye.app.deploy.util;
+
+import com.aeye.app.deploy.model.AppLog;
+
+/**
+ * 日志环形缓冲区的槽位存储
+ * <p>
+ * {@link LogRingBuffer} 负责序号分配、门控和淘汰，槽位内容的存放方式由本接口的实现决定：
+ * <ul>
+ *   <li>{@link HeapLogEntryStore}：直接引用 {@link AppLog} 对象，读取无锁</li>
+ *   <li>{@link OffHeapLogEntryStore}：内容以UTF-8字节存放在堆外内存段，堆内只保留小索引，读取时才创建 {@link AppLog}</li>
+ * </ul>
+ * 写入方法（store、release）和 close 由环形缓冲区在持有自身锁时调用：{@link LogRingBuffer#clear()} 逐条 release 已处理的槽位，
+ * {@link LogRingBuffer#close()} 调用 close 释放存储资源。读取方法可被任意线程并发调用。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public interface LogEntryStore {
+
+    /**
+     * 获取槽位数量
+     */
+    int getCapacity();
+
+    /**
+     * 写入槽位
+     *
+     * @param index 槽位下标
+     * @param seq   日志序号
+     * @param log   日志对象（seq已设置）
+     * @return 本条日志计入内存统计的估算字节数
+     */
+    int store(int index, long seq, AppLog log);
+
+    /**
+     * 读取槽位
+     *
+     * @param index 槽位下标
+     * @param seq   期望的日志序号
+     * @return 日志对象，槽位为空或已被其他序号覆盖时返回null
+     */
+    AppLog load(int index, long seq);
+
+    /**
+     * 释放槽位（日志被淘汰、覆盖或清空时调用）
+     *
+     * @param index 槽位下标
+     * @param seq   被释放日志的序号
+     */
+    void release(int index, long seq);
+
+    /**
+     * 释放存储占用的全部资源
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,104 @@
+package com.aeye.app.deploy.util;
+
+/**
+ * 多行日志事件组装器
+ * <p>
+ * 位于进程输出读取线程之后：日志头开始一个新事件，续行（"\tat ..."、"Caused by:"、"... N more" 等，
+ * 由 {@link LogLineParser} 判断）追加到当前事件，合并为一条日志发布，缓冲区、文件写入和WebSocket推送都按事件处理。
+ * 读取线程阻塞在下一行时，当前事件由共享的清理线程在超时后发布（{@link #flushIfIdle(long, long)}）。
+ * 单个事件超过行数上限时截断为新事件，避免无限增长。
+ * <p>
+ * 读取线程和清理线程并发调用，方法均为同步方法。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public class LogEventAssembler {
+
+    /**
+     * 事件发布目标
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void accept(String content, String level, long time, String thread, String logger, int lines);
+    }
+
+    private final LogLineParser parser;
+
+    private final int maxLines;
+
+    private final Sink sink;
+
+    /** 当前事件的首行（单行事件不创建 StringBuilder） */
+    private String firstLine;
+
+    /** 当前事件的后续行 */
+    private StringBuilder content;
+
+    private int lines;
+    private String level;
+    private long time;
+    private String thread;
+    private String logger;
+
+    /** 当前事件最近一次追加的时间 */
+    private long lastAppendTime;
+
+    public LogEventAssembler(LogLineParser parser, int maxLines, Sink sink) {
+        this.parser = parser;
+        this.maxLines = Math.max(1, maxLines);
+        this.sink = sink;
+    }
+
+    /**
+     * 接收一行输出
+     */
+    public synchronized void accept(String line) {
+        parser.parse(line);
+        if (firstLine != null && parser.isContinuation() && lines < maxLines) {
+            if (content == null) {
+                content = new StringBuilder(firstLine.length() + line.length() * 8).append(firstLine);
+            }
+            content.append('\n').append(line);
+            lines++;
+            lastAppendTime = System.currentTimeMillis();
+            return;
+        }
+        flush();
+        firstLine = line;
+        lines = 1;
+        level = parser.getLevel();
+        time = parser.getTime();
+        thread = parser.getThread();
+        logger = parser.getLogger();
+        lastAppendTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 当前事件超过空闲时间未追加时发布
+     *
+     * @return 是否发布了事件
+     */
+    public synchronized boolean flushIfIdle(long now, long idleMs) {
+        if (firstLine == null || now - lastAppendTime < idleMs) {
+            return false;
+        }
+        flush();
+        return true;
+    }
+
+    /**
+     * 发布当前事件
+     */
+    public synchronized void flush() {
+        if (firstLine == null) {
+            return;
+        }
+        String event = content != null ? content.toString() : firstLine;
+        int eventLines = lines;
+        firstLine = null;
+        content = null;
+        lines = 0;
+        sink.accept(event, level, time, thread, logger, eventLines);
+    }
+}
@@ -0,0 +1,262 @@
+package com.aeye.app.deploy.util;
+
+import com.aeye.app.deploy.model.AppLog;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * WebSocket日志帧编码器
+ * <p>
+ * 每个批次按编码格式只编码一次，编码结果为不可变帧（文本帧也以UTF-8字节构造，取长度不再重复编码），
+ * 由所有同格式的订阅会话共享发送。支持的格式：
+ * <ul>
+ *   <li>json：AppLog 对象数组（兼容原有客户端）</li>
+ *   <li>compact：紧凑JSON，重复的级别、版本、线程和日志器放入帧内字符串表，行内只保存表下标（0表示空），
+ *       序号和时间保存为相对上一行的差值
+ *       <pre>
+ *   {"t":"logs","app":"..","seq":首行序号,"time":首行时间,"levels":[..],"versions":[..],"threads":[..],"loggers":[..],
+ *    "rows":[[序号差,时间差,级别,版本,线程,日志器,"内容"],..]}
+ *       </pre>
+ *       控制消息为 {"t":"类型",...}</li>
+ *   <li>binary：与 compact 结构相同的二进制帧（大端）：'L' | 版本1 | 类型（1日志，2控制），
+ *       日志帧依次为应用编码、首行序号(long)、首行时间(long)、四个字符串表、行数和各行
+ *       （varint序号差、zigzag varint时间差、四个varint表下标、内容），字符串均为varint长度加UTF-8字节；
+ *       控制帧为UTF-8的JSON</li>
+ * </ul>
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public class LogFrameEncoder {
+
+    /** 编码格式 */
+    public enum Codec {
+        JSON, COMPACT, BINARY;
+
+        /**
+         * 按名称解析，未知或为空时返回 JSON
+         */
+        public static Codec of(String name) {
+            if (name != null) {
+                for (Codec codec : values()) {
+                    if (codec.name().equalsIgnoreCase(name)) {
+                        return codec;
+                    }
+                }
+            }
+            return JSON;
+        }
+    }
+
+    private static final byte MAGIC = 'L';
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte TYPE_LOGS = 1;
+    private static final byte TYPE_CONTROL = 2;
+
+    private final ObjectMapper objectMapper;
+
+    public LogFrameEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 编码日志批次
+     *
+     * @param codec   编码格式
+     * @param appCode 应用编码
+     * @param logs    日志批次（按序号递增）
+     */
+    public WebSocketMessage<?> encodeLogs(Codec codec, String appCode, List<AppLog> logs) throws IOException {
+        switch (codec) {
+            case COMPACT:
+                return new TextMessage(encodeCompact(appCode, logs));
+            case BINARY:
+                return new BinaryMessage(encodeBinary(appCode, logs), true);
+            default:
+                return new TextMessage(objectMapper.writeValueAsBytes(logs));
+        }
+    }
+
+    /**
+     * 编码控制消息（compact/binary 格式）
+     *
+     * @param codec  编码格式
+     * @param fields 消息字段，需包含类型 t
+     */
+    public WebSocketMessage<?> encodeControl(Codec codec, Map<String, Object> fields) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(fields);
+        if (codec == Codec.BINARY) {
+            ByteBuffer buf = ByteBuffer.allocate(3 + json.length);
+            buf.put(MAGIC).put(FORMAT_VERSION).put(TYPE_CONTROL).put(json);
+            buf.flip();
+            return new BinaryMessage(buf.asReadOnlyBuffer(), true);
+        }
+        return new TextMessage(json);
+    }
+
+    /**
+     * 编码为 compact 格式的UTF-8 JSON（也用于HTTP增量读取的紧凑响应），日志为空时 rows 为空数组
+     *
+     * @param appCode 应用编码
+     * @param logs    日志（按序号递增）
+     */
+    public byte[] encodeCompact(String appCode, List<AppLog> logs) throws IOException {
+        StringTables tables = new StringTables(logs);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + logs.size() * 96);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeStringField("t", "logs");
+            gen.writeStringField("app", appCode);
+            long prevSeq = logs.isEmpty() ? 0 : seqOf(logs.get(0));
+            long prevTime = logs.isEmpty() ? 0 : timeOf(logs.get(0));
+            gen.writeNumberField("seq", prevSeq);
+            gen.writeNumberField("time", prevTime);
+            writeTable(gen, "levels", tables.levels);
+            writeTable(gen, "versions", tables.versions);
+            writeTable(gen, "threads", tables.threads);
+            writeTable(gen, "loggers", tables.loggers);
+            gen.writeArrayFieldStart("rows");
+            for (int i = 0; i < logs.size(); i++) {
+                AppLog log = logs.get(i);
+                long seq = seqOf(log);
+                long time = timeOf(log);
+                gen.writeStartArray();
+                gen.writeNumber(seq - prevSeq);
+                gen.writeNumber(time - prevTime);
+                for (int ref : tables.refs[i]) {
+                    gen.writeNumber(ref);
+                }
+                gen.writeString(log.getLogContent() != null ? log.getLogContent() : "");
+                gen.writeEndArray();
+                prevSeq = seq;
+                prevTime = time;
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private ByteBuffer encodeBinary(String appCode, List<AppLog> logs) {
+        StringTables tables = new StringTables(logs);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + logs.size() * 80);
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+        out.write(TYPE_LOGS);
+        writeString(out, appCode);
+        long prevSeq = seqOf(logs.get(0));
+        long prevTime = timeOf(logs.get(0));
+        writeLong(out, prevSeq);
+        writeLong(out, prevTime);
+        for (StringTable table : new StringTable[] { tables.levels, tables.versions, tables.threads, tables.loggers }) {
+            writeVarint(out, table.values.size());
+            for (String value : table.values) {
+                writeString(out, value);
+            }
+        }
+        writeVarint(out, logs.size());
+        for (int i = 0; i < logs.size(); i++) {
+            AppLog log = logs.get(i);
+            long seq = seqOf(log);
+            long time = timeOf(log);
+            writeVarint(out, seq - prevSeq);
+            writeVarint(out, (time - prevTime) << 1 ^ (time - prevTime) >> 63);
+            for (int ref : tables.refs[i]) {
+                writeVarint(out, ref);
+            }
+            writeString(out, log.getLogContent() != null ? log.getLogContent() : "");
+            prevSeq = seq;
+            prevTime = time;
+        }
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    private static long seqOf(AppLog log) {
+        return log.getSeq() != null ? log.getSeq() : 0;
+    }
+
+    private static long timeOf(AppLog log) {
+        return log.getLogTime() != null ? log.getLogTime().getTime() : 0;
+    }
+
+    private static void writeTable(JsonGenerator gen, String name, StringTable table) throws IOException {
+        gen.writeArrayFieldStart(name);
+        for (String value : table.values) {
+            gen.writeString(value);
+        }
+        gen.writeEndArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * 批次的级别、版本、线程和日志器字符串表，以及各行的表下标
+     */
+    private static final class StringTables {
+        final StringTable levels = new StringTable();
+        final StringTable versions = new StringTable();
+        final StringTable threads = new StringTable();
+        final StringTable loggers = new StringTable();
+        final int[][] refs;
+
+        StringTables(List<AppLog> logs) {
+            refs = new int[logs.size()][];
+            for (int i = 0; i < logs.size(); i++) {
+                AppLog log = logs.get(i);
+                refs[i] = new int[] { levels.ref(log.getLogLevel()), versions.ref(log.getVersion()),
+                        threads.ref(log.getThread()), loggers.ref(log.getLogger()) };
+            }
+        }
+    }
+
+    /**
+     * 帧内字符串表，下标从1开始，0表示空
+     */
+    private static final class StringTable {
+        final List<String> values = new ArrayList<>();
+        final Map<String, Integer> index = new HashMap<>();
+
+        int ref(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer ref = index.get(value);
+            if (ref == null) {
+                values.add(value);
+                ref = values.size();
+                index.put(value, ref);
+            }
+            return ref;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.aeye.app.deploy.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 日志分段稀疏行索引
+ * <p>
+ * 每隔 {@link #INTERVAL} 行记录一次该行起始的字节偏移（基于解压后的内容），
+ * 保存在分段同级 .idx 目录下的 &lt;baseName&gt;.lidx 文件中：
+ * <pre>
+ *   int magic ("LIDX") | int interval | long offset[0] | long offset[1] | ...
+ * </pre>
+ * offset[i] 为第 i * interval 行（从0开始）的起始偏移，offset[0] 恒为0。
+ * 文件只追加，正在写入的分段由文件写入服务通过 {@link Writer} 增量维护（重新打开时从已有索引的最后一个检查点续建），
+ * 已有分段在首次读取时扫描一次生成。正在写入的分段的索引文件只由写入器维护，
+ * 读取时发现其失效只在内存中重建（见 {@link #open(File, boolean)}）。
+ * <p>
+ * 按行读取时先定位到不超过目标行的检查点，再最多顺序跳过 interval-1 行，
+ * 因此读取任意位置的行只需一次定位。压缩分段从最近的 gzip 成员开始解压（见 {@link LogSegmentFiles#openStreamAt}）。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public final class LogLineIndex {
+
+    /** 检查点间隔（行） */
+    public static final int INTERVAL = 1000;
+
+    /** 索引文件后缀 */
+    public static final String SUFFIX = ".lidx";
+
+    private static final int MAGIC = 0x4C494458;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final int interval;
+    private final long[] offsets;
+    /** 内容总长度（解压后） */
+    private final long contentLength;
+    /** 总行数（延迟计算） */
+    private long totalLines = -1;
+
+    private LogLineIndex(File file, int interval, long[] offsets, long contentLength) {
+        this.file = file;
+        this.interval = interval;
+        this.offsets = offsets;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * 获取分段的行索引文件
+     */
+    public static File indexFile(File segment) {
+        File dir = new File(segment.getParentFile(), ".idx");
+        return new File(dir, LogSegmentFiles.baseName(segment.getName()) + SUFFIX);
+    }
+
+    /**
+     * 打开分段的行索引，索引文件不存在或已失效时扫描分段重建并保存
+     *
+     * @param segment 分段文件（.log 或 .log.gz）
+     * @return 行索引
+     */
+    public static LogLineIndex open(File segment) throws IOException {
+        return open(segment, true);
+    }
+
+    /**
+     * 打开分段的行索引，索引文件不存在或已失效时扫描分段重建
+     * 正在写入的分段的索引文件由 {@link Writer} 以追加方式打开，重建结果不能写回，否则会截断写入器正在追加的文件
+     *
+     * @param segment 分段文件（.log 或 .log.gz）
+     * @param persist 是否保存重建的索引，正在写入的分段传false只在内存中使用
+     * @return 行索引
+     */
+    public static LogLineIndex open(File segment, boolean persist) throws IOException {
+        long contentLength = LogSegmentFiles.contentLength(segment);
+        File indexFile = indexFile(segment);
+        if (indexFile.exists()) {
+            long[] offsets = readOffsets(indexFile, contentLength);
+            if (offsets != null) {
+                return new LogLineIndex(segment, INTERVAL, offsets, contentLength);
+            }
+        }
+        long[] offsets = build(segment, new long[] { 0 });
+        if (persist) {
+            try {
+                writeOffsets(indexFile, offsets, offsets.length);
+            } catch (IOException e) {
+                // 索引目录不可写时只在内存中使用
+            }
+        }
+        return new LogLineIndex(segment, INTERVAL, offsets, contentLength);
+    }
+
+    /**
+     * 读取索引文件，格式不符或偏移超出内容长度时返回null
+     * 正在追加的索引文件末尾可能有不完整的条目，按完整条目读取
+     */
+    private static long[] readOffsets(File indexFile, long contentLength) throws IOException {
+        byte[] bytes = Files.readAllBytes(indexFile.toPath());
+        if (bytes.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (buf.getInt() != MAGIC || buf.getInt() != INTERVAL) {
+            return null;
+        }
+        int count = (bytes.length - HEADER_SIZE) / 8;
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = buf.getLong();
+            if (offsets[i] > contentLength || (i > 0 && offsets[i] <= offsets[i - 1])) {
+                return null;
+            }
+        }
+        return count > 0 ? offsets : null;
+    }
+
+    private static void writeOffsets(File indexFile, long[] offsets, int count) throws IOException {
+        File dir = indexFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建索引目录: " + dir);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + count * 8);
+        buf.putInt(MAGIC).putInt(INTERVAL);
+        for (int i = 0; i < count; i++) {
+            buf.putLong(offsets[i]);
+        }
+        Files.write(indexFile.toPath(), buf.array());
+    }
+
+    /**
+     * 从已有的最后一个检查点开始扫描分段，补全之后的检查点
+     *
+     * @param segment 分段文件
+     * @param base    已有检查点（至少包含 offset[0]）
+     * @return 完整的检查点
+     */
+    private static long[] build(File segment, long[] base) throws IOException {
+        long[] offsets = Arrays.copyOf(base, Math.max(16, base.length * 2));
+        int count = base.length;
+        long lines = (long) (count - 1) * INTERVAL;
+        long position = base[count - 1];
+        try (InputStream in = openAt(segment, position)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n') {
+                        lines++;
+                        if (lines % INTERVAL == 0) {
+                            if (count == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, count * 2);
+                            }
+                            offsets[count++] = position + i + 1;
+                        }
+                    }
+                }
+                position += n;
+            }
+        }
+        // 最后一个检查点正好位于文件末尾时不记录（该行尚不存在）
+        if (count > 1 && offsets[count - 1] >= position) {
+            count--;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * 获取总行数（末尾不完整的行也计为一行）
+     */
+    public long getTotalLines() throws IOException {
+        if (totalLines >= 0) {
+            return totalLines;
+        }
+        int last = offsets.length - 1;
+        long lines = (long) last * interval;
+        long start = offsets[last];
+        if (start < contentLength) {
+            try (InputStream in = openAt(start)) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                long position = start;
+                boolean endsWithNewline = false;
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    for (int i = 0; i < n; i++) {
+                        if (buf[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                    endsWithNewline = buf[n - 1] == '\n';
+                    position += n;
+                }
+                if (position > start && !endsWithNewline) {
+                    lines++;
+                }
+            }
+        }
+        totalLines = lines;
+        return totalLines;
+    }
+
+    /**
+     * 行访问器
+     */
+    @FunctionalInterface
+    public interface LineVisitor {
+        /**
+         * 访问一行
+         *
+         * @param line   行号（从0开始）
+         * @param offset 行起始偏移
+         * @param bytes  行内容缓冲区（不含换行符，调用返回后会被复用）
+         * @param length 行内容长度
+         * @return 是否继续
+         */
+        boolean visit(long line, long offset, byte[] bytes, int length) throws IOException;
+    }
+
+    /**
+     * 从指定行开始顺序访问各行，直到访问器返回false或到达文件末尾
+     *
+     * @param fromLine 起始行号（从0开始）
+     * @param visitor  行访问器
+     */
+    public void scan(long fromLine, LineVisitor visitor) throws IOException {
+        if (fromLine < 0) {
+            return;
+        }
+        int checkpoint = (int) Math.min(fromLine / interval, offsets.length - 1);
+        long lineNo = (long) checkpoint * interval;
+        long start = offsets[checkpoint];
+        if (start >= contentLength) {
+            return;
+        }
+        try (InputStream in = openAt(start)) {
+            byte[] line = new byte[256];
+            int length = 0;
+            long lineOffset = start;
+            long position = start;
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                int lineStart = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != '\n') {
+                        continue;
+                    }
+                    if (lineNo >= fromLine) {
+                        line = append(line, length, buf, lineStart, i - lineStart);
+                        length += i - lineStart;
+                        if (length > 0 && line[length - 1] == '\r') {
+                            length--;
+                        }
+                        if (!visitor.visit(lineNo, lineOffset, line, length)) {
+                            return;
+                        }
+                    }
+                    length = 0;
+                    lineNo++;
+                    lineStart = i + 1;
+                    lineOffset = position + lineStart;
+                }
+                if (lineNo >= fromLine && lineStart < n) {
+                    line = append(line, length, buf, lineStart, n - lineStart);
+                    length += n - lineStart;
+                }
+                position += n;
+            }
+            // 末尾不完整的行
+            if (length > 0) {
+                visitor.visit(lineNo, lineOffset, line, length);
+            }
+        }
+    }
+
+    private static byte[] append(byte[] line, int length, byte[] src, int from, int count) {
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        }
+        System.arraycopy(src, from, line, length, count);
+        return line;
+    }
+
+    /**
+     * 读取指定范围的行
+     *
+     * @param fromLine 起始行号（从0开始）
+     * @param count    最大行数
+     * @return 行内容（不含换行符）
+     */
+    public List<String> readLines(long fromLine, int count) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (count <= 0) {
+            return lines;
+        }
+        scan(fromLine, (line, offset, bytes, length) -> {
+            lines.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            return lines.size() < count;
+        });
+        return lines;
+    }
+
+    /**
+     * 读取最后K行
+     *
+     * @return 行内容，起始行号可通过 getTotalLines() - size 计算
+     */
+    public List<String> tail(int count) throws IOException {
+        long from = Math.max(0, getTotalLines() - count);
+        return readLines(from, count);
+    }
+
+    /**
+     * 获取行的起始偏移所在的检查点（不超过该行的最近检查点偏移）
+     */
+    public long checkpointOffset(long line) {
+        int checkpoint = (int) Math.min(Math.max(line, 0) / interval, offsets.length - 1);
+        return offsets[checkpoint];
+    }
+
+    private InputStream openAt(long offset) throws IOException {
+        return openAt(file, offset);
+    }
+
+    private static InputStream openAt(File file, long offset) throws IOException {
+        return LogSegmentFiles.openStreamAt(file, offset);
+    }
+
+    /**
+     * 行索引增量写入器
+     * 由文件写入服务在持有写入锁时调用，每写入一行调用一次 {@link #onLine(long)}。
+     * 索引写入失败不影响日志写入，之后停止追加（已写入的检查点仍然有效，读取时多扫描一些行）
+     */
+    public static final class Writer implements Closeable {
+
+        private final File indexFile;
+        private final DataOutputStream out;
+        private long lines;
+        private boolean failed;
+
+        private Writer(File indexFile, DataOutputStream out, long lines) {
+            this.indexFile = indexFile;
+            this.out = out;
+            this.lines = lines;
+        }
+
+        /**
+         * 为分段打开写入器
+         * 已有索引文件有效时从其最后一个检查点续建（空闲关闭后重新打开只需扫描最后不足 interval 行），
+         * 索引文件不存在、格式不符或最后一个检查点不在行首时从头扫描重建
+         */
+        public static Writer open(File segment) throws IOException {
+            File indexFile = indexFile(segment);
+            long length = segment.length();
+            long[] offsets = { 0 };
+            if (length > 0) {
+                long[] existing = indexFile.exists() ? readOffsets(indexFile, length) : null;
+                offsets = build(segment, existing != null && isLineStart(segment, existing[existing.length - 1])
+                        ? existing : offsets);
+            }
+            long lines = 0;
+            if (length > 0) {
+                LogLineIndex index = new LogLineIndex(segment, INTERVAL, offsets, length);
+                lines = index.getTotalLines();
+            }
+            writeOffsets(indexFile, offsets, offsets.length);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile, true), 4096));
+            return new Writer(indexFile, out, lines);
+        }
+
+        /**
+         * 检查点是否位于行首（文件开头或紧跟换行符）
+         */
+        private static boolean isLineStart(File segment, long offset) throws IOException {
+            if (offset == 0) {
+                return true;
+            }
+            try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate(1);
+                return channel.read(buf, offset - 1) == 1 && buf.get(0) == '\n';
+            }
+        }
+
+        /**
+         * 记录即将写入的一行
+         *
+         * @param offset 该行的起始偏移
+         */
+        public void onLine(long offset) {
+            if (!failed && lines > 0 && lines % INTERVAL == 0) {
+                try {
+                    out.writeLong(offset);
+                } catch (IOException e) {
+                    failed = true;
+                }
+            }
+            lines++;
+        }
+
+        /**
+         * 将已记录的检查点写入索引文件
+         */
+        public void flush() {
+            if (failed) {
+                return;
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        /**
+         * 已记录的行数
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        public File getIndexFile() {
+            return indexFile;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.aeye.app.deploy.util;
+
+import java.util.Calendar;
+
+/**
+ * 日志行结构化解析器
+ * <p>
+ * 从行首的固定位置一次扫描提取时间、级别、线程和日志器，不复制整行、不转换大小写，
+ * 只有遇到新的线程名或日志器名时才创建字符串（重复的名称从小缓存中复用）。
+ * 不以日志头开头的续行（堆栈、"Caused by:" 等）沿用上一条日志的时间、级别、线程和日志器。
+ * <p>
+ * 解析器有状态，不是线程安全的，每个日志读取线程使用独立的实例（{@link #create(String)}）。
+ * 支持的格式：
+ * <ul>
+ *   <li>logback：Logback/Log4j 布局，以 yyyy-MM-dd HH:mm:ss[.,]SSS 开头，随后的字段中识别级别、[线程]和日志器，
+ *       兼容 Spring Boot 默认格式（含进程号和 ---）</li>
+ *   <li>maven：[INFO]/[WARNING]/[ERROR]/[DEBUG] 前缀</li>
+ *   <li>npm：npm ERR!/npm WARN、webpack 的 ERROR in/WARNING in 等前缀</li>
+ *   <li>plain：只识别行首的级别单词</li>
+ * </ul>
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public abstract class LogLineParser {
+
+    public static final String TYPE_LOGBACK = "logback";
+    public static final String TYPE_MAVEN = "maven";
+    public static final String TYPE_NPM = "npm";
+    public static final String TYPE_PLAIN = "plain";
+
+    public static final String LEVEL_DEBUG = "DEBUG";
+    public static final String LEVEL_INFO = "INFO";
+    public static final String LEVEL_WARN = "WARN";
+    public static final String LEVEL_ERROR = "ERROR";
+
+    /** 名称缓存大小（2的幂） */
+    private static final int NAME_CACHE_SIZE = 64;
+
+    private long time;
+    private String level = LEVEL_INFO;
+    private String thread;
+    private String logger;
+    private boolean continuation;
+
+    /** 最近一次匹配的级别单词结束位置 */
+    private int levelEnd;
+
+    /** 最近一次解析的时间戳结束位置 */
+    protected int timestampEnd;
+
+    private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
+    /** 时间解析：缓存当前小时的起始毫秒数，小时变化时才重新计算 */
+    private final Calendar calendar = Calendar.getInstance();
+    private long cachedHourKey = -1;
+    private long cachedHourMillis;
+
+    /**
+     * 按类型创建解析器，未知类型使用 plain
+     *
+     * @param type logback/log4j、maven、npm、plain
+     */
+    public static LogLineParser create(String type) {
+        if (type == null) {
+            return new PlainLineParser();
+        }
+        switch (type.trim().toLowerCase()) {
+            case TYPE_LOGBACK:
+            case "log4j":
+                return new LogbackLineParser();
+            case TYPE_MAVEN:
+                return new MavenLineParser();
+            case TYPE_NPM:
+                return new NpmLineParser();
+            default:
+                return new PlainLineParser();
+        }
+    }
+
+    /**
+     * 解析一行日志，结果通过 getter 获取（到下一次调用前有效）
+     *
+     * @param line 日志行
+     * @return 是否为日志头（新的一条日志），续行和无法识别的行返回false
+     */
+    public boolean parse(String line) {
+        long now = System.currentTimeMillis();
+        if (line == null || line.isEmpty()) {
+            return parseFallback(now);
+        }
+        if (parseHeader(line, now)) {
+            return true;
+        }
+        if (continuesPrevious(line)) {
+            // 续行沿用上一条日志的字段
+            continuation = true;
+            return false;
+        }
+        return parseFallback(now);
+    }
+
+    private boolean parseFallback(long now) {
+        continuation = false;
+        time = now;
+        level = LEVEL_INFO;
+        thread = null;
+        logger = null;
+        return false;
+    }
+
+    /**
+     * 按格式解析日志头，成功时设置各字段
+     */
+    protected abstract boolean parseHeader(String line, long now);
+
+    /**
+     * 是否为上一条日志的续行：以空白开头，或为异常首行、异常链、被抑制异常和省略帧
+     */
+    protected boolean continuesPrevious(String line) {
+        char c = line.charAt(0);
+        return c == ' ' || c == '\t'
+                || line.startsWith("Caused by:")
+                || line.startsWith("Suppressed:")
+                || line.startsWith("...")
+                || isExceptionHeader(line);
+    }
+
+    /**
+     * 是否为异常首行：全限定类名以 Exception/Error/Throwable 结尾，后面可跟 ": 消息"
+     */
+    private static boolean isExceptionHeader(String line) {
+        int end = line.indexOf(':');
+        if (end < 0) {
+            end = line.length();
+        }
+        boolean dotted = false;
+        for (int i = 0; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '.') {
+                dotted = true;
+            } else if (!Character.isJavaIdentifierPart(c) && c != '$') {
+                return false;
+            }
+        }
+        return dotted && (endsWith(line, end, "Exception") || endsWith(line, end, "Error")
+                || endsWith(line, end, "Throwable"));
+    }
+
+    private static boolean endsWith(String line, int end, String suffix) {
+        return end >= suffix.length() && line.startsWith(suffix, end - suffix.length());
+    }
+
+    /** 最近一行是否为上一条日志的续行 */
+    public boolean isContinuation() {
+        return continuation;
+    }
+
+    /** 日志时间（毫秒） */
+    public long getTime() {
+        return time;
+    }
+
+    /** 日志级别：DEBUG/INFO/WARN/ERROR */
+    public String getLevel() {
+        return level;
+    }
+
+    /** 线程名（未识别时为null） */
+    public String getThread() {
+        return thread;
+    }
+
+    /** 日志器名（未识别时为null） */
+    public String getLogger() {
+        return logger;
+    }
+
+    protected void set(long time, String level, String thread, String logger) {
+        this.continuation = false;
+        this.time = time;
+        this.level = level;
+        this.thread = thread;
+        this.logger = logger;
+    }
+
+    /**
+     * 匹配 pos 处的级别单词（大小写敏感，要求单词边界），返回规范化的级别，未匹配时返回null
+     * 匹配成功时 {@link #levelEnd} 为单词结束位置
+     */
+    protected String matchLevel(String line, int pos) {
+        int end = pos;
+        int length = line.length();
+        while (end < length && isUpper(line.charAt(end))) {
+            end++;
+        }
+        if (end == pos || (end < length && Character.isLetterOrDigit(line.charAt(end)))) {
+            return null;
+        }
+        String result = null;
+        switch (end - pos) {
+            case 4:
+                if (line.startsWith("INFO", pos)) {
+                    result = LEVEL_INFO;
+                } else if (line.startsWith("WARN", pos)) {
+                    result = LEVEL_WARN;
+                }
+                break;
+            case 5:
+                if (line.startsWith("ERROR", pos) || line.startsWith("FATAL", pos)) {
+                    result = LEVEL_ERROR;
+                } else if (line.startsWith("DEBUG", pos) || line.startsWith("TRACE", pos)) {
+                    result = LEVEL_DEBUG;
+                }
+                break;
+            case 6:
+                if (line.startsWith("SEVERE", pos)) {
+                    result = LEVEL_ERROR;
+                }
+                break;
+            case 7:
+                if (line.startsWith("WARNING", pos)) {
+                    result = LEVEL_WARN;
+                }
+                break;
+            default:
+                break;
+        }
+        if (result != null) {
+            levelEnd = end;
+        }
+        return result;
+    }
+
+    protected int getLevelEnd() {
+        return levelEnd;
+    }
+
+    /**
+     * 解析 pos 处的 yyyy-MM-dd[ T]HH:mm:ss[.,]SSS（毫秒可省略），失败时返回-1
+     */
+    protected long parseTimestamp(String line, int pos) {
+        if (line.length() < pos + 19
+                || line.charAt(pos + 4) != '-' || line.charAt(pos + 7) != '-'
+                || (line.charAt(pos + 10) != ' ' && line.charAt(pos + 10) != 'T')
+                || line.charAt(pos + 13) != ':' || line.charAt(pos + 16) != ':') {
+            return -1;
+        }
+        int year = digits(line, pos, 4);
+        int month = digits(line, pos + 5, 2);
+        int day = digits(line, pos + 8, 2);
+        int hour = digits(line, pos + 11, 2);
+        int minute = digits(line, pos + 14, 2);
+        int second = digits(line, pos + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+        int millis = 0;
+        timestampEnd = pos + 19;
+        if (line.length() >= pos + 23 && (line.charAt(pos + 19) == '.' || line.charAt(pos + 19) == ',')) {
+            int value = digits(line, pos + 20, 3);
+            if (value >= 0) {
+                millis = value;
+                timestampEnd = pos + 23;
+            }
+        }
+        long hourKey = ((year * 100L + month) * 100 + day) * 100 + hour;
+        if (hourKey != cachedHourKey) {
+            calendar.clear();
+            calendar.set(year, month - 1, day, hour, 0, 0);
+            cachedHourMillis = calendar.getTimeInMillis();
+            cachedHourKey = hourKey;
+        }
+        return cachedHourMillis + (minute * 60L + second) * 1000L + millis;
+    }
+
+    private static int digits(String line, int pos, int count) {
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 获取 [start, end) 区间的名称，相同名称复用缓存中的字符串
+     */
+    protected String name(String line, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String cached = nameCache[slot];
+        if (cached != null && cached.length() == end - start && line.regionMatches(start, cached, 0, end - start)) {
+            return cached;
+        }
+        String value = line.substring(start, end);
+        nameCache[slot] = value;
+        return value;
+    }
+
+    protected static int skipSpaces(String line, int pos) {
+        while (pos < line.length() && line.charAt(pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isUpper(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    /**
+     * Logback/Log4j 布局
+     * 时间之后最多检查6个字段：级别单词、[线程]、进程号和 --- 跳过，级别之后的第一个普通字段为日志器，
+     * 遇到单独的 ":" 或 "-" 时停止（其后为消息）
+     */
+    static final class LogbackLineParser extends LogLineParser {
+
+        @Override
+        protected boolean parseHeader(String line, long now) {
+            long time = parseTimestamp(line, 0);
+            if (time < 0) {
+                return false;
+            }
+            int pos = timestampEnd;
+            // 跳过时区（如 +08:00 或 Z）
+            while (pos < line.length() && line.charAt(pos) != ' ') {
+                pos++;
+            }
+            String level = null;
+            String thread = null;
+            String logger = null;
+            int length = line.length();
+            for (int field = 0; field < 6; field++) {
+                pos = skipSpaces(line, pos);
+                if (pos >= length) {
+                    break;
+                }
+                char c = line.charAt(pos);
+                if (c == '[') {
+                    int close = line.indexOf(']', pos + 1);
+                    if (close < 0) {
+                        break;
+                    }
+                    int start = skipSpaces(line, pos + 1);
+                    int end = close;
+                    while (end > start && line.charAt(end - 1) == ' ') {
+                        end--;
+                    }
+                    if (thread == null && end > start) {
+                        thread = name(line, start, end);
+                    }
+                    pos = close + 1;
+                    continue;
+                }
+                int end = pos;
+                while (end < length && line.charAt(end) != ' ') {
+                    end++;
+                }
+                if (end - pos == 1 && (c == ':' || c == '-')) {
+                    break;
+                }
+                if (level == null) {
+                    String matched = matchLevel(line, pos);
+                    if (matched != null && getLevelEnd() == end) {
+                        level = matched;
+                        pos = end;
+                        continue;
+                    }
+                }
+                if (line.startsWith("---", pos) || isNumber(line, pos, end)) {
+                    pos = end;
+                    continue;
+                }
+                if (level != null && logger == null) {
+                    // "Logger:" 形式的日志器去掉结尾的冒号
+                    int loggerEnd = line.charAt(end - 1) == ':' ? end - 1 : end;
+                    if (loggerEnd > pos) {
+                        logger = name(line, pos, loggerEnd);
+                    }
+                    pos = end;
+                    continue;
+                }
+                break;
+            }
+            set(time, level != null ? level : LEVEL_INFO, thread, logger);
+            return true;
+        }
+
+        private static boolean isNumber(String line, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Maven 输出：[INFO]/[WARNING]/[ERROR]/[DEBUG] 前缀
+     */
+    static final class MavenLineParser extends LogLineParser {
+
+        @Override
+        protected boolean parseHeader(String line, long now) {
+            if (line.charAt(0) != '[') {
+                return false;
+            }
+            String level = matchLevel(line, 1);
+            if (level == null || getLevelEnd() >= line.length() || line.charAt(getLevelEnd()) != ']') {
+                return false;
+            }
+            set(now, level, null, null);
+            return true;
+        }
+    }
+
+    /**
+     * npm/yarn/webpack 输出
+     */
+    static final class NpmLineParser extends LogLineParser {
+
+        @Override
+        protected boolean parseHeader(String line, long now) {
+            String level = null;
+            if (line.startsWith("npm ")) {
+                if (line.startsWith("ERR!", 4) || line.startsWith("error", 4)) {
+                    level = LEVEL_ERROR;
+                } else if (line.startsWith("WARN", 4) || line.startsWith("warn", 4)) {
+                    level = LEVEL_WARN;
+                } else {
+                    level = LEVEL_INFO;
+                }
+            } else if (line.startsWith("ERROR in ") || line.startsWith("error ") || line.startsWith("ERROR ")) {
+                level = LEVEL_ERROR;
+            } else if (line.startsWith("WARNING in ") || line.startsWith("warning ") || line.startsWith("WARN ")) {
+                level = LEVEL_WARN;
+            }
+            if (level == null) {
+                return false;
+            }
+            set(now, level, null, null);
+            return true;
+        }
+    }
+
+    /**
+     * 纯文本输出：只识别行首（可带方括号）的级别单词
+     */
+    static final class PlainLineParser extends LogLineParser {
+
+        @Override
+        protected boolean parseHeader(String line, long now) {
+            int pos = line.charAt(0) == '[' ? 1 : 0;
+            String level = matchLevel(line, pos);
+            if (level == null) {
+                return false;
+            }
+            set(now, level, null, null);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.aeye.app.deploy.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单个应用的日志限流令牌桶
+ * <p>
+ * 每秒补充 rate 个令牌，最多累积 burst 个，每行日志消耗一个令牌，没有令牌时丢弃该行。
+ * 被丢弃的行数和字节数一方面累计到总计数，一方面计入待汇总数，
+ * 由调用方定期通过 {@link #takeSummary(long, long)} 取出并生成"已丢弃N行"的汇总日志
+ * （汇总可能写入失败时通过 {@link #peekSummary(long, long)} 查看，写出后再 {@link #commitSummary(long[], long)}）。
+ * 速率不大于0时不限流，只统计放行行数。线程安全。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public class LogRateLimiter {
+
+    /** 汇总日志的日志器名，限流器对该日志器的日志直接放行 */
+    public static final String SUMMARY_LOGGER = "log-rate-limit";
+
+    private final int rate;
+    private final int burst;
+
+    private double tokens;
+    private long lastRefillTime;
+
+    private long acceptedLines;
+    private long suppressedLines;
+    private long suppressedBytes;
+    private long summaries;
+
+    private long pendingLines;
+    private long pendingBytes;
+    /** 待汇总区间的开始时间（第一次丢弃的时间） */
+    private long pendingSince;
+    private long lastSummaryTime;
+
+    /**
+     * @param rate  每秒放行行数，不大于0表示不限流
+     * @param burst 最大突发行数，小于 rate 时按 rate 处理
+     */
+    public LogRateLimiter(int rate, int burst) {
+        this.rate = Math.max(0, rate);
+        this.burst = Math.max(this.rate, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * 是否限流
+     */
+    public boolean isLimited() {
+        return rate > 0;
+    }
+
+    /**
+     * 尝试放行一行日志
+     *
+     * @param now   当前时间（毫秒）
+     * @param bytes 日志内容长度，用于统计丢弃字节数
+     * @return 是否放行
+     */
+    public synchronized boolean tryAcquire(long now, long bytes) {
+        if (rate > 0) {
+            if (lastRefillTime > 0 && now > lastRefillTime) {
+                tokens = Math.min(burst, tokens + (now - lastRefillTime) * rate / 1000.0);
+            }
+            lastRefillTime = Math.max(lastRefillTime, now);
+            if (tokens < 1) {
+                if (pendingLines == 0) {
+                    pendingSince = now;
+                }
+                pendingLines++;
+                pendingBytes += bytes;
+                suppressedLines++;
+                suppressedBytes += bytes;
+                return false;
+            }
+            tokens--;
+        }
+        acceptedLines++;
+        return true;
+    }
+
+    /**
+     * 取出需要汇总的丢弃行数和字节数，距上次汇总不足间隔或没有丢弃时返回null
+     *
+     * @param now        当前时间（毫秒）
+     * @param intervalMs 最小汇总间隔（毫秒）
+     * @return {丢弃行数, 丢弃字节数, 区间开始时间}
+     */
+    public synchronized long[] takeSummary(long now, long intervalMs) {
+        if (pendingLines == 0 || now - lastSummaryTime < intervalMs) {
+            return null;
+        }
+        long[] summary = { pendingLines, pendingBytes, pendingSince };
+        pendingLines = 0;
+        pendingBytes = 0;
+        lastSummaryTime = now;
+        summaries++;
+        return summary;
+    }
+
+    /**
+     * 查看需要汇总的丢弃行数和字节数（不重置待汇总数），汇总写出后调用 {@link #commitSummary(long[], long)}，
+     * 用于汇总可能写入失败的场景
+     *
+     * @param now        当前时间（毫秒）
+     * @param intervalMs 最小汇总间隔（毫秒）
+     * @return {丢弃行数, 丢弃字节数, 区间开始时间}，距上次汇总不足间隔或没有丢弃时返回null
+     */
+    public synchronized long[] peekSummary(long now, long intervalMs) {
+        if (pendingLines == 0 || now - lastSummaryTime < intervalMs) {
+            return null;
+        }
+        return new long[] { pendingLines, pendingBytes, pendingSince };
+    }
+
+    /**
+     * 确认汇总已写出，从待汇总数中扣除（查看之后新增的丢弃留待下次汇总）
+     *
+     * @param summary {@link #peekSummary(long, long)} 的返回值
+     * @param now     当前时间（毫秒）
+     */
+    public synchronized void commitSummary(long[] summary, long now) {
+        pendingLines = Math.max(0, pendingLines - summary[0]);
+        pendingBytes = Math.max(0, pendingBytes - summary[1]);
+        if (pendingLines > 0) {
+            pendingSince = now;
+        }
+        lastSummaryTime = now;
+        summaries++;
+    }
+
+    /**
+     * 生成汇总日志内容
+     */
+    public String formatSummary(String target, long[] summary, long now) {
+        long seconds = Math.max(1, (now - summary[2] + 999) / 1000);
+        return String.format("[日志限流] 最近 %d 秒内超出%s限额（%d 行/秒，突发 %d 行），已丢弃 %d 行（%d 字节）",
+                seconds, target, rate, burst, summary[0], summary[1]);
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * 限额和统计
+     */
+    public synchronized Map<String, Object> describe() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rate", rate);
+        result.put("burst", burst);
+        result.put("acceptedLines", acceptedLines);
+        result.put("suppressedLines", suppressedLines);
+        result.put("suppressedBytes", suppressedBytes);
+        result.put("pendingLines", pendingLines);
+        result.put("summaries", summaries);
+        return result;
+    }
+}
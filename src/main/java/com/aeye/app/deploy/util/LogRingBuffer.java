@@ -0,0 +1,421 @@
+package com.aeye.app.deploy.util;
+
+import com.aeye.app.deploy.model.AppLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 日志环形缓冲区
+ * <p>
+ * 每个应用一个实例，槽位数组在创建时一次性预分配，包括：
+ * <ul>
+ *   <li>写入：分配应用内递增序号，写入 seq % capacity 槽位，直接覆盖最旧日志，不产生链表节点</li>
+ *   <li>读取：根据序号直接计算槽位下标，O(1) 定位，读取过程无锁（wait-free）</li>
+ *   <li>清空：只推进有效起始序号，序号在会话之间保持单调递增，客户端持有的 afterSeq 不会失效</li>
+ * </ul>
+ * 序号只在进程内单调递增，进程重启后从1开始，客户端断点需要同时记录 {@link #EPOCH}，
+ * 纪元不同时说明序号已重新开始。
+ * 写入方按应用串行（同一应用通常只有一个日志读取线程），读取方通过校验槽位中日志的序号
+ * 识别已被覆盖的槽位并跳过。
+ * <p>
+ * 同时作为日志管道的唯一序列化载体：每行日志只发布一次，文件写入、WebSocket推送等消费者
+ * 各自维护消费序号，按序号从缓冲区读取同一个 {@link AppLog} 实例。
+ * 不允许丢日志的消费者注册为门控消费者（gating），写入方在覆盖其未消费的槽位前等待，
+ * 等待超过上限后才覆盖并计入溢出条数，这是整条管道唯一的背压点。
+ * 等待在发布锁之外进行；一次等待超时后进入停滞状态，门控消费者追上之前后续写入直接覆盖不再等待，
+ * 因此门控消费者停滞（如磁盘写入失败）时每次停滞最多阻塞写入方一个等待周期，不会拖慢后续每一行。
+ * <p>
+ * 除条数上限外还按字节数限制内存占用：每条日志按估算的堆内大小计入，超过字节上限时
+ * 从最旧的日志开始淘汰（只淘汰门控消费者已处理的日志），字节上限可在运行期调整。
+ * <p>
+ * 槽位内容的存放方式由 {@link LogEntryStore} 决定（堆内对象或堆外字节），对调用方透明。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public class LogRingBuffer {
+
+    /** 序号纪元（进程启动时间），所有缓冲区共用，进程重启后变化 */
+    public static final long EPOCH = System.currentTimeMillis();
+
+    /** 槽位容量（即每应用最大缓存条数） */
+    private final int capacity;
+
+    /** 槽位存储 */
+    private final LogEntryStore store;
+
+    /** 最新已发布日志的序号，0 表示尚未写入任何日志 */
+    private volatile long lastSeq = 0;
+
+    /** 已清空的序号上界，序号不大于此值的日志视为无效 */
+    private volatile long clearedSeq = 0;
+
+    /** 门控消费者的消费序号（已处理完成的最大序号） */
+    private final List<AtomicLong> gatingSequences = new CopyOnWriteArrayList<>();
+
+    /** 门控消费者的唤醒回调（缓冲区满时通知消费者尽快处理） */
+    private final List<Runnable> gatingWakeups = new CopyOnWriteArrayList<>();
+
+    /** 背压最大等待时间（纳秒） */
+    private final long maxWaitNanos;
+
+    /** 强制覆盖门控消费者未消费槽位的条数 */
+    private final AtomicLong overruns = new AtomicLong(0);
+
+    /** 门控消费者停滞：等待已超时且消费者尚未追上，期间写入方不再等待 */
+    private volatile boolean stalled;
+
+    /** 进入停滞状态的次数 */
+    private final AtomicLong stalls = new AtomicLong(0);
+
+    /** 各槽位日志的估算字节数（仅在持有锁时读写） */
+    private final int[] slotBytes;
+
+    /** 计入字节统计的最小序号，序号在 [tailSeq, lastSeq] 内的日志占用内存 */
+    private volatile long tailSeq = 1;
+
+    /** 当前保留日志的估算字节数 */
+    private volatile long bytes = 0;
+
+    /** 字节上限，Long.MAX_VALUE 表示不限制 */
+    private volatile long byteLimit = Long.MAX_VALUE;
+
+    /** 累计发布的字节数（用于统计生产速率） */
+    private final AtomicLong publishedBytes = new AtomicLong(0);
+
+    /** 因字节上限淘汰的日志条数 */
+    private final AtomicLong byteEvictions = new AtomicLong(0);
+
+    /** 因条数上限被覆盖的日志条数 */
+    private final AtomicLong capacityEvictions = new AtomicLong(0);
+
+    public LogRingBuffer(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * 创建使用堆内存储的环形缓冲区
+     *
+     * @param capacity  槽位容量
+     * @param maxWaitMs 门控消费者落后时写入方的最大等待时间（毫秒）
+     */
+    public LogRingBuffer(int capacity, long maxWaitMs) {
+        this(new HeapLogEntryStore(capacity), maxWaitMs);
+    }
+
+    /**
+     * @param store     槽位存储（容量即槽位数）
+     * @param maxWaitMs 门控消费者落后时写入方的最大等待时间（毫秒）
+     */
+    public LogRingBuffer(LogEntryStore store, long maxWaitMs) {
+        int capacity = store.getCapacity();
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.store = store;
+        this.slotBytes = new int[capacity];
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+    }
+
+    /**
+     * 注册门控消费者
+     * 写入方不会覆盖该消费者尚未处理的槽位（等待超时除外）
+     *
+     * @param wakeup 缓冲区满时的唤醒回调，可为null
+     * @return 消费序号，消费者处理完成后通过 set 推进
+     */
+    public AtomicLong addGatingSequence(Runnable wakeup) {
+        AtomicLong sequence = new AtomicLong(lastSeq);
+        gatingSequences.add(sequence);
+        if (wakeup != null) {
+            gatingWakeups.add(wakeup);
+        }
+        return sequence;
+    }
+
+    /**
+     * 发布日志到缓冲区
+     * 分配序号并写入对应槽位，缓冲区已满时覆盖最旧的日志
+     * 门控消费者落后时先在锁外等待，再持锁写入
+     *
+     * @param log 日志对象（seq字段由本方法设置）
+     * @return 分配的序号
+     */
+    public long publish(AppLog log) {
+        awaitGatingSequences();
+        return publishSlot(log);
+    }
+
+    private synchronized long publishSlot(AppLog log) {
+        long seq = lastSeq + 1;
+        if (seq - capacity > minGatingSequence()) {
+            overruns.incrementAndGet();
+        }
+        // 即将覆盖的槽位仍计入字节统计时先扣除
+        if (seq - capacity >= tailSeq) {
+            releaseTail();
+            capacityEvictions.incrementAndGet();
+        }
+        log.setSeq(seq);
+        int index = index(seq);
+        int size = store.store(index, seq, log);
+        slotBytes[index] = size;
+        bytes += size;
+        publishedBytes.addAndGet(size);
+        // volatile写，保证读取方看到lastSeq时槽位内容已可见
+        lastSeq = seq;
+        evictOverLimit();
+        return seq;
+    }
+
+    /**
+     * 调整字节上限
+     * 立即按新上限淘汰最旧的日志
+     *
+     * @param limit 字节上限
+     */
+    public synchronized void setByteLimit(long limit) {
+        this.byteLimit = limit > 0 ? limit : Long.MAX_VALUE;
+        evictOverLimit();
+    }
+
+    /**
+     * 超过字节上限时淘汰最旧的日志
+     * 只淘汰门控消费者已处理的日志，且至少保留最新一条
+     */
+    private void evictOverLimit() {
+        if (bytes <= byteLimit) {
+            return;
+        }
+        long evictTo = Math.min(lastSeq - 1, minGatingSequence());
+        while (bytes > byteLimit && tailSeq <= evictTo) {
+            releaseTail();
+            byteEvictions.incrementAndGet();
+        }
+        if (bytes > byteLimit) {
+            // 剩余部分尚未被门控消费者处理，通知其尽快处理，下次写入时继续淘汰
+            for (Runnable wakeup : gatingWakeups) {
+                wakeup.run();
+            }
+        }
+    }
+
+    /**
+     * 释放最旧一条日志、扣除其字节数并推进tailSeq（需要在持有锁的情况下调用）
+     */
+    private void releaseTail() {
+        int index = index(tailSeq);
+        store.release(index, tailSeq);
+        bytes -= slotBytes[index];
+        slotBytes[index] = 0;
+        tailSeq++;
+    }
+
+    /**
+     * 等待门控消费者让出即将覆盖的槽位（不持有发布锁）
+     * 停滞状态下不等待，门控消费者追上覆盖位置后解除停滞
+     */
+    private void awaitGatingSequences() {
+        long wrapPoint = lastSeq + 1 - capacity;
+        if (wrapPoint <= 0 || wrapPoint <= minGatingSequence()) {
+            stalled = false;
+            return;
+        }
+        for (Runnable wakeup : gatingWakeups) {
+            wakeup.run();
+        }
+        if (stalled) {
+            return;
+        }
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (lastSeq + 1 - capacity > minGatingSequence()) {
+            if (System.nanoTime() - deadline >= 0) {
+                stalled = true;
+                stalls.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(100_000L);
+        }
+    }
+
+    private long minGatingSequence() {
+        long min = Long.MAX_VALUE;
+        for (AtomicLong sequence : gatingSequences) {
+            min = Math.min(min, sequence.get());
+        }
+        return min;
+    }
+
+    /**
+     * 按序号获取日志
+     *
+     * @param seq 序号
+     * @return 日志对象，序号不在有效范围内或已被覆盖时返回null
+     */
+    public AppLog get(long seq) {
+        long last = lastSeq;
+        if (seq > last || seq < firstSeq(last)) {
+            return null;
+        }
+        return store.load(index(seq), seq);
+    }
+
+    /**
+     * 增量读取序号大于afterSeq的日志
+     *
+     * @param afterSeq 起始序号（不包含）
+     * @param limit    返回数量限制，小于等于0表示不限制
+     * @return 按序号递增排列的日志列表
+     */
+    public List<AppLog> readAfter(long afterSeq, int limit) {
+        long last = lastSeq;
+        long from = Math.max(afterSeq + 1, firstSeq(last));
+        if (from > last) {
+            return new ArrayList<>(0);
+        }
+        long to = last;
+        if (limit > 0 && to - from + 1 > limit) {
+            to = from + limit - 1;
+        }
+        List<AppLog> result = new ArrayList<>((int) (to - from + 1));
+        for (long seq = from; seq <= to; seq++) {
+            AppLog log = store.load(index(seq), seq);
+            // 读取期间槽位可能已被写入方覆盖，序号不一致时跳过
+            if (log != null) {
+                result.add(log);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 消费者读取序号从fromSeq开始的日志
+     * 与 {@link #readAfter} 不同，不受清空操作影响，门控消费者据此处理清空前尚未消费的日志
+     *
+     * @param fromSeq 起始序号（包含）
+     * @param limit   最大读取条数
+     * @return 日志列表，若起始部分已被覆盖则从仍保留的最小序号开始
+     */
+    public List<AppLog> readFrom(long fromSeq, int limit) {
+        long last = lastSeq;
+        long from = Math.max(fromSeq, Math.max(tailSeq, last - capacity + 1));
+        if (from > last || limit <= 0) {
+            return new ArrayList<>(0);
+        }
+        long to = Math.min(last, from + limit - 1);
+        List<AppLog> result = new ArrayList<>((int) (to - from + 1));
+        for (long seq = from; seq <= to; seq++) {
+            AppLog log = store.load(index(seq), seq);
+            if (log != null) {
+                result.add(log);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 清空缓冲区
+     * 释放门控消费者已处理的槽位引用，序号不回退
+     */
+    public synchronized void clear() {
+        long last = lastSeq;
+        clearedSeq = last;
+        long releaseTo = Math.min(last, minGatingSequence());
+        while (tailSeq <= releaseTo) {
+            releaseTail();
+        }
+    }
+
+    /**
+     * 关闭缓冲区，释放槽位存储占用的资源（如堆外内存段）
+     */
+    public synchronized void close() {
+        store.close();
+    }
+
+    /**
+     * 获取当前有效的最小序号
+     */
+    public long getFirstSeq() {
+        return firstSeq(lastSeq);
+    }
+
+    /**
+     * 获取最新已发布日志的序号
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * 获取当前缓存的日志条数
+     */
+    public int size() {
+        long last = lastSeq;
+        return (int) Math.max(0, last - firstSeq(last) + 1);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 获取门控消费者落后导致强制覆盖的条数
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * 获取门控消费者停滞（等待超时）的次数
+     */
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    /**
+     * 获取当前保留日志的估算字节数
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getByteLimit() {
+        return byteLimit;
+    }
+
+    /**
+     * 获取累计发布的估算字节数
+     */
+    public long getPublishedBytes() {
+        return publishedBytes.get();
+    }
+
+    /**
+     * 获取因字节上限淘汰的日志条数
+     */
+    public long getByteEvictions() {
+        return byteEvictions.get();
+    }
+
+    /**
+     * 获取因条数上限被覆盖的日志条数
+     */
+    public long getCapacityEvictions() {
+        return capacityEvictions.get();
+    }
+
+    private long firstSeq(long last) {
+        return Math.max(Math.max(clearedSeq + 1, tailSeq), last - capacity + 1);
+    }
+
+    private int index(long seq) {
+        return (int) (seq % capacity);
+    }
+}
@@ -0,0 +1,426 @@
+package com.aeye.app.deploy.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 日志分段文件工具类
+ * <p>
+ * 日志分段文件命名为 appCode_version_x-y.log，封存后可能被压缩为 appCode_version_x-y.log.gz。
+ * 本类对两种形式提供统一的读取方式，读取方看到的始终是解压后的内容。
+ * <p>
+ * 压缩分段由多个独立的 gzip 成员首尾相接组成（每个成员约 {@link #MEMBER_SIZE} 字节原始内容），
+ * 各成员的起始位置记录在 .idx 目录下的 &lt;baseName&gt;.gzx 文件中：
+ * <pre>
+ *   int magic ("GZMX") | int count | long contentLength | long fileLength | (long contentOffset, long fileOffset) * count
+ * </pre>
+ * 定位读取（{@link #openStreamAt(File, long)}）从不超过目标偏移的最近成员开始解压，最多跳过一个成员的内容。
+ * 没有成员索引的压缩分段（旧版本压缩的单个 gzip 流）只能从头解压。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public final class LogSegmentFiles {
+
+    /** 日志分段文件后缀 */
+    public static final String LOG_SUFFIX = ".log";
+
+    /** 压缩分段文件后缀 */
+    public static final String GZIP_SUFFIX = ".log.gz";
+
+    /** 压缩分段成员索引文件后缀 */
+    public static final String MEMBER_INDEX_SUFFIX = ".gzx";
+
+    /** 压缩分段单个 gzip 成员的原始内容大小 */
+    public static final int MEMBER_SIZE = 64 * 1024;
+
+    private static final int MEMBER_INDEX_MAGIC = 0x475A4D58;
+
+    private static final int MEMBER_INDEX_HEADER_SIZE = 24;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private LogSegmentFiles() {
+    }
+
+    /**
+     * 是否为日志分段文件（未压缩或已压缩）
+     */
+    public static boolean isLogFile(String fileName) {
+        return fileName.endsWith(LOG_SUFFIX) || fileName.endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * 是否为压缩分段文件
+     */
+    public static boolean isCompressed(File file) {
+        return file.getName().endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * 获取分段文件名去掉后缀后的部分（appCode_version_x-y）
+     */
+    public static String baseName(String fileName) {
+        if (fileName.endsWith(GZIP_SUFFIX)) {
+            return fileName.substring(0, fileName.length() - GZIP_SUFFIX.length());
+        }
+        if (fileName.endsWith(LOG_SUFFIX)) {
+            return fileName.substring(0, fileName.length() - LOG_SUFFIX.length());
+        }
+        return fileName;
+    }
+
+    /**
+     * 获取未压缩分段文件对应的压缩文件
+     */
+    public static File compressedFile(File logFile) {
+        return new File(logFile.getParentFile(), logFile.getName() + ".gz");
+    }
+
+    /**
+     * 获取同一次运行中的前一个滚动分段（appCode_version_x-(y-1)，未压缩或已压缩）
+     *
+     * @return 前一个分段，当前已是第一个分段、文件名不符合命名规则或前一个分段已被清理时返回null
+     */
+    public static File previousSegment(File segment) {
+        String baseName = baseName(segment.getName());
+        int dash = baseName.lastIndexOf('-');
+        int underscore = baseName.lastIndexOf('_');
+        if (dash < 0 || underscore > dash) {
+            return null;
+        }
+        int fileSeq;
+        try {
+            fileSeq = Integer.parseInt(baseName.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (fileSeq <= 1) {
+            return null;
+        }
+        String previous = baseName.substring(0, dash + 1) + (fileSeq - 1);
+        File logFile = new File(segment.getParentFile(), previous + LOG_SUFFIX);
+        if (logFile.isFile()) {
+            return logFile;
+        }
+        File compressed = new File(segment.getParentFile(), previous + GZIP_SUFFIX);
+        return compressed.isFile() ? compressed : null;
+    }
+
+    /**
+     * 获取解压后的内容大小
+     * 有成员索引的压缩文件使用索引记录的原始长度；否则读取gzip尾部记录的原始长度
+     * （ISIZE，按2^32取模，单个分段不会超过该上限）
+     */
+    public static long contentLength(File file) throws IOException {
+        if (!isCompressed(file)) {
+            return file.length();
+        }
+        MemberIndex members = readMemberIndex(file);
+        if (members != null) {
+            return members.contentLength;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < 4) {
+                return 0;
+            }
+            raf.seek(raf.length() - 4);
+            int b0 = raf.read();
+            int b1 = raf.read();
+            int b2 = raf.read();
+            int b3 = raf.read();
+            return ((long) b3 << 24 | b2 << 16 | b1 << 8 | b0) & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * 打开分段文件的输入流（压缩文件自动解压）
+     */
+    public static InputStream openStream(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (!isCompressed(file)) {
+            return new BufferedInputStream(in, BUFFER_SIZE);
+        }
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开分段文件从解压后内容的指定偏移开始的输入流
+     * 未压缩文件直接定位；有成员索引的压缩文件从不超过偏移的最近成员开始解压，否则从头解压跳过
+     */
+    public static InputStream openStreamAt(File file, long offset) throws IOException {
+        if (!isCompressed(file)) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            channel.position(offset);
+            return new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+        }
+        MemberIndex members = offset > 0 ? readMemberIndex(file) : null;
+        InputStream in;
+        long position = 0;
+        if (members != null) {
+            int member = members.find(offset);
+            position = members.contentOffsets[member];
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            channel.position(members.fileOffsets[member]);
+            InputStream raw = Channels.newInputStream(channel);
+            try {
+                in = new GZIPInputStream(raw, BUFFER_SIZE);
+            } catch (IOException e) {
+                raw.close();
+                throw e;
+            }
+        } else {
+            in = openStream(file);
+        }
+        long remaining = offset - position;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                break;
+            }
+            remaining -= skipped;
+        }
+        return in;
+    }
+
+    /**
+     * 是否可以定位读取（未压缩，或压缩分段有成员索引）
+     */
+    public static boolean isSeekable(File file) throws IOException {
+        return !isCompressed(file) || readMemberIndex(file) != null;
+    }
+
+    /**
+     * 获取压缩分段的成员索引文件
+     */
+    public static File memberIndexFile(File segment) {
+        File dir = new File(segment.getParentFile(), ".idx");
+        return new File(dir, baseName(segment.getName()) + MEMBER_INDEX_SUFFIX);
+    }
+
+    /**
+     * 写入压缩分段的成员索引
+     *
+     * @param indexFile      索引文件
+     * @param contentOffsets 各成员起始位置的原始内容偏移
+     * @param fileOffsets    各成员在压缩文件中的起始偏移
+     * @param count          成员数
+     * @param contentLength  原始内容长度
+     * @param fileLength     压缩文件长度（读取时用于校验索引与压缩文件对应）
+     */
+    public static void writeMemberIndex(File indexFile, long[] contentOffsets, long[] fileOffsets, int count,
+            long contentLength, long fileLength) throws IOException {
+        File dir = indexFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建索引目录: " + dir);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(MEMBER_INDEX_HEADER_SIZE + count * 16);
+        buf.putInt(MEMBER_INDEX_MAGIC).putInt(count).putLong(contentLength).putLong(fileLength);
+        for (int i = 0; i < count; i++) {
+            buf.putLong(contentOffsets[i]).putLong(fileOffsets[i]);
+        }
+        Files.write(indexFile.toPath(), buf.array());
+    }
+
+    /**
+     * 读取压缩分段的成员索引，不存在、格式不符或与压缩文件长度不一致时返回null
+     */
+    private static MemberIndex readMemberIndex(File file) throws IOException {
+        File indexFile = memberIndexFile(file);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(indexFile.toPath());
+        if (bytes.length < MEMBER_INDEX_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int count = buf.getInt() == MEMBER_INDEX_MAGIC ? buf.getInt() : -1;
+        long contentLength = buf.getLong();
+        long fileLength = buf.getLong();
+        if (count <= 0 || bytes.length != MEMBER_INDEX_HEADER_SIZE + count * 16 || fileLength != file.length()) {
+            return null;
+        }
+        long[] contentOffsets = new long[count];
+        long[] fileOffsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            contentOffsets[i] = buf.getLong();
+            fileOffsets[i] = buf.getLong();
+        }
+        return new MemberIndex(contentOffsets, fileOffsets, contentLength);
+    }
+
+    /**
+     * 压缩分段的成员索引
+     */
+    private static final class MemberIndex {
+        final long[] contentOffsets;
+        final long[] fileOffsets;
+        final long contentLength;
+
+        MemberIndex(long[] contentOffsets, long[] fileOffsets, long contentLength) {
+            this.contentOffsets = contentOffsets;
+            this.fileOffsets = fileOffsets;
+            this.contentLength = contentLength;
+        }
+
+        /**
+         * 不超过原始内容偏移的最近成员
+         */
+        int find(long offset) {
+            int i = Arrays.binarySearch(contentOffsets, offset);
+            return i >= 0 ? i : Math.max(0, -i - 2);
+        }
+    }
+
+    /**
+     * 从解压后内容的指定偏移读取最多limit个字节
+     * 未压缩文件直接定位读取；压缩文件读取结束后保留解压位置（见 {@link #takeCursor}），
+     * 按页顺序读取时下一页从上一页结束处继续解压，跳转时从最近的 gzip 成员开始解压（见 {@link #openStreamAt}）
+     */
+    public static byte[] readRange(File file, long offset, int limit) throws IOException {
+        if (!isCompressed(file)) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                long size = raf.length();
+                if (offset >= size) {
+                    return new byte[0];
+                }
+                raf.seek(offset);
+                byte[] bytes = new byte[(int) Math.min(limit, size - offset)];
+                raf.readFully(bytes);
+                return bytes;
+            }
+        }
+        GzipCursor cursor = takeCursor(file, offset);
+        boolean keep = false;
+        try {
+            InputStream in = cursor.in;
+            long remaining = offset - cursor.position;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    return new byte[0];
+                }
+                remaining -= skipped;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(limit, BUFFER_SIZE));
+            byte[] buf = new byte[Math.min(limit, BUFFER_SIZE)];
+            int total = 0;
+            int n = 0;
+            while (total < limit && (n = in.read(buf, 0, Math.min(buf.length, limit - total))) > 0) {
+                out.write(buf, 0, n);
+                total += n;
+            }
+            if (n >= 0 && total == limit) {
+                cursor.position = offset + total;
+                keep = true;
+            }
+            return out.toByteArray();
+        } finally {
+            if (keep) {
+                putCursor(cursor);
+            } else {
+                closeQuietly(cursor.in);
+            }
+        }
+    }
+
+    /** 保留的压缩分段解压位置数量上限 */
+    private static final int MAX_CURSORS = 16;
+
+    /** 解压位置的最长空闲时间（毫秒），超过后关闭 */
+    private static final long CURSOR_IDLE_MS = 60_000L;
+
+    /** 保留的解压位置，按使用顺序排列，访问时持有自身锁 */
+    private static final List<GzipCursor> cursors = new LinkedList<>();
+
+    /**
+     * 压缩分段的解压位置（打开的解压流及其已读取到的解压后偏移）
+     */
+    private static final class GzipCursor {
+        final File file;
+        final long lastModified;
+        final InputStream in;
+        long position;
+        long lastUsed;
+
+        GzipCursor(File file, long lastModified, InputStream in) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.in = in;
+        }
+    }
+
+    /**
+     * 取出同一文件中不超过offset的最近解压位置，没有时从offset处打开
+     * 取出的位置由调用方独占，读取后通过 {@link #putCursor} 放回
+     */
+    private static GzipCursor takeCursor(File file, long offset) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        long lastModified = absolute.lastModified();
+        GzipCursor best = null;
+        synchronized (cursors) {
+            expireCursors(System.currentTimeMillis());
+            for (GzipCursor cursor : cursors) {
+                if (cursor.file.equals(absolute) && cursor.lastModified == lastModified
+                        && cursor.position <= offset && (best == null || cursor.position > best.position)) {
+                    best = cursor;
+                }
+            }
+            // 保留的位置距离目标超过一个成员时，从最近的成员开始解压更快
+            if (best != null && (offset - best.position <= MEMBER_SIZE || !isSeekable(absolute))) {
+                cursors.remove(best);
+                return best;
+            }
+        }
+        GzipCursor cursor = new GzipCursor(absolute, lastModified, openStreamAt(absolute, offset));
+        cursor.position = offset;
+        return cursor;
+    }
+
+    private static void putCursor(GzipCursor cursor) {
+        cursor.lastUsed = System.currentTimeMillis();
+        synchronized (cursors) {
+            cursors.add(cursor);
+            while (cursors.size() > MAX_CURSORS) {
+                closeQuietly(cursors.remove(0).in);
+            }
+        }
+    }
+
+    /**
+     * 关闭空闲超时的解压位置（需要持有 cursors 锁）
+     */
+    private static void expireCursors(long now) {
+        Iterator<GzipCursor> it = cursors.iterator();
+        while (it.hasNext()) {
+            GzipCursor cursor = it.next();
+            if (now - cursor.lastUsed > CURSOR_IDLE_MS) {
+                closeQuietly(cursor.in);
+                it.remove();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
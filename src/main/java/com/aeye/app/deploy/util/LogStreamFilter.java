@@ -0,0 +1,218 @@
+package com.aeye.app.deploy.util;
+
+import com.aeye.app.deploy.model.AppLog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 日志订阅过滤器
+ * <p>
+ * 由订阅会话在握手参数或控制消息中指定，推送线程在编码之前过滤批次，被过滤的日志不会被序列化：
+ * <ul>
+ *   <li>minLevel：最低级别，无法识别级别的日志按 INFO 处理</li>
+ *   <li>include / exclude：对日志内容做正则查找，创建时编译一次</li>
+ *   <li>maxRate：每秒最多推送的行数（令牌桶，允许一秒的突发），超出的行丢弃并定期汇总通知</li>
+ * </ul>
+ * 级别和正则条件相同的过滤器结果相同，可通过 {@link #getKey()} 共享过滤和编码结果；
+ * 限流有会话状态，不共享。非线程安全，由持有推送锁的线程调用。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public class LogStreamFilter {
+
+    /** 正则表达式的最大长度 */
+    public static final int MAX_PATTERN_LENGTH = 256;
+
+    /** 限流汇总通知的最小间隔（毫秒） */
+    private static final long SAMPLED_NOTICE_INTERVAL_MS = 1000;
+
+    /** 不过滤 */
+    public static final LogStreamFilter NONE = new LogStreamFilter(0, null, null, 0);
+
+    private final int minLevel;
+    private final Pattern include;
+    private final Pattern exclude;
+    private final int maxRate;
+    private final String key;
+
+    private double tokens;
+    private long lastRefillTime;
+    private long pendingSampled;
+    private long lastNoticeTime;
+
+    private long filteredLines;
+    private long sampledLines;
+
+    private LogStreamFilter(int minLevel, Pattern include, Pattern exclude, int maxRate) {
+        this.minLevel = minLevel;
+        this.include = include;
+        this.exclude = exclude;
+        this.maxRate = maxRate;
+        this.tokens = maxRate;
+        this.key = minLevel + "|" + (include != null ? include.pattern() : "") + "|"
+                + (exclude != null ? exclude.pattern() : "");
+    }
+
+    /**
+     * 创建过滤器，条件均为空时返回 {@link #NONE}
+     *
+     * @param minLevel 最低级别（TRACE/DEBUG/INFO/WARN/ERROR），可为空
+     * @param include  内容需匹配的正则，可为空
+     * @param exclude  内容不能匹配的正则，可为空
+     * @param maxRate  每秒最多推送行数，为空或不大于0表示不限
+     * @throws IllegalArgumentException 级别未知、正则过长或语法错误
+     */
+    public static LogStreamFilter of(String minLevel, String include, String exclude, Integer maxRate) {
+        int level = 0;
+        if (minLevel != null && !minLevel.isEmpty()) {
+            level = LogTimeIndex.levelCode(minLevel.toUpperCase());
+            if (level == LogTimeIndex.LEVEL_UNKNOWN) {
+                throw new IllegalArgumentException("未知的日志级别: " + minLevel);
+            }
+        }
+        int rate = maxRate != null && maxRate > 0 ? maxRate : 0;
+        Pattern includePattern = compile(include);
+        Pattern excludePattern = compile(exclude);
+        if (level <= LogTimeIndex.LEVEL_TRACE && includePattern == null
+                && excludePattern == null && rate == 0) {
+            return NONE;
+        }
+        return new LogStreamFilter(level, includePattern, excludePattern, rate);
+    }
+
+    private static Pattern compile(String regex) {
+        if (regex == null || regex.isEmpty()) {
+            return null;
+        }
+        if (regex.length() > MAX_PATTERN_LENGTH) {
+            throw new IllegalArgumentException("正则表达式过长，最多 " + MAX_PATTERN_LENGTH + " 个字符");
+        }
+        return Pattern.compile(regex);
+    }
+
+    /**
+     * 是否不过滤任何日志
+     */
+    public boolean isPassAll() {
+        return this == NONE;
+    }
+
+    /**
+     * 是否有限流状态（有状态的过滤器不能在会话之间共享结果）
+     */
+    public boolean isSampling() {
+        return maxRate > 0;
+    }
+
+    /**
+     * 级别和正则条件的标识，相同标识的过滤器过滤结果相同
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 判断单条日志是否满足级别和正则条件
+     */
+    public boolean matches(AppLog log) {
+        if (minLevel > 0) {
+            int level = LogTimeIndex.levelCode(log.getLogLevel());
+            if ((level == LogTimeIndex.LEVEL_UNKNOWN ? LogTimeIndex.LEVEL_INFO : level) < minLevel) {
+                return false;
+            }
+        }
+        String content = log.getLogContent();
+        if (include != null && (content == null || !include.matcher(content).find())) {
+            return false;
+        }
+        return exclude == null || content == null || !exclude.matcher(content).find();
+    }
+
+    /**
+     * 按级别和正则条件过滤批次，全部满足时返回原批次
+     * 结果只取决于过滤条件，同标识的会话可以共享（过滤行数由调用方通过 {@link #recordFiltered(long)} 计入）
+     */
+    public List<AppLog> filter(List<AppLog> batch) {
+        if (isPassAll()) {
+            return batch;
+        }
+        List<AppLog> result = null;
+        for (int i = 0; i < batch.size(); i++) {
+            AppLog log = batch.get(i);
+            if (matches(log)) {
+                if (result != null) {
+                    result.add(log);
+                }
+            } else if (result == null) {
+                result = new ArrayList<>(batch.subList(0, i));
+            }
+        }
+        return result != null ? result : batch;
+    }
+
+    /**
+     * 计入被级别和正则条件过滤的行数
+     */
+    public void recordFiltered(long lines) {
+        filteredLines += lines;
+    }
+
+    /**
+     * 对已过滤的批次限流，超出速率的行丢弃并计入待通知数
+     */
+    public List<AppLog> sample(List<AppLog> batch, long now) {
+        if (maxRate <= 0 || batch.isEmpty()) {
+            return batch;
+        }
+        if (lastRefillTime > 0) {
+            tokens = Math.min(maxRate, tokens + (now - lastRefillTime) * maxRate / 1000.0);
+        }
+        lastRefillTime = now;
+        int allowed = (int) Math.min(batch.size(), (long) tokens);
+        tokens -= allowed;
+        if (allowed == batch.size()) {
+            return batch;
+        }
+        int dropped = batch.size() - allowed;
+        pendingSampled += dropped;
+        sampledLines += dropped;
+        // 保留批次中较早的行，与后续批次衔接
+        return batch.subList(0, allowed);
+    }
+
+    /**
+     * 取出需要通知的限流丢弃行数（距上次通知不足间隔时返回0）
+     */
+    public long takeSampledNotice(long now) {
+        if (pendingSampled == 0 || now - lastNoticeTime < SAMPLED_NOTICE_INTERVAL_MS) {
+            return 0;
+        }
+        long count = pendingSampled;
+        pendingSampled = 0;
+        lastNoticeTime = now;
+        return count;
+    }
+
+    public int getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * 过滤条件和统计
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("minLevel", minLevel > 0 ? LogTimeIndex.levelName(minLevel) : null);
+        result.put("include", include != null ? include.pattern() : null);
+        result.put("exclude", exclude != null ? exclude.pattern() : null);
+        result.put("maxRate", maxRate);
+        result.put("filteredLines", filteredLines);
+        result.put("sampledLines", sampledLines);
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package com.aeye.app.deploy.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 日志文件尾部读取
+ * <p>
+ * 从文件末尾按 64KB 块向前定位读取，遇到换行即切出一行，读够行数立即停止，
+ * 读取最后N行只需访问文件末尾的少量块，不需要扫描整个文件或建立行索引。
+ * 行的切分规则与 {@link LogLineIndex} 一致：以 '\n' 分行，去掉行尾 '\r'，末尾不完整的行也计为一行。
+ * 压缩分段无法从末尾定位，通过行索引读取。
+ * <p>
+ * 当前分段行数不足时可继续读取同一次运行中的前一个滚动分段（见 {@link #tail(File, int, int)}）。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public final class LogTailReader {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private LogTailReader() {
+    }
+
+    /**
+     * 读取文件最后N行
+     *
+     * @param file  日志文件（.log 或 .log.gz）
+     * @param count 最大行数
+     * @return 行内容（按文件顺序，不含换行符）
+     */
+    public static List<String> tail(File file, int count) throws IOException {
+        if (count <= 0 || !file.isFile()) {
+            return new ArrayList<>();
+        }
+        if (LogSegmentFiles.isCompressed(file)) {
+            return LogLineIndex.open(file).tail(count);
+        }
+        List<String> reversed = new ArrayList<>(Math.min(count, 1024));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return reversed;
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE, size));
+            byte[] block = buf.array();
+            // 行尾部分位于已读的后续块中的字节
+            byte[] carry = EMPTY;
+            long position = size;
+            boolean first = true;
+            while (position > 0 && reversed.size() < count) {
+                int length = (int) Math.min(block.length, position);
+                position -= length;
+                buf.clear().limit(length);
+                readFully(channel, buf, position);
+                int lineEnd = length;
+                // 文件末尾的换行是最后一行的结束符，不再切出空行
+                if (first && block[length - 1] == '\n') {
+                    lineEnd--;
+                }
+                first = false;
+                for (int i = lineEnd - 1; i >= 0 && reversed.size() < count; i--) {
+                    if (block[i] == '\n') {
+                        reversed.add(decode(block, i + 1, lineEnd - i - 1, carry));
+                        carry = EMPTY;
+                        lineEnd = i;
+                    }
+                }
+                if (reversed.size() < count && lineEnd > 0) {
+                    byte[] joined = Arrays.copyOf(block, lineEnd + carry.length);
+                    System.arraycopy(carry, 0, joined, lineEnd, carry.length);
+                    carry = joined;
+                }
+            }
+            // 文件第一行
+            if (position == 0 && reversed.size() < count) {
+                reversed.add(decode(carry, 0, carry.length, EMPTY));
+            }
+        }
+        Collections.reverse(reversed);
+        return reversed;
+    }
+
+    /**
+     * 读取日志分段最后N行，当前分段不足N行时继续向前读取同一次运行的滚动分段
+     *
+     * @param file        当前分段
+     * @param count       最大行数
+     * @param maxSegments 最多读取的分段数（包含当前分段）
+     * @return 行内容（按写入顺序）
+     */
+    public static List<String> tail(File file, int count, int maxSegments) throws IOException {
+        List<String> lines = tail(file, count);
+        File segment = file;
+        for (int i = 1; i < maxSegments && lines.size() < count; i++) {
+            segment = LogSegmentFiles.previousSegment(segment);
+            if (segment == null) {
+                break;
+            }
+            List<String> earlier = tail(segment, count - lines.size());
+            earlier.addAll(lines);
+            lines = earlier;
+        }
+        return lines;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new EOFException("日志文件在读取期间被截断");
+            }
+        }
+    }
+
+    /**
+     * 拼接块内的行首部分和后续块中的行尾部分并解码
+     */
+    private static String decode(byte[] block, int from, int length, byte[] carry) {
+        byte[] line = block;
+        int size = length;
+        if (carry.length > 0) {
+            line = new byte[length + carry.length];
+            System.arraycopy(block, from, line, 0, length);
+            System.arraycopy(carry, 0, line, length, carry.length);
+            from = 0;
+            size = line.length;
+        }
+        if (size > 0 && line[from + size - 1] == '\r') {
+            size--;
+        }
+        return new String(line, from, size, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,499 @@
+package com.aeye.app.deploy.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 日志分段时间与级别索引
+ * <p>
+ * 日志文件只保存日志内容，采集时间和级别保存在分段的两个附属文件中：
+ * <ul>
+ *   <li>.idx/&lt;baseName&gt;.tlb：块头，每块覆盖约 {@link #BLOCK_BYTES} 字节的连续日志行，定长
+ *       <pre>
+ *   long firstOffset | long firstLine | long minTime | long runningMaxTime | long recordsOffset
+ *   | int dataLength | int lineCount | int recordsLength | int levelMask
+ *       </pre>
+ *       runningMaxTime 为截至该块（含）的最大时间，单调不减，可按时间二分查找起始块；
+ *       levelMask 按位记录块内出现的级别，可跳过不含目标级别的块</li>
+ *   <li>.idx/&lt;baseName&gt;.tlr：逐行记录，每行一个字节级别编码加时间差（zigzag varint，相对上一行）</li>
+ * </ul>
+ * 文件写入服务写入日志时增量维护，每次刷新结束当前块。历史分段没有采集信息，不会补建。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public final class LogTimeIndex {
+
+    /** 块头文件后缀 */
+    public static final String BLOCK_SUFFIX = ".tlb";
+
+    /** 逐行记录文件后缀 */
+    public static final String RECORD_SUFFIX = ".tlr";
+
+    /** 单块覆盖的日志字节数 */
+    public static final int BLOCK_BYTES = 4096;
+
+    private static final int MAGIC = 0x4C544C58;
+
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private static final int BLOCK_HEADER_SIZE = 56;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 级别编码（按严重程度递增） */
+    public static final int LEVEL_UNKNOWN = 0;
+    public static final int LEVEL_TRACE = 1;
+    public static final int LEVEL_DEBUG = 2;
+    public static final int LEVEL_INFO = 3;
+    public static final int LEVEL_WARN = 4;
+    public static final int LEVEL_ERROR = 5;
+
+    private static final String[] LEVEL_NAMES = { null, "TRACE", "DEBUG", "INFO", "WARN", "ERROR" };
+
+    private final File segment;
+    private final File recordFile;
+    private final long[] firstOffsets;
+    private final long[] firstLines;
+    private final long[] minTimes;
+    private final long[] runningMaxTimes;
+    private final long[] recordsOffsets;
+    private final int[] lineCounts;
+    private final int[] recordsLengths;
+    private final int[] levelMasks;
+
+    private LogTimeIndex(File segment, File recordFile, int count) {
+        this.segment = segment;
+        this.recordFile = recordFile;
+        this.firstOffsets = new long[count];
+        this.firstLines = new long[count];
+        this.minTimes = new long[count];
+        this.runningMaxTimes = new long[count];
+        this.recordsOffsets = new long[count];
+        this.lineCounts = new int[count];
+        this.recordsLengths = new int[count];
+        this.levelMasks = new int[count];
+    }
+
+    public static File blockFile(File segment) {
+        return new File(new File(segment.getParentFile(), ".idx"), LogSegmentFiles.baseName(segment.getName()) + BLOCK_SUFFIX);
+    }
+
+    public static File recordFile(File segment) {
+        return new File(new File(segment.getParentFile(), ".idx"), LogSegmentFiles.baseName(segment.getName()) + RECORD_SUFFIX);
+    }
+
+    /**
+     * 级别名称转编码
+     */
+    public static int levelCode(String level) {
+        if (level == null) {
+            return LEVEL_UNKNOWN;
+        }
+        for (int i = 1; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(level)) {
+                return i;
+            }
+        }
+        return "FATAL".equalsIgnoreCase(level) ? LEVEL_ERROR : LEVEL_UNKNOWN;
+    }
+
+    /**
+     * 级别编码转名称
+     */
+    public static String levelName(int code) {
+        return code > 0 && code < LEVEL_NAMES.length ? LEVEL_NAMES[code] : null;
+    }
+
+    /**
+     * 打开分段的时间索引，不存在时返回null
+     */
+    public static LogTimeIndex open(File segment) throws IOException {
+        File blockFile = blockFile(segment);
+        File recordFile = recordFile(segment);
+        if (!blockFile.exists() || !recordFile.exists()) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(blockFile.toPath());
+        if (bytes.length < FILE_HEADER_SIZE || ByteBuffer.wrap(bytes).getInt() != MAGIC) {
+            return null;
+        }
+        int count = (bytes.length - FILE_HEADER_SIZE) / BLOCK_HEADER_SIZE;
+        LogTimeIndex index = new LogTimeIndex(segment, recordFile, count);
+        ByteBuffer buf = ByteBuffer.wrap(bytes, FILE_HEADER_SIZE, count * BLOCK_HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            index.firstOffsets[i] = buf.getLong();
+            index.firstLines[i] = buf.getLong();
+            index.minTimes[i] = buf.getLong();
+            index.runningMaxTimes[i] = buf.getLong();
+            index.recordsOffsets[i] = buf.getLong();
+            buf.getInt();
+            index.lineCounts[i] = buf.getInt();
+            index.recordsLengths[i] = buf.getInt();
+            index.levelMasks[i] = buf.getInt();
+        }
+        return index;
+    }
+
+    /**
+     * 记录访问器
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        /**
+         * @return 是否继续
+         */
+        boolean visit(long line, long offset, long time, int level, byte[] bytes, int length) throws IOException;
+    }
+
+    /**
+     * 按时间范围和最低级别查询
+     * 二分定位第一个可能包含起始时间的块，跳过不含目标级别的块，遇到最小时间晚于结束时间的块时停止
+     *
+     * @param from     起始时间（毫秒，含）
+     * @param to       结束时间（毫秒，含）
+     * @param minLevel 最低级别编码
+     * @param visitor  记录访问器
+     */
+    public void query(long from, long to, int minLevel, RecordVisitor visitor) throws IOException {
+        int count = firstOffsets.length;
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (runningMaxTimes[mid] < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int levelFilter = 0;
+        for (int level = Math.max(minLevel, 0); level < LEVEL_NAMES.length; level++) {
+            levelFilter |= 1 << level;
+        }
+
+        InputStream data = null;
+        long position = 0;
+        // 可定位的分段跳过的数据超过一个压缩成员时重新定位，否则顺序跳过
+        long maxSkip = LogSegmentFiles.isSeekable(segment) ? LogSegmentFiles.MEMBER_SIZE : Long.MAX_VALUE;
+        try (FileChannel records = FileChannel.open(recordFile.toPath(), StandardOpenOption.READ)) {
+            byte[] line = new byte[256];
+            for (int b = lo; b < count; b++) {
+                if (minTimes[b] > to) {
+                    break;
+                }
+                if ((levelMasks[b] & levelFilter) == 0) {
+                    continue;
+                }
+                ByteBuffer recordBuf = ByteBuffer.allocate(recordsLengths[b]);
+                while (recordBuf.hasRemaining()) {
+                    if (records.read(recordBuf, recordsOffsets[b] + recordBuf.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                recordBuf.flip();
+
+                // 定位到块的起始偏移（顺序读取时直接跳过较近的中间数据）
+                if (data == null || position > firstOffsets[b] || firstOffsets[b] - position > maxSkip) {
+                    if (data != null) {
+                        data.close();
+                    }
+                    data = openAt(firstOffsets[b]);
+                    position = firstOffsets[b];
+                }
+                position += skipFully(data, firstOffsets[b] - position);
+
+                long time = minTimes[b];
+                for (int i = 0; i < lineCounts[b]; i++) {
+                    int level = recordBuf.get();
+                    time += zigzagDecode(readVarint(recordBuf));
+                    long lineOffset = position;
+                    int length = 0;
+                    int c;
+                    while ((c = data.read()) >= 0) {
+                        position++;
+                        if (c == '\n') {
+                            break;
+                        }
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, line.length * 2);
+                        }
+                        line[length++] = (byte) c;
+                    }
+                    if (length > 0 && line[length - 1] == '\r') {
+                        length--;
+                    }
+                    if (time >= from && time <= to && level >= minLevel
+                            && !visitor.visit(firstLines[b] + i, lineOffset, time, level, line, length)) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            if (data != null) {
+                data.close();
+            }
+        }
+    }
+
+    /**
+     * 分段覆盖的时间范围 {最早时间, 最晚时间}，没有记录时返回null
+     */
+    public long[] timeRange() {
+        if (firstOffsets.length == 0) {
+            return null;
+        }
+        long min = Long.MAX_VALUE;
+        for (long t : minTimes) {
+            min = Math.min(min, t);
+        }
+        return new long[] { min, runningMaxTimes[runningMaxTimes.length - 1] };
+    }
+
+    private InputStream openAt(long offset) throws IOException {
+        InputStream in = LogSegmentFiles.openStreamAt(segment, offset);
+        return LogSegmentFiles.isCompressed(segment) ? new BufferedInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    private static long skipFully(InputStream in, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                break;
+            }
+            remaining -= skipped;
+        }
+        return count - remaining;
+    }
+
+    private static int readVarint(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static long zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 时间索引增量写入器
+     * 由文件写入服务在持有写入锁时调用。写入失败不影响日志写入，之后停止追加
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream blocks;
+        private final DataOutputStream records;
+        private final ByteArrayOutputStream blockRecords = new ByteArrayOutputStream(1024);
+        private long recordsSize;
+        private long line;
+        private long runningMaxTime;
+        private boolean failed;
+
+        /** 当前块 */
+        private long firstOffset;
+        private long firstLine;
+        private long minTime;
+        private long previousTime;
+        private int dataLength;
+        private int lineCount;
+        private int levelMask;
+        /** 当前块的时间基准（块内第一行时间），写出时换算为相对最小时间 */
+        private long baseTime;
+
+        private Writer(DataOutputStream blocks, DataOutputStream records, long recordsSize, long line,
+                long runningMaxTime) {
+            this.blocks = blocks;
+            this.records = records;
+            this.recordsSize = recordsSize;
+            this.line = line;
+            this.runningMaxTime = runningMaxTime;
+        }
+
+        /**
+         * 为分段打开写入器
+         * 已有索引时校验末尾（截掉不完整的块头、超出分段当前长度的块和未登记的记录）后继续追加，
+         * 分段曾写入失败并被截断时索引不会保留指向不存在内容的块
+         *
+         * @param segment   分段文件
+         * @param startLine 分段当前的行数
+         */
+        public static Writer open(File segment, long startLine) throws IOException {
+            File blockFile = blockFile(segment);
+            File recordFile = recordFile(segment);
+            File dir = blockFile.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("无法创建索引目录: " + dir);
+            }
+            long runningMax = Long.MIN_VALUE;
+            long recordsSize = 0;
+            boolean valid = false;
+            if (blockFile.exists() && recordFile.exists() && blockFile.length() >= FILE_HEADER_SIZE) {
+                try (FileChannel channel = FileChannel.open(blockFile.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    ByteBuffer magic = ByteBuffer.allocate(4);
+                    channel.read(magic, 0);
+                    if (magic.getInt(0) == MAGIC) {
+                        long contentLength = segment.length();
+                        long count = (channel.size() - FILE_HEADER_SIZE) / BLOCK_HEADER_SIZE;
+                        ByteBuffer last = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+                        while (count > 0) {
+                            last.clear();
+                            channel.read(last, FILE_HEADER_SIZE + (count - 1) * BLOCK_HEADER_SIZE);
+                            if (last.getLong(0) + last.getInt(40) <= contentLength) {
+                                runningMax = last.getLong(24);
+                                recordsSize = last.getLong(32) + last.getInt(48);
+                                break;
+                            }
+                            count--;
+                        }
+                        channel.truncate(FILE_HEADER_SIZE + count * BLOCK_HEADER_SIZE);
+                        valid = true;
+                    }
+                }
+                if (valid) {
+                    try (FileChannel channel = FileChannel.open(recordFile.toPath(), StandardOpenOption.WRITE)) {
+                        channel.truncate(recordsSize);
+                    }
+                }
+            }
+            if (!valid) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).putInt(1);
+                Files.write(blockFile.toPath(), header.array());
+                Files.write(recordFile.toPath(), new byte[0]);
+            }
+            DataOutputStream blocks = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(blockFile, true), 4096));
+            DataOutputStream records = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(recordFile, true), 8192));
+            return new Writer(blocks, records, recordsSize, startLine, runningMax);
+        }
+
+        /**
+         * 记录一行
+         *
+         * @param offset 行起始偏移
+         * @param bytes  行字节数（含换行符）
+         * @param time   采集时间（毫秒）
+         * @param level  级别编码
+         */
+        public void onLine(long offset, long bytes, long time, int level) {
+            if (failed) {
+                return;
+            }
+            if (lineCount == 0) {
+                firstOffset = offset;
+                firstLine = line;
+                minTime = time;
+                baseTime = time;
+                previousTime = time;
+            }
+            blockRecords.write(level);
+            writeVarint(blockRecords, zigzagEncode(time - previousTime));
+            previousTime = time;
+            minTime = Math.min(minTime, time);
+            runningMaxTime = Math.max(runningMaxTime, time);
+            dataLength += (int) bytes;
+            lineCount++;
+            levelMask |= 1 << level;
+            line++;
+            if (dataLength >= BLOCK_BYTES) {
+                finishBlock();
+            }
+        }
+
+        /**
+         * 结束当前块并写入索引文件
+         */
+        public void flush() {
+            if (failed) {
+                return;
+            }
+            finishBlock();
+            try {
+                records.flush();
+                blocks.flush();
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        private void finishBlock() {
+            if (lineCount == 0) {
+                return;
+            }
+            try {
+                // 第一条记录的时间差相对于块内第一行，读取时以最小时间为基准，需要修正第一条记录
+                byte[] recordBytes = rebase(blockRecords.toByteArray(), baseTime - minTime);
+                records.write(recordBytes);
+                blocks.writeLong(firstOffset);
+                blocks.writeLong(firstLine);
+                blocks.writeLong(minTime);
+                blocks.writeLong(runningMaxTime);
+                blocks.writeLong(recordsSize);
+                blocks.writeInt(dataLength);
+                blocks.writeInt(lineCount);
+                blocks.writeInt(recordBytes.length);
+                blocks.writeInt(levelMask);
+                recordsSize += recordBytes.length;
+            } catch (IOException e) {
+                failed = true;
+            }
+            blockRecords.reset();
+            dataLength = 0;
+            lineCount = 0;
+            levelMask = 0;
+        }
+
+        /**
+         * 将第一条记录的时间差替换为相对最小时间的差值
+         */
+        private static byte[] rebase(byte[] recordBytes, long firstDelta) {
+            ByteBuffer buf = ByteBuffer.wrap(recordBytes);
+            buf.get();
+            readVarint(buf);
+            int restStart = buf.position();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(recordBytes.length + 8);
+            out.write(recordBytes[0]);
+            writeVarint(out, zigzagEncode(firstDelta));
+            out.write(recordBytes, restStart, recordBytes.length - restStart);
+            return out.toByteArray();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            try {
+                records.close();
+            } finally {
+                blocks.close();
+            }
+        }
+
+        private static int zigzagEncode(long value) {
+            int v = (int) Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, value));
+            return (v << 1) ^ (v >> 31);
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
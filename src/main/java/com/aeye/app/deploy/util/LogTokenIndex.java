@@ -0,0 +1,418 @@
+package com.aeye.app.deploy.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 日志分段倒排索引
+ * <p>
+ * 对封存分段中的词元（trace ID、异常类名、订单号等）建立 词元 -&gt; 行号列表 的倒排索引，
+ * 保存在 .idx/&lt;baseName&gt;.tok 中。词元为由字母、数字和 {@code _ - . $} 组成的连续ASCII片段，
+ * 不区分大小写，长度 3~128；含点号的词元（如 java.lang.NullPointerException）同时按各段建立索引。
+ * <p>
+ * 文件格式（整数均为大端，变长整数为 varint）：
+ * <pre>
+ *   header : int magic ("LTOK") | int version | int tokenCount | int blockCount
+ *            | long dictOffset | long postingsOffset
+ *   blocks : blockCount × (varint len | token bytes | long dictEntryOffset)   每 BLOCK_SIZE 个词元一项
+ *   dict   : tokenCount × (varint len | token bytes | varint postingsRelOffset | varint postingsLength | varint count)
+ *   postings: 行号差值的 varint 序列
+ * </pre>
+ * 查找时只需加载块索引，二分定位块后读取一个块内的字典项和对应的倒排列表。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public final class LogTokenIndex {
+
+    /** 索引文件后缀 */
+    public static final String SUFFIX = ".tok";
+
+    private static final int MAGIC = 0x4C544F4B;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    /** 块索引间隔（词元数） */
+    private static final int BLOCK_SIZE = 64;
+
+    private static final int MIN_TOKEN_LENGTH = 3;
+
+    private static final int MAX_TOKEN_LENGTH = 128;
+
+    private LogTokenIndex() {
+    }
+
+    /**
+     * 获取分段的倒排索引文件
+     */
+    public static File indexFile(File segment) {
+        File dir = new File(segment.getParentFile(), ".idx");
+        return new File(dir, LogSegmentFiles.baseName(segment.getName()) + SUFFIX);
+    }
+
+    // ==================== 词元切分 ====================
+
+    private static boolean isTokenChar(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '_' || b == '-' || b == '.' || b == '$';
+    }
+
+    /**
+     * 词元回调
+     */
+    @FunctionalInterface
+    private interface TokenSink {
+        void accept(String token);
+    }
+
+    /**
+     * 切分一行中的词元（小写）
+     *
+     * @param parts 是否同时输出含点号词元的各段
+     */
+    private static void tokenize(byte[] bytes, int length, boolean parts, TokenSink sink) {
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isTokenChar(bytes[i])) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isTokenChar(bytes[i])) {
+                i++;
+            }
+            emit(bytes, start, i, parts, sink);
+        }
+    }
+
+    private static void emit(byte[] bytes, int start, int end, boolean parts, TokenSink sink) {
+        // 去掉首尾的 . 和 -（句号、破折号）
+        while (start < end && (bytes[start] == '.' || bytes[start] == '-')) {
+            start++;
+        }
+        while (end > start && (bytes[end - 1] == '.' || bytes[end - 1] == '-')) {
+            end--;
+        }
+        int length = end - start;
+        if (length < MIN_TOKEN_LENGTH || length > MAX_TOKEN_LENGTH) {
+            return;
+        }
+        char[] chars = new char[length];
+        boolean dotted = false;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[start + i];
+            chars[i] = (char) (b >= 'A' && b <= 'Z' ? b + 32 : b);
+            dotted |= b == '.';
+        }
+        sink.accept(new String(chars));
+        if (dotted && parts) {
+            int partStart = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i == length || chars[i] == '.') {
+                    if (i - partStart >= MIN_TOKEN_LENGTH && i - partStart < length) {
+                        sink.accept(new String(chars, partStart, i - partStart));
+                    }
+                    partStart = i + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * 切分查询字符串中的词元（去重，小写）
+     *
+     * @param text 查询字符串
+     * @return 词元集合，只包含完整词元（不拆分点号）
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        tokenize(bytes, bytes.length, false, tokens::add);
+        return tokens;
+    }
+
+    /**
+     * 判断一行是否包含全部查询词元（用于未建立索引的分段）
+     */
+    public static boolean lineMatches(byte[] bytes, int length, Set<String> tokens) {
+        Set<String> found = new HashSet<>();
+        tokenize(bytes, length, true, token -> {
+            if (tokens.contains(token)) {
+                found.add(token);
+            }
+        });
+        return found.size() == tokens.size();
+    }
+
+    // ==================== 建立索引 ====================
+
+    /**
+     * 扫描分段建立倒排索引（先写临时文件再替换）
+     *
+     * @param segment 分段文件（.log 或 .log.gz）
+     * @return 索引的词元数
+     */
+    public static int build(File segment) throws IOException {
+        Map<String, int[]> postings = new HashMap<>();
+        LogLineIndex.open(segment).scan(0, (line, offset, bytes, length) -> {
+            int lineNo = (int) line;
+            tokenize(bytes, length, true, token -> {
+                int[] list = postings.get(token);
+                if (list == null) {
+                    // list[0] 为已用长度
+                    list = new int[] { 0, 0, 0, 0 };
+                    postings.put(token, list);
+                } else if (list[0] > 0 && list[list[0]] == lineNo) {
+                    return;
+                }
+                if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    postings.put(token, list);
+                }
+                list[++list[0]] = lineNo;
+            });
+            return true;
+        });
+
+        String[] tokens = postings.keySet().toArray(new String[0]);
+        Arrays.sort(tokens);
+
+        ByteArrayOutputStream postingsOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream dictOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream blocksOut = new ByteArrayOutputStream();
+        DataOutputStream blocks = new DataOutputStream(blocksOut);
+        int blockCount = 0;
+        for (int t = 0; t < tokens.length; t++) {
+            byte[] tokenBytes = tokens[t].getBytes(StandardCharsets.US_ASCII);
+            if (t % BLOCK_SIZE == 0) {
+                writeVarint(blocksOut, tokenBytes.length);
+                blocksOut.write(tokenBytes);
+                blocks.writeLong(dictOut.size());
+                blockCount++;
+            }
+            int[] list = postings.get(tokens[t]);
+            int postingsStart = postingsOut.size();
+            int previous = 0;
+            for (int i = 1; i <= list[0]; i++) {
+                writeVarint(postingsOut, list[i] - previous);
+                previous = list[i];
+            }
+            writeVarint(dictOut, tokenBytes.length);
+            dictOut.write(tokenBytes);
+            writeVarint(dictOut, postingsStart);
+            writeVarint(dictOut, postingsOut.size() - postingsStart);
+            writeVarint(dictOut, list[0]);
+        }
+        blocks.flush();
+
+        File indexFile = indexFile(segment);
+        File dir = indexFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建索引目录: " + dir);
+        }
+        File temp = new File(dir, indexFile.getName() + ".tmp");
+        long dictOffset = HEADER_SIZE + blocksOut.size();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tokens.length);
+            out.writeInt(blockCount);
+            out.writeLong(dictOffset);
+            out.writeLong(dictOffset + dictOut.size());
+            blocksOut.writeTo(out);
+            dictOut.writeTo(out);
+            postingsOut.writeTo(out);
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return tokens.length;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static String readToken(ByteBuffer buf) {
+        int length = readVarint(buf);
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    // ==================== 查询 ====================
+
+    /**
+     * 倒排索引读取器（只加载块索引，可缓存复用，线程安全）
+     */
+    public static final class Reader {
+
+        private final File indexFile;
+        private final long fileLength;
+        private final long lastModified;
+        private final String[] blockTokens;
+        private final long[] blockOffsets;
+        private final long dictOffset;
+        private final long postingsOffset;
+
+        private Reader(File indexFile, long fileLength, long lastModified, String[] blockTokens,
+                long[] blockOffsets, long dictOffset, long postingsOffset) {
+            this.indexFile = indexFile;
+            this.fileLength = fileLength;
+            this.lastModified = lastModified;
+            this.blockTokens = blockTokens;
+            this.blockOffsets = blockOffsets;
+            this.dictOffset = dictOffset;
+            this.postingsOffset = postingsOffset;
+        }
+
+        /**
+         * 打开索引文件，文件不存在或格式不符时返回null
+         */
+        public static Reader open(File indexFile) throws IOException {
+            if (!indexFile.exists()) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    return null;
+                }
+                header.getInt();
+                int blockCount = header.getInt();
+                long dictOffset = header.getLong();
+                long postingsOffset = header.getLong();
+
+                ByteBuffer blocks = ByteBuffer.allocate((int) (dictOffset - HEADER_SIZE));
+                readFully(channel, blocks, HEADER_SIZE);
+                blocks.flip();
+                String[] blockTokens = new String[blockCount];
+                long[] blockOffsets = new long[blockCount];
+                for (int i = 0; i < blockCount; i++) {
+                    blockTokens[i] = readToken(blocks);
+                    blockOffsets[i] = blocks.getLong();
+                }
+                return new Reader(indexFile, indexFile.length(), indexFile.lastModified(),
+                        blockTokens, blockOffsets, dictOffset, postingsOffset);
+            }
+        }
+
+        /**
+         * 索引文件是否已被替换（用于缓存失效判断）
+         */
+        public boolean isStale() {
+            return indexFile.length() != fileLength || indexFile.lastModified() != lastModified;
+        }
+
+        /**
+         * 查找词元的行号列表（升序）
+         *
+         * @param token 小写词元
+         * @return 行号列表，不存在时返回空数组
+         */
+        public int[] lookup(String token) throws IOException {
+            int block = Arrays.binarySearch(blockTokens, token);
+            if (block < 0) {
+                block = -block - 2;
+            }
+            if (block < 0) {
+                return new int[0];
+            }
+            long start = dictOffset + blockOffsets[block];
+            long end = block + 1 < blockOffsets.length ? dictOffset + blockOffsets[block + 1] : postingsOffset;
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer dict = ByteBuffer.allocate((int) (end - start));
+                readFully(channel, dict, start);
+                dict.flip();
+                while (dict.hasRemaining()) {
+                    String entry = readToken(dict);
+                    int relOffset = readVarint(dict);
+                    int length = readVarint(dict);
+                    int count = readVarint(dict);
+                    int cmp = entry.compareTo(token);
+                    if (cmp < 0) {
+                        continue;
+                    }
+                    if (cmp > 0) {
+                        break;
+                    }
+                    ByteBuffer postings = ByteBuffer.allocate(length);
+                    readFully(channel, postings, postingsOffset + relOffset);
+                    postings.flip();
+                    int[] lines = new int[count];
+                    int line = 0;
+                    for (int i = 0; i < count; i++) {
+                        line += readVarint(postings);
+                        lines[i] = line;
+                    }
+                    return lines;
+                }
+            }
+            return new int[0];
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, position + buf.position());
+                if (n < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+    }
+
+    /**
+     * 求多个升序行号列表的交集
+     */
+    public static int[] intersect(List<int[]> lists) {
+        if (lists.isEmpty()) {
+            return new int[0];
+        }
+        lists.sort(Comparator.comparingInt(l -> l.length));
+        int[] result = lists.get(0);
+        for (int k = 1; k < lists.size() && result.length > 0; k++) {
+            int[] other = lists.get(k);
+            int[] merged = new int[result.length];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < result.length && j < other.length) {
+                if (result[i] < other[j]) {
+                    i++;
+                } else if (result[i] > other[j]) {
+                    j++;
+                } else {
+                    merged[n++] = result[i];
+                    i++;
+                    j++;
+                }
+            }
+            result = Arrays.copyOf(merged, n);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,398 @@
+package com.aeye.app.deploy.util;
+
+import com.aeye.app.deploy.model.AppLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 堆外槽位存储
+ * <p>
+ * 日志内容以UTF-8字节追加写入堆外内存段（direct 或 memory-mapped），堆内只保留每个槽位的小索引：
+ * 序号、所在内存段、偏移、长度、级别、时间、版本、线程和日志器（后四者为共享字符串引用）。
+ * {@link AppLog} 对象只在读取时按需创建，常驻内存的日志历史不再占用堆空间，也不参与GC扫描。
+ * <p>
+ * 内存段按写入顺序使用，日志按序号先进先出释放，一个内存段中的日志全部释放后归还内存段池复用。
+ * 读取采用 {@link StampedLock} 乐观读：复制字节后校验戳记，期间若有写入方释放或改写槽位则加读锁重试，
+ * 常规情况下读取不阻塞写入。
+ *
+ * @author aeye
+ * @since 1.0.0
+ */
+public class OffHeapLogEntryStore implements LogEntryStore {
+
+    /** 每个槽位堆内索引的估算开销，单位字节 */
+    private static final int INDEX_OVERHEAD_BYTES = 56;
+
+    private final String appCode;
+
+    private final SegmentPool pool;
+
+    private final StampedLock lock = new StampedLock();
+
+    /** 槽位索引（写入时持有写锁，读取时乐观读） */
+    private final long[] seqs;
+    private final Segment[] segments;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final String[] levels;
+    private final String[] versions;
+    private final String[] threads;
+    private final String[] loggers;
+    private final long[] times;
+
+    /** 正在使用的内存段（按写入顺序） */
+    private final ArrayDeque<Segment> activeSegments = new ArrayDeque<>();
+
+    /** 当前写入的内存段 */
+    private Segment current;
+
+    /** 已释放日志的最大序号 */
+    private long releasedSeq = 0;
+
+    /** 编码器（仅写入方使用） */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    public OffHeapLogEntryStore(String appCode, int capacity, SegmentPool pool) {
+        this.appCode = appCode;
+        this.pool = pool;
+        this.seqs = new long[capacity];
+        this.segments = new Segment[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.levels = new String[capacity];
+        this.versions = new String[capacity];
+        this.threads = new String[capacity];
+        this.loggers = new String[capacity];
+        this.times = new long[capacity];
+    }
+
+    @Override
+    public int getCapacity() {
+        return seqs.length;
+    }
+
+    @Override
+    public int store(int index, long seq, AppLog log) {
+        String content = log.getLogContent() != null ? log.getLogContent() : "";
+        long stamp = lock.writeLock();
+        try {
+            Segment segment = encode(content, seq);
+            seqs[index] = seq;
+            segments[index] = segment;
+            offsets[index] = segment.lastOffset;
+            lengths[index] = segment.writePos - segment.lastOffset;
+            levels[index] = log.getLogLevel();
+            versions[index] = log.getVersion();
+            threads[index] = log.getThread();
+            loggers[index] = log.getLogger();
+            times[index] = log.getLogTime() != null ? log.getLogTime().getTime() : System.currentTimeMillis();
+            return INDEX_OVERHEAD_BYTES + lengths[index];
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 将日志内容编码写入内存段（需要在持有写锁的情况下调用）
+     * 当前内存段剩余空间不足时切换到新的内存段，超过内存段大小的单条日志使用独立内存段
+     */
+    private Segment encode(String content, long seq) {
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, (long) content.length() * 3);
+        if (maxBytes > pool.segmentSize) {
+            Segment oversize = pool.allocateOversize(maxBytes);
+            writeInto(oversize, content);
+            oversize.maxSeq = seq;
+            activeSegments.addLast(oversize);
+            return oversize;
+        }
+        if (current == null || current.remaining() < maxBytes) {
+            current = pool.acquire();
+            activeSegments.addLast(current);
+        }
+        writeInto(current, content);
+        current.maxSeq = seq;
+        return current;
+    }
+
+    private void writeInto(Segment segment, String content) {
+        ByteBuffer out = segment.writeView;
+        out.limit(out.capacity());
+        out.position(segment.writePos);
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(content), out, true);
+        if (result.isUnderflow()) {
+            encoder.flush(out);
+        }
+        segment.lastOffset = segment.writePos;
+        segment.writePos = out.position();
+    }
+
+    @Override
+    public AppLog load(int index, long seq) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            AppLog log;
+            try {
+                log = read(index, seq);
+            } catch (RuntimeException e) {
+                // 乐观读期间索引被改写可能读到不一致的数据，加锁重试
+                log = null;
+            }
+            if (lock.validate(stamp)) {
+                return log;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read(index, seq);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private AppLog read(int index, long seq) {
+        if (seqs[index] != seq) {
+            return null;
+        }
+        Segment segment = segments[index];
+        int length = lengths[index];
+        byte[] bytes = new byte[length];
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position(offsets[index]);
+        view.get(bytes);
+
+        AppLog log = new AppLog();
+        log.setAppCode(appCode);
+        log.setVersion(versions[index]);
+        log.setLogLevel(levels[index]);
+        log.setThread(threads[index]);
+        log.setLogger(loggers[index]);
+        log.setLogContent(new String(bytes, StandardCharsets.UTF_8));
+        log.setLogTime(new Date(times[index]));
+        log.setSeq(seq);
+        return log;
+    }
+
+    @Override
+    public void release(int index, long seq) {
+        long stamp = lock.writeLock();
+        try {
+            if (seqs[index] == seq) {
+                seqs[index] = 0;
+                segments[index] = null;
+                levels[index] = null;
+                versions[index] = null;
+                threads[index] = null;
+                loggers[index] = null;
+            }
+            releasedSeq = Math.max(releasedSeq, seq);
+            // 归还日志已全部释放的内存段
+            while (!activeSegments.isEmpty()) {
+                Segment head = activeSegments.peekFirst();
+                if (head.maxSeq > releasedSeq) {
+                    break;
+                }
+                activeSegments.pollFirst();
+                if (head == current) {
+                    current = null;
+                }
+                pool.release(head);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            java.util.Arrays.fill(seqs, 0);
+            java.util.Arrays.fill(segments, null);
+            while (!activeSegments.isEmpty()) {
+                pool.release(activeSegments.pollFirst());
+            }
+            current = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 堆外内存段
+     */
+    static final class Segment {
+        /** 底层内存（direct 或 mapped） */
+        final ByteBuffer buffer;
+        /** 写入视图（仅写入方使用，避免每次写入创建视图） */
+        final ByteBuffer writeView;
+        /** 是否为池化内存段（独立分配的超大内存段不归还池） */
+        final boolean pooled;
+        /** 下一个写入位置 */
+        int writePos;
+        /** 最近一次写入的起始位置 */
+        int lastOffset;
+        /** 该内存段中日志的最大序号 */
+        long maxSeq;
+
+        Segment(ByteBuffer buffer, boolean pooled) {
+            this.buffer = buffer;
+            this.writeView = buffer.duplicate();
+            this.pooled = pooled;
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePos;
+        }
+    }
+
+    /**
+     * 堆外内存段池
+     * <p>
+     * 所有应用共享，内存段按固定大小分配，释放后复用，空闲内存段超过上限时不再保留
+     * （direct 内存段交给GC回收；mapped 内存段对应的文件在进程退出时删除）。
+     */
+    public static final class SegmentPool {
+
+        private static final Logger logger = LoggerFactory.getLogger(SegmentPool.class);
+
+        /** 存储模式：direct 或 mapped */
+        private final String mode;
+        /** mapped 模式的内存段文件目录 */
+        private final File mappedDir;
+        /** 内存段大小（字节） */
+        final int segmentSize;
+        /** 最多保留的空闲内存段数量 */
+        private final int maxIdleSegments;
+
+        private final ConcurrentLinkedQueue<Segment> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger(0);
+        private final AtomicLong allocatedBytes = new AtomicLong(0);
+        private final AtomicInteger fileSeq = new AtomicInteger(0);
+
+        /**
+         * @param mode            存储模式：direct 或 mapped
+         * @param mappedDir       mapped 模式的内存段文件目录
+         * @param segmentSize     内存段大小（字节）
+         * @param maxIdleSegments 最多保留的空闲内存段数量
+         */
+        public SegmentPool(String mode, File mappedDir, int segmentSize, int maxIdleSegments) {
+            this.mode = mode;
+            this.mappedDir = mappedDir;
+            this.segmentSize = segmentSize;
+            this.maxIdleSegments = maxIdleSegments;
+            if (isMapped()) {
+                cleanMappedDir();
+            }
+        }
+
+        Segment acquire() {
+            Segment segment = idle.poll();
+            if (segment != null) {
+                idleCount.decrementAndGet();
+                segment.writePos = 0;
+                segment.lastOffset = 0;
+                segment.maxSeq = 0;
+                return segment;
+            }
+            return new Segment(allocate(segmentSize), true);
+        }
+
+        Segment allocateOversize(int size) {
+            // 超大日志较少出现，使用堆外直接内存，不走mapped文件
+            allocatedBytes.addAndGet(size);
+            return new Segment(ByteBuffer.allocateDirect(size), false);
+        }
+
+        void release(Segment segment) {
+            if (!segment.pooled) {
+                allocatedBytes.addAndGet(-segment.buffer.capacity());
+                return;
+            }
+            // mapped 内存段无法主动解除映射，始终保留复用
+            if (isMapped() || idleCount.get() < maxIdleSegments) {
+                idle.offer(segment);
+                idleCount.incrementAndGet();
+            } else {
+                allocatedBytes.addAndGet(-segment.buffer.capacity());
+            }
+        }
+
+        private ByteBuffer allocate(int size) {
+            allocatedBytes.addAndGet(size);
+            if (!isMapped()) {
+                return ByteBuffer.allocateDirect(size);
+            }
+            File file = new File(mappedDir, "segment-" + fileSeq.incrementAndGet() + ".buf");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+                // 映射在通道关闭后依然有效
+                ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                file.deleteOnExit();
+                return buffer;
+            } catch (IOException e) {
+                logger.warn("创建内存映射段失败，改用direct内存: {}", file.getAbsolutePath(), e);
+                return ByteBuffer.allocateDirect(size);
+            }
+        }
+
+        private boolean isMapped() {
+            return "mapped".equalsIgnoreCase(mode);
+        }
+
+        /**
+         * 清理上次运行遗留的内存段文件
+         */
+        private void cleanMappedDir() {
+            if (!mappedDir.exists() && !mappedDir.mkdirs()) {
+                logger.warn("创建内存映射段目录失败: {}", mappedDir.getAbsolutePath());
+                return;
+            }
+            File[] stale = mappedDir.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".buf"));
+            if (stale != null) {
+                for (File file : stale) {
+                    if (!file.delete()) {
+                        logger.debug("删除遗留内存段文件失败: {}", file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        /**
+         * 获取已分配的堆外内存字节数
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes.get();
+        }
+
+        /**
+         * 获取空闲内存段数量
+         */
+        public int getIdleSegments() {
+            return idleCount.get();
+        }
+
+        public String getMode() {
+            return mode;
+        }
+    }
+}